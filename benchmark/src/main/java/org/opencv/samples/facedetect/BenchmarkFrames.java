@@ -0,0 +1,115 @@
+package org.opencv.samples.facedetect;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opencv.android.FrameSource;
+import org.opencv.android.ImageSequenceFrameSource;
+import org.opencv.android.SyntheticFrameSource;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.RotatedRect;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * ベンチマーク用のフレームと縁ちゃん画像を用意する
+ * -Dbenchmark.frames=DIR があれば録画したフレームを、なければ SyntheticFrameSource の画像を使う
+ */
+final class BenchmarkFrames {
+
+    static final int FRAME_COUNT = 16;
+
+    private static boolean sLoaded = false;
+
+    private BenchmarkFrames() {
+    }
+
+    static synchronized void loadLibrary() {
+        if (!sLoaded) {
+            System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+            sLoaded = true;
+        }
+    }
+
+    /**
+     * "640x480" の形式の解像度を {幅, 高さ} にする
+     */
+    static int[] parseResolution(String resolution) {
+        String[] size = resolution.split("x");
+        return new int[] { Integer.parseInt(size[0]), Integer.parseInt(size[1]) };
+    }
+
+    /**
+     * 指定した解像度のフレームを読み込む
+     * @param resolution "640x480" の形式
+     * @param grays グレースケールのフレームを追加する
+     * @param rgbas RGBA のフレームを追加する
+     */
+    static void load(String resolution, List<Mat> grays, List<Mat> rgbas) {
+        loadLibrary();
+        int[] size = parseResolution(resolution);
+        Size dsize = new Size(size[0], size[1]);
+
+        String dir = System.getProperty("benchmark.frames");
+        FrameSource source;
+        if (dir != null) {
+            source = ImageSequenceFrameSource.fromDirectory(new File(dir), true);
+        } else {
+            source = new SyntheticFrameSource(size[0], size[1], 0, 40, 0);
+        }
+        for (int i = 0; i < FRAME_COUNT && source.grab(); i++) {
+            Mat gray = new Mat();
+            Mat rgba = new Mat();
+            Imgproc.resize(source.gray(), gray, dsize);
+            Imgproc.resize(source.rgba(), rgba, dsize);
+            grays.add(gray);
+            rgbas.add(rgba);
+        }
+        source.release();
+    }
+
+    /**
+     * 縁ちゃん画像 (RGBA) を読み込む
+     */
+    static Mat loadSprite() {
+        loadLibrary();
+        String path = System.getProperty("benchmark.sprite");
+        if (path == null || !new File(path).exists()) {
+            throw new IllegalStateException("benchmark.sprite is not set or does not exist: " + path);
+        }
+        Mat bgra = Imgcodecs.imread(path, Imgcodecs.IMREAD_UNCHANGED);
+        Mat sprite = new Mat();
+        Imgproc.cvtColor(bgra, sprite, Imgproc.COLOR_BGRA2RGBA);
+        bgra.release();
+        return sprite;
+    }
+
+    /**
+     * 画像の中心にある目のペア (SyntheticFrameSource と同じ大きさ)
+     */
+    static EyePair centerPair(int width, int height) {
+        EyePair pair = new EyePair();
+        pair.set(new RotatedRect(new Point(width / 2.0 - 40, height / 2.0), new Size(16, 48), 0),
+                new RotatedRect(new Point(width / 2.0 + 40, height / 2.0), new Size(16, 48), 0));
+        return pair;
+    }
+
+    static void release(List<Mat> mats) {
+        for (Mat mat : mats) {
+            mat.release();
+        }
+        mats.clear();
+    }
+
+    static <T> List<List<T>> newLists(int count) {
+        List<List<T>> lists = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            lists.add(new ArrayList<T>());
+        }
+        return lists;
+    }
+}
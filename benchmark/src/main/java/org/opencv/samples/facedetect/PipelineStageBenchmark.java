@@ -0,0 +1,289 @@
+package org.opencv.samples.facedetect;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
+import org.opencv.core.RotatedRect;
+import org.opencv.core.RotatedRectBuffer;
+import org.opencv.core.Size;
+import org.opencv.imgproc.ContourBuffer;
+import org.opencv.imgproc.Imgproc;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * FdActivity.onCameraFrame の各段階のベンチマーク
+ * 各段階は前の段階の結果をあらかじめ計算しておいたものを入力にして、その段階だけを計測する
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class PipelineStageBenchmark {
+
+    private static final Size blurSize = new Size(7, 7);
+
+    @Param({ "320x240", "640x480", "1280x720" })
+    public String resolution;
+
+    private final List<Mat> mGray = new ArrayList<>();
+    private final List<Mat> mRgba = new ArrayList<>();
+    private final List<Mat> mBlur = new ArrayList<>();
+    private final List<Mat> mThreshold = new ArrayList<>();
+    private final List<Mat> mCanny = new ArrayList<>();
+    private double[] mHighThreshold;
+    private List<List<MatOfPoint2f>> mContours;
+    private RotatedRect[][] mCandidates;
+
+    private SocketDetectionPipeline mPipeline;
+    private Mat mSprite;
+    private EyePair mOverlayPair;
+    private Mat mOut;
+    private Mat mEdges;
+    private Mat mHierarchy;
+    private final Point mZeroOffset = new Point();
+    private final List<MatOfPoint> mContourOut = new ArrayList<>();
+    private final ContourBuffer mContourBuffer = new ContourBuffer();
+    private final PairVerifier mVerifier = new PairVerifier();
+    private final RotatedRectBuffer mVerifyRects = new RotatedRectBuffer();
+    private int mIndex = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkFrames.load(resolution, mGray, mRgba);
+        int count = mGray.size();
+        int[] size = BenchmarkFrames.parseResolution(resolution);
+
+        mSprite = BenchmarkFrames.loadSprite();
+        mPipeline = new SocketDetectionPipeline();
+        mPipeline.start(size[0], size[1]);
+        mPipeline.setSprite(mSprite);
+        mPipeline.setState(SocketDetectionPipeline.State.EYES);
+        mOverlayPair = BenchmarkFrames.centerPair(size[0], size[1]);
+
+        mOut = new Mat();
+        mEdges = new Mat();
+        mHierarchy = new Mat();
+
+        mHighThreshold = new double[count];
+        mContours = BenchmarkFrames.newLists(count);
+        mCandidates = new RotatedRect[count][];
+        for (int i = 0; i < count; i++) {
+            Mat blur = new Mat();
+            Mat threshold = new Mat();
+            Mat canny = new Mat();
+            Imgproc.GaussianBlur(mGray.get(i), blur, blurSize, 0, 0);
+            mHighThreshold[i] = Imgproc.threshold(blur, threshold, 0, 255, Imgproc.THRESH_BINARY_INV + Imgproc.THRESH_OTSU);
+            Imgproc.Canny(threshold, canny, 0.5 * mHighThreshold[i], mHighThreshold[i]);
+            mBlur.add(blur);
+            mThreshold.add(threshold);
+            mCanny.add(canny);
+
+            canny.copyTo(mEdges);
+            List<MatOfPoint> contours = new ArrayList<>();
+            Imgproc.findContours(mEdges, contours, mHierarchy, Imgproc.RETR_CCOMP, Imgproc.CHAIN_APPROX_SIMPLE);
+            for (MatOfPoint contour : contours) {
+                MatOfPoint2f contour2f = new MatOfPoint2f();
+                contour.convertTo(contour2f, CvType.CV_32F);
+                mContours.get(i).add(contour2f);
+                contour.release();
+            }
+
+            Mat rgba = mRgba.get(i).clone();
+            mPipeline.process(mGray.get(i), rgba);
+            rgba.release();
+            mCandidates[i] = new RotatedRect[mPipeline.getCandidateCount()];
+            for (int j = 0; j < mCandidates[i].length; j++) {
+                // パイプラインは候補の RotatedRect を使い回すのでコピーしておく
+                mCandidates[i][j] = mPipeline.getCandidate(j).clone();
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkFrames.release(mGray);
+        BenchmarkFrames.release(mRgba);
+        BenchmarkFrames.release(mBlur);
+        BenchmarkFrames.release(mThreshold);
+        BenchmarkFrames.release(mCanny);
+        for (List<MatOfPoint2f> contours : mContours) {
+            for (MatOfPoint2f contour : contours) {
+                contour.release();
+            }
+        }
+        releaseContours();
+        mPipeline.stop();
+        mSprite.release();
+        mOut.release();
+        mEdges.release();
+        mHierarchy.release();
+        mContourBuffer.release();
+        mVerifier.release();
+    }
+
+    private int next() {
+        mIndex = (mIndex + 1) % mGray.size();
+        return mIndex;
+    }
+
+    private void releaseContours() {
+        for (MatOfPoint contour : mContourOut) {
+            contour.release();
+        }
+        mContourOut.clear();
+    }
+
+    @Benchmark
+    public Mat gaussianBlur7x7() {
+        Imgproc.GaussianBlur(mGray.get(next()), mOut, blurSize, 0, 0);
+        return mOut;
+    }
+
+    @Benchmark
+    public double thresholdOtsu() {
+        return Imgproc.threshold(mBlur.get(next()), mOut, 0, 255, Imgproc.THRESH_BINARY_INV + Imgproc.THRESH_OTSU);
+    }
+
+    /**
+     * 間引いた画像のヒストグラムで閾値を求めてから固定の閾値で二値化する
+     * 録画したフレームを順に回すので、ヒストグラムが変われば Otsu も計算し直す
+     */
+    @Benchmark
+    public double thresholdStable() {
+        Mat blur = mBlur.get(next());
+        double threshold = mPipeline.getThresholdEstimator().estimate(blur);
+        Imgproc.threshold(blur, mOut, threshold, 255, Imgproc.THRESH_BINARY_INV);
+        return threshold;
+    }
+
+    @Benchmark
+    public Mat canny() {
+        int i = next();
+        Imgproc.Canny(mThreshold.get(i), mOut, 0.5 * mHighThreshold[i], mHighThreshold[i]);
+        return mOut;
+    }
+
+    /**
+     * findContours は入力画像を書き換えるので毎回コピーする。そのコピーだけの時間
+     */
+    @Benchmark
+    public Mat copyEdges() {
+        mCanny.get(next()).copyTo(mEdges);
+        return mEdges;
+    }
+
+    @Benchmark
+    public int findContoursCcomp() {
+        mCanny.get(next()).copyTo(mEdges);
+        releaseContours();
+        Imgproc.findContours(mEdges, mContourOut, mHierarchy, Imgproc.RETR_CCOMP, Imgproc.CHAIN_APPROX_SIMPLE);
+        return mContourOut.size();
+    }
+
+    /**
+     * 輪郭と階層を ContourBuffer の int[] にまとめて受け取る (輪郭ごとの MatOfPoint を作らない)
+     */
+    @Benchmark
+    public int findContoursFlat() {
+        mCanny.get(next()).copyTo(mEdges);
+        Imgproc.findContours(mEdges, mContourBuffer, Imgproc.RETR_CCOMP, Imgproc.CHAIN_APPROX_SIMPLE);
+        return mContourBuffer.count;
+    }
+
+    /**
+     * findContours + minAreaRect + １つの目の条件をまとめて行う (ネイティブ実装がなければ Java 実装)
+     */
+    @Benchmark
+    public int extractCandidates() {
+        mCanny.get(next()).copyTo(mEdges);
+        // SocketDetectionPipeline の EYES の状態と同じ条件 (10x20 から 40x120、縦横比 3 の ±30%)
+        return mPipeline.getExtractor().extract(mEdges, mZeroOffset, 1, 10 * 20, 40 * 120, 3 * 0.7, 3 / 0.7);
+    }
+
+    /**
+     * 二値画像の連結成分から候補を取り出す (Canny も findContours も使わない)
+     * 入力を書き換えないのでコピーはいらない。extractCandidates と比べるときは canny + copyEdges の分を足す
+     */
+    @Benchmark
+    public int extractComponents() {
+        // extractCandidates と同じ条件
+        return mPipeline.getComponentExtractor().extract(mThreshold.get(next()), mZeroOffset, 1,
+                10 * 20, 40 * 120, 3 * 0.7, 3 / 0.7);
+    }
+
+    @Benchmark
+    public int findContoursList() {
+        mCanny.get(next()).copyTo(mEdges);
+        releaseContours();
+        Imgproc.findContours(mEdges, mContourOut, mHierarchy, Imgproc.RETR_LIST, Imgproc.CHAIN_APPROX_SIMPLE);
+        return mContourOut.size();
+    }
+
+    @Benchmark
+    public void minAreaRect(Blackhole bh) {
+        List<MatOfPoint2f> contours = mContours.get(next());
+        for (int i = 0; i < contours.size(); i++) {
+            bh.consume(Imgproc.minAreaRect(contours.get(i)));
+        }
+    }
+
+    @Benchmark
+    public int pairEyes() {
+        RotatedRect[] candidates = mCandidates[next()];
+        mPipeline.setCandidates(candidates, candidates.length);
+        mPipeline.pairEyes();
+        return mPipeline.getEyeCount();
+    }
+
+    @Benchmark
+    public int pairEyesBruteForce() {
+        RotatedRect[] candidates = mCandidates[next()];
+        return mPipeline.getMatcher().matchBruteForce(candidates, candidates.length);
+    }
+
+    /**
+     * 形で組にしたペアを積分画像で確かめる (積分画像を作る時間を含む)
+     */
+    @Benchmark
+    public int verifyPairs() {
+        int i = next();
+        RotatedRect[] candidates = mCandidates[i];
+        mVerifyRects.set(candidates, candidates.length);
+        EyePairMatcher matcher = mPipeline.getMatcher();
+        int pairs = matcher.match(mVerifyRects);
+        mVerifier.setImage(mGray.get(i), 1);
+        int accepted = 0;
+        for (int k = 0; k < pairs; k++) {
+            if (mVerifier.verify(mVerifyRects, matcher.getFirst(k), matcher.getSecond(k))) {
+                accepted++;
+            }
+        }
+        return accepted;
+    }
+
+    @Benchmark
+    public Mat overlayImage() {
+        return mPipeline.drawYukari(mRgba.get(next()), mOverlayPair);
+    }
+}
@@ -0,0 +1,160 @@
+package org.opencv.samples.facedetect;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * blur, threshold, Canny の並列化の比較
+ * OPENCV は Core.setNumThreads(threads) で OpenCV 自身の並列化に任せ、
+ * TILES は OpenCV を１スレッドにして TileExecutor で帯に分けて threads 個のスレッドで処理する
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class TileExecutorBenchmark {
+
+    @Param({ "640x480", "1280x720" })
+    public String resolution;
+
+    @Param({ "1", "2", "4", "8" })
+    public int threads;
+
+    @Param({ "OPENCV", "TILES" })
+    public String parallelism;
+
+    private final List<Mat> mGray = new ArrayList<>();
+    private final List<Mat> mRgba = new ArrayList<>();
+    private final List<Mat> mBlur = new ArrayList<>();
+    private final List<Mat> mThreshold = new ArrayList<>();
+    private double[] mHighThreshold;
+
+    private TileExecutor mTiles;
+    private final TileExecutor.GaussianBlur mTileBlur = new TileExecutor.GaussianBlur();
+    private final TileExecutor.Threshold mTileThreshold = new TileExecutor.Threshold();
+    private final TileExecutor.Canny mTileCanny = new TileExecutor.Canny();
+    private int mOpenCvThreads;
+    private Mat mOut;
+    private Mat mOut2;
+    private Mat mOut3;
+    private int mIndex = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkFrames.load(resolution, mGray, mRgba);
+        int count = mGray.size();
+        mTileBlur.ksize.width = 7;
+        mTileBlur.ksize.height = 7;
+
+        mHighThreshold = new double[count];
+        for (int i = 0; i < count; i++) {
+            Mat blur = new Mat();
+            Mat threshold = new Mat();
+            Imgproc.GaussianBlur(mGray.get(i), blur, mTileBlur.ksize, 0, 0);
+            mHighThreshold[i] = Imgproc.threshold(blur, threshold, 0, 255, Imgproc.THRESH_BINARY_INV + Imgproc.THRESH_OTSU);
+            mBlur.add(blur);
+            mThreshold.add(threshold);
+        }
+
+        // TileExecutor は出力の大きさを決めないので確保しておく
+        Mat gray = mGray.get(0);
+        mOut = new Mat(gray.rows(), gray.cols(), gray.type());
+        mOut2 = new Mat(gray.rows(), gray.cols(), gray.type());
+        mOut3 = new Mat(gray.rows(), gray.cols(), gray.type());
+
+        mOpenCvThreads = Core.getNumThreads();
+        if (parallelism.equals("TILES")) {
+            Core.setNumThreads(1);
+            mTiles = new TileExecutor(threads);
+        } else {
+            Core.setNumThreads(threads);
+            mTiles = null;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Core.setNumThreads(mOpenCvThreads);
+        if (mTiles != null) {
+            mTiles.shutdown();
+        }
+        BenchmarkFrames.release(mGray);
+        BenchmarkFrames.release(mRgba);
+        BenchmarkFrames.release(mBlur);
+        BenchmarkFrames.release(mThreshold);
+        mOut.release();
+        mOut2.release();
+        mOut3.release();
+    }
+
+    private int next() {
+        mIndex = (mIndex + 1) % mGray.size();
+        return mIndex;
+    }
+
+    private void run(Mat src, Mat dst, TileExecutor.Operation operation) {
+        if (mTiles != null) {
+            mTiles.run(src, dst, operation);
+        } else {
+            operation.apply(src, dst);
+        }
+    }
+
+    @Benchmark
+    public Mat gaussianBlur7x7() {
+        run(mGray.get(next()), mOut, mTileBlur);
+        return mOut;
+    }
+
+    @Benchmark
+    public Mat threshold() {
+        int i = next();
+        mTileThreshold.threshold = mHighThreshold[i];
+        run(mBlur.get(i), mOut, mTileThreshold);
+        return mOut;
+    }
+
+    @Benchmark
+    public Mat canny() {
+        int i = next();
+        mTileCanny.lowThreshold = 0.5 * mHighThreshold[i];
+        mTileCanny.highThreshold = mHighThreshold[i];
+        run(mThreshold.get(i), mOut, mTileCanny);
+        return mOut;
+    }
+
+    /**
+     * パイプラインと同じ blur → threshold → Canny の並び
+     */
+    @Benchmark
+    public Mat filterChain() {
+        int i = next();
+        mTileThreshold.threshold = mHighThreshold[i];
+        mTileCanny.lowThreshold = 0.5 * mHighThreshold[i];
+        mTileCanny.highThreshold = mHighThreshold[i];
+        run(mGray.get(i), mOut, mTileBlur);
+        run(mOut, mOut2, mTileThreshold);
+        run(mOut2, mOut3, mTileCanny);
+        return mOut3;
+    }
+}
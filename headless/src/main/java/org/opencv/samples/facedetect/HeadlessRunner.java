@@ -0,0 +1,298 @@
+package org.opencv.samples.facedetect;
+
+import java.io.File;
+
+import org.opencv.android.FrameSource;
+import org.opencv.android.ImageSequenceFrameSource;
+import org.opencv.android.SyntheticFrameSource;
+import org.opencv.android.VideoFrameSource;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.MatTracker;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * カメラなしで SocketDetectionPipeline を実行し、段階ごとの処理時間を表示する
+ *
+ * 使い方:
+ *   --images DIR | --video FILE | --synthetic WIDTHxHEIGHT
+ *   [--frames N] [--warmup N] [--state EYES] [--sprite yukari_line.png]
+ *   [--level 0..2] [--target-ms MILLIS] [--tracking INTERVAL]
+ *   [--backend CONTOURS | COMPONENTS | COMPARE] [--threshold STABLE | OTSU]
+ *   [--motion BLOCK_DIFFERENCE | MOG2 | KNN] [--tiles THREADS] [--verify ON | OFF]
+ *
+ * COMPARE は同じフレームを CONTOURS と COMPONENTS の両方で処理し、
+ * CONTOURS で見つけた目のペアを COMPONENTS でも見つけた割合 (再現率) と１フレームの処理時間を比べる。
+ */
+public class HeadlessRunner {
+
+    private static final String COMPARE = "COMPARE";
+
+    public static void main(String[] args) {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+
+        FrameSource source = null;
+        int frames = 300;
+        int warmup = 30;
+        SocketDetectionPipeline.State state = SocketDetectionPipeline.State.EYES;
+        String spritePath = null;
+        int level = 0;
+        double targetMillis = 0;
+        int trackingInterval = 0;
+        String backend = SocketDetectionPipeline.CandidateBackend.CONTOURS.name();
+        boolean stableThreshold = true;
+        MotionGate.Mode motion = null;
+        int tileThreads = 1;
+        boolean verifyPairs = true;
+
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            if (args[i].equals("--images")) {
+                source = ImageSequenceFrameSource.fromDirectory(new File(value), true);
+            } else if (args[i].equals("--video")) {
+                source = new VideoFrameSource(value);
+            } else if (args[i].equals("--synthetic")) {
+                String[] size = value.split("x");
+                source = new SyntheticFrameSource(Integer.parseInt(size[0]), Integer.parseInt(size[1]), 0, 40, 0);
+            } else if (args[i].equals("--frames")) {
+                frames = Integer.parseInt(value);
+            } else if (args[i].equals("--warmup")) {
+                warmup = Integer.parseInt(value);
+            } else if (args[i].equals("--state")) {
+                state = SocketDetectionPipeline.State.valueOf(value);
+            } else if (args[i].equals("--sprite")) {
+                spritePath = value;
+            } else if (args[i].equals("--level")) {
+                level = Integer.parseInt(value);
+            } else if (args[i].equals("--target-ms")) {
+                targetMillis = Double.parseDouble(value);
+            } else if (args[i].equals("--tracking")) {
+                trackingInterval = Integer.parseInt(value);
+            } else if (args[i].equals("--backend")) {
+                backend = value;
+            } else if (args[i].equals("--threshold")) {
+                stableThreshold = value.equals("STABLE");
+            } else if (args[i].equals("--motion")) {
+                motion = MotionGate.Mode.valueOf(value);
+            } else if (args[i].equals("--tiles")) {
+                tileThreads = Integer.parseInt(value);
+            } else if (args[i].equals("--verify")) {
+                verifyPairs = value.equals("ON");
+            } else {
+                throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        if (source == null) {
+            source = new SyntheticFrameSource(640, 480, 0, 40, 0);
+        }
+
+        Mat sprite = null;
+        if (spritePath != null) {
+            Mat bgra = Imgcodecs.imread(spritePath, Imgcodecs.IMREAD_UNCHANGED);
+            sprite = new Mat();
+            Imgproc.cvtColor(bgra, sprite, Imgproc.COLOR_BGRA2RGBA);
+            bgra.release();
+        }
+
+        if (backend.equals(COMPARE)) {
+            SocketDetectionPipeline contours = createPipeline(source, sprite, state, level, targetMillis, trackingInterval,
+                    stableThreshold, motion, tileThreads, verifyPairs, SocketDetectionPipeline.CandidateBackend.CONTOURS);
+            SocketDetectionPipeline components = createPipeline(source, sprite, state, level, targetMillis, trackingInterval,
+                    stableThreshold, motion, tileThreads, verifyPairs, SocketDetectionPipeline.CandidateBackend.COMPONENTS);
+            compareBackends(source, contours, components, frames, warmup);
+            contours.stop();
+            components.stop();
+            source.release();
+            if (sprite != null) {
+                sprite.release();
+            }
+            return;
+        }
+
+        SocketDetectionPipeline pipeline = createPipeline(source, sprite, state, level, targetMillis, trackingInterval,
+                stableThreshold, motion, tileThreads, verifyPairs, SocketDetectionPipeline.CandidateBackend.valueOf(backend));
+
+        for (int i = 0; i < warmup && source.grab(); i++) {
+            pipeline.process(source.gray(), source.rgba());
+        }
+        pipeline.resetStageTimes();
+        long matAllocations = pipeline.getMatAllocationCount();
+        long objectAllocations = pipeline.getObjectAllocationCount();
+        long bindingAllocations = pipeline.getBindingAllocationCount();
+        long finalizedMats = MatTracker.getFinalizedCount();
+
+        int processed = 0;
+        int found = 0;
+        long startTick = Core.getTickCount();
+        while (processed < frames && source.grab()) {
+            pipeline.process(source.gray(), source.rgba());
+            if (pipeline.getEyeCount() > 0) {
+                found++;
+            }
+            processed++;
+        }
+        double totalMillis = (Core.getTickCount() - startTick) * 1000.0 / Core.getTickFrequency();
+
+        System.out.println("frames " + processed + " (" + source.getWidth() + "x" + source.getHeight() + "), eyes found in " + found);
+        for (SocketDetectionPipeline.Stage stage : SocketDetectionPipeline.Stage.values()) {
+            System.out.println(String.format("%-12s %8.3f ms", stage, pipeline.getStageMillis(stage)));
+        }
+        if (processed > 0) {
+            System.out.println(String.format("%-12s %8.3f ms (%.1f fps)", "TOTAL", totalMillis / processed, processed * 1000.0 / totalMillis));
+        }
+        System.out.println("backend " + pipeline.getCandidateBackend() + ", tile threads " + pipeline.getTileThreads()
+                + ", detection level " + pipeline.getDetectionLevel()
+                + String.format(", average frame %.3f ms", pipeline.getFrameMillis()));
+        if (targetMillis > 0) {
+            FrameBudgetGovernor governor = pipeline.getGovernor();
+            System.out.println("governor: " + governor);
+            System.out.println("governor: degraded " + governor.getDegradeCount() + " times, restored "
+                    + governor.getRestoreCount() + " times, skipped detection in "
+                    + governor.getSkippedDetectionCount() + " frames");
+        }
+        if (trackingInterval > 0) {
+            EyePairTracker tracker = pipeline.getTracker();
+            System.out.println("tracking: full detection " + tracker.getDetectionFrameCount()
+                    + " frames, search region only " + tracker.getTrackedFrameCount() + " frames");
+        }
+        if (stableThreshold) {
+            ThresholdEstimator estimator = pipeline.getThresholdEstimator();
+            System.out.println("threshold " + estimator.getThreshold() + ": recomputed " + estimator.getRecomputeCount()
+                    + " of " + estimator.getEstimateCount() + " estimates, switched " + estimator.getSwitchCount() + " times");
+        }
+        if (motion != null) {
+            MotionGate gate = pipeline.getMotionGate();
+            System.out.println(String.format("motion gating (%s): skipped %d of %d frames (%.1f%%)", gate.getMode(),
+                    gate.getGatedFrameCount(), gate.getFrameCount(), gate.getGatingRatio() * 100));
+        }
+        if (verifyPairs) {
+            PairVerifier verifier = pipeline.getPairVerifier();
+            System.out.println(String.format("pair verification: rejected %d of %d pairs (%.1f%%), %d integral images",
+                    verifier.getRejectedCount(), verifier.getVerifiedCount(), verifier.getRejectionRate() * 100,
+                    verifier.getIntegralCount()));
+        }
+        System.out.println("steady state allocations: mats " + (pipeline.getMatAllocationCount() - matAllocations)
+                + ", objects " + (pipeline.getObjectAllocationCount() - objectAllocations)
+                + ", binding objects " + (pipeline.getBindingAllocationCount() - bindingAllocations));
+        // ファイナライザに任せた Mat (close() し忘れ) と、まだ解放されていない Mat
+        System.out.println("native mats: live " + MatTracker.getLiveCount()
+                + ", finalized while running " + (MatTracker.getFinalizedCount() - finalizedMats));
+
+        pipeline.stop();
+        source.release();
+        if (sprite != null) {
+            sprite.release();
+        }
+    }
+
+    private static SocketDetectionPipeline createPipeline(FrameSource source, Mat sprite, SocketDetectionPipeline.State state,
+                                                          int level, double targetMillis, int trackingInterval,
+                                                          boolean stableThreshold, MotionGate.Mode motion, int tileThreads, boolean verifyPairs,
+                                                          SocketDetectionPipeline.CandidateBackend backend) {
+        SocketDetectionPipeline pipeline = new SocketDetectionPipeline();
+        pipeline.start(source.getWidth(), source.getHeight());
+        pipeline.setSprite(sprite);
+        pipeline.setState(state);
+        pipeline.setDetectionLevel(level);
+        pipeline.setTargetFrameMillis(targetMillis);
+        pipeline.setCandidateBackend(backend);
+        pipeline.setStableThreshold(stableThreshold);
+        pipeline.setTileThreads(tileThreads);
+        pipeline.setPairVerificationEnabled(verifyPairs);
+        if (motion != null) {
+            pipeline.getMotionGate().setMode(motion);
+            pipeline.setMotionGatingEnabled(true);
+        }
+        if (trackingInterval > 0) {
+            pipeline.getTracker().setDetectionInterval(trackingInterval);
+            pipeline.setTrackingEnabled(true);
+        }
+        return pipeline;
+    }
+
+    /**
+     * 同じフレームを２つのパイプラインで処理して、見つけた目のペアと処理時間を比べる
+     * process() は rgba に描き込むので、それぞれ複製したフレームを渡す (複製の時間は含めない)
+     */
+    private static void compareBackends(FrameSource source, SocketDetectionPipeline reference,
+                                        SocketDetectionPipeline candidate, int frames, int warmup) {
+        Mat rgba = new Mat();
+        for (int i = 0; i < warmup && source.grab(); i++) {
+            source.rgba().copyTo(rgba);
+            reference.process(source.gray(), rgba);
+            source.rgba().copyTo(rgba);
+            candidate.process(source.gray(), rgba);
+        }
+        reference.resetStageTimes();
+        candidate.resetStageTimes();
+
+        int processed = 0;
+        int referenceFound = 0;
+        int candidateFound = 0;
+        int recalled = 0;
+        long referenceTicks = 0;
+        long candidateTicks = 0;
+        while (processed < frames && source.grab()) {
+            source.rgba().copyTo(rgba);
+            long tick = Core.getTickCount();
+            reference.process(source.gray(), rgba);
+            referenceTicks += Core.getTickCount() - tick;
+
+            source.rgba().copyTo(rgba);
+            tick = Core.getTickCount();
+            candidate.process(source.gray(), rgba);
+            candidateTicks += Core.getTickCount() - tick;
+
+            if (candidate.getEyeCount() > 0) {
+                candidateFound++;
+            }
+            if (reference.getEyeCount() > 0) {
+                referenceFound++;
+                if (containsPair(candidate, reference.getEyes(0))) {
+                    recalled++;
+                }
+            }
+            processed++;
+        }
+        rgba.release();
+
+        System.out.println("frames " + processed + " (" + source.getWidth() + "x" + source.getHeight() + ")");
+        printBackend(reference, referenceFound, referenceTicks, processed);
+        printBackend(candidate, candidateFound, candidateTicks, processed);
+        if (referenceFound > 0) {
+            System.out.println(String.format("recall of %s against %s: %d / %d (%.1f%%)",
+                    candidate.getCandidateBackend(), reference.getCandidateBackend(),
+                    recalled, referenceFound, recalled * 100.0 / referenceFound));
+        }
+    }
+
+    private static void printBackend(SocketDetectionPipeline pipeline, int found, long ticks, int processed) {
+        double millis = processed > 0 ? ticks * 1000.0 / Core.getTickFrequency() / processed : 0;
+        System.out.println(String.format("%-12s %8.3f ms/frame, eyes found in %d frames",
+                pipeline.getCandidateBackend(), millis, found));
+        for (SocketDetectionPipeline.Stage stage : SocketDetectionPipeline.Stage.values()) {
+            System.out.println(String.format("  %-12s %8.3f ms", stage, pipeline.getStageMillis(stage)));
+        }
+    }
+
+    /**
+     * 中点が目の間隔の半分より近い目のペアがあるか (EyePairMatcher の重なりと同じ基準)
+     */
+    private static boolean containsPair(SocketDetectionPipeline pipeline, EyePair expected) {
+        double ex = (expected.first.center.x + expected.second.center.x) / 2;
+        double ey = (expected.first.center.y + expected.second.center.y) / 2;
+        double sx = expected.first.center.x - expected.second.center.x;
+        double sy = expected.first.center.y - expected.second.center.y;
+        double limit = (sx * sx + sy * sy) / 4;
+        for (int i = 0; i < pipeline.getEyeCount(); i++) {
+            EyePair pair = pipeline.getEyes(i);
+            double mx = (pair.first.center.x + pair.second.center.x) / 2 - ex;
+            double my = (pair.first.center.y + pair.second.center.y) / 2 - ey;
+            if (mx * mx + my * my < limit) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,84 @@
+package org.opencv.samples.facedetect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.RotatedRect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+
+/**
+ * 合成中のスプライトがキャッシュから捨てられたり置き換えられたりしても、フレームを描けることを確かめる
+ */
+public class SocketDetectionPipelineTest {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+
+    private SocketDetectionPipeline mPipeline;
+    private Mat mSprite;
+    private Mat mFrame;
+    private EyePair mPair;
+
+    @BeforeClass
+    public static void loadLibrary() {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+    }
+
+    @Before
+    public void setUp() {
+        mPipeline = new SocketDetectionPipeline();
+        mPipeline.start(WIDTH, HEIGHT);
+        mSprite = new Mat(64, 64, CvType.CV_8UC4, new Scalar(255, 255, 255, 255));
+        mPipeline.setSprite(mSprite);
+        mFrame = new Mat(HEIGHT, WIDTH, CvType.CV_8UC4, Scalar.all(0));
+        mPair = new EyePair();
+        mPair.set(new RotatedRect(new Point(300, 240), new Size(10, 20), 0),
+                new RotatedRect(new Point(340, 240), new Size(10, 20), 0));
+    }
+
+    @After
+    public void tearDown() {
+        mPipeline.stop();
+        mSprite.close();
+        mFrame.close();
+    }
+
+    @Test
+    public void drawsFrameAfterActiveSpriteIsEvicted() {
+        mPipeline.drawYukari(mFrame, mPair);
+        assertTrue(Core.sumElems(mFrame).val[0] > 0);
+
+        // ピラミッドを含めると予算より大きいので、他のスプライトはすべて捨てられる
+        SpriteCache cache = mPipeline.getSpriteCache();
+        Mat large = new Mat(2048, 2048, CvType.CV_8UC4, Scalar.all(0));
+        cache.put("large", large);
+        large.close();
+        assertNull(cache.get(SocketDetectionPipeline.DEFAULT_SPRITE));
+
+        mFrame.setTo(Scalar.all(0));
+        mPipeline.drawYukari(mFrame, mPair);
+        assertEquals(0, Core.sumElems(mFrame).val[0], 0);
+    }
+
+    @Test
+    public void drawsReplacementWhenActiveKeyIsReused() {
+        Mat red = new Mat(64, 64, CvType.CV_8UC4, new Scalar(255, 0, 0, 255));
+        mPipeline.getSpriteCache().put(SocketDetectionPipeline.DEFAULT_SPRITE, red);
+        red.close();
+
+        mPipeline.drawYukari(mFrame, mPair);
+        Scalar sum = Core.sumElems(mFrame);
+        assertTrue(sum.val[0] > 0);
+        assertEquals(0, sum.val[1], 0);
+    }
+}
@@ -175,6 +175,9 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
     /**
      * This class interface is abstract representation of single frame from camera for onCameraFrame callback
      * Attention: Do not use objects, that represents this interface out of onCameraFrame callback!
+     * Each view is computed when it is first requested and then returned again for the same frame,
+     * so consumers which need only gray scale never pay for the color conversion.
+     * The returned Mats belong to the frame and are overwritten when the frame is reused.
      */
     public interface CvCameraViewFrame {
 
@@ -183,10 +186,22 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
          */
         public Mat rgba();
 
+        /**
+         * This method returns RGB Mat with frame
+         */
+        public Mat rgb();
+
         /**
          * This method returns single channel gray scale Mat with frame
          */
         public Mat gray();
+
+        /**
+         * This method returns single channel gray scale Mat with frame downscaled by Imgproc.pyrDown()
+         * the given number of times. Level 0 is the same Mat as gray().
+         * @param level - pyramid level, 0 or more
+         */
+        public Mat gray(int level);
     };
 
     public void surfaceChanged(SurfaceHolder arg0, int arg1, int arg2, int arg3) {
@@ -385,14 +400,29 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
      * @param frame - the current frame to be delivered
      */
     protected void deliverAndDrawFrame(CvCameraViewFrame frame) {
-        Mat modified;
+        drawFrame(deliverFrame(frame));
+    }
 
+    /**
+     * This method delivers the frame to external client (via callback) without drawing it.
+     * Subclasses which process frames on several threads call it and drawFrame() separately.
+     * @param frame - the current frame to be delivered
+     * @return the frame returned by the client, or the RGBA frame when no listener is set
+     */
+    protected Mat deliverFrame(CvCameraViewFrame frame) {
         if (mListener != null) {
-            modified = mListener.onCameraFrame(frame);
+            return mListener.onCameraFrame(frame);
         } else {
-            modified = frame.rgba();
+            return frame.rgba();
         }
+    }
 
+    /**
+     * This method converts the frame to the cache bitmap and draws it on the screen.
+     * When modified is null the previous bitmap is drawn again.
+     * @param modified - the frame returned by deliverFrame()
+     */
+    protected void drawFrame(Mat modified) {
         boolean bmpValid = true;
         if (modified != null) {
             try {
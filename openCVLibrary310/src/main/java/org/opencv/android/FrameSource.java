@@ -0,0 +1,51 @@
+package org.opencv.android;
+
+import org.opencv.core.Mat;
+
+/**
+ * This interface is an abstract source of frames for code which does not need a camera or a
+ * SurfaceView: recorded image sequences, video files or generated frames.
+ * The current frame is exposed the same way as CvCameraViewFrame exposes it to onCameraFrame():
+ * rgba() and gray() return Mats owned by the source which are valid only until the next
+ * call of grab().
+ * Implementations must not use Android API, so that the same detection code can be run and
+ * measured on a desktop JVM.
+ */
+public interface FrameSource {
+
+    /**
+     * This method returns width of the frames delivered by this source
+     */
+    public int getWidth();
+
+    /**
+     * This method returns height of the frames delivered by this source
+     */
+    public int getHeight();
+
+    /**
+     * This method advances the source to the next frame.
+     * @return false if there are no more frames
+     */
+    public boolean grab();
+
+    /**
+     * This method returns RGBA Mat with the current frame
+     */
+    public Mat rgba();
+
+    /**
+     * This method returns single channel gray scale Mat with the current frame
+     */
+    public Mat gray();
+
+    /**
+     * This method moves the source back to the first frame
+     */
+    public void rewind();
+
+    /**
+     * This method releases native resources held by the source
+     */
+    public void release();
+}
@@ -0,0 +1,115 @@
+package org.opencv.android;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * This class is an implementation of FrameSource which reads recorded frames from image files
+ * with Imgcodecs.imread(). All images are expected to have the same size.
+ */
+public class ImageSequenceFrameSource implements FrameSource {
+
+    private final List<String> mPaths;
+    private final boolean mLoop;
+    private int mIndex = -1;
+    private int mWidth;
+    private int mHeight;
+    private Mat mBgr;
+    private Mat mRgba;
+    private Mat mGray;
+
+    /**
+     * @param paths - image files in the order they are delivered
+     * @param loop - start again from the first image after the last one
+     */
+    public ImageSequenceFrameSource(List<String> paths, boolean loop) {
+        if (paths == null || paths.isEmpty())
+            throw new IllegalArgumentException("Image sequence is empty");
+        mPaths = new ArrayList<String>(paths);
+        mLoop = loop;
+        mRgba = new Mat();
+        mGray = new Mat();
+
+        Mat first = Imgcodecs.imread(mPaths.get(0));
+        if (first.empty())
+            throw new IllegalArgumentException("Can't read image " + mPaths.get(0));
+        mWidth = first.cols();
+        mHeight = first.rows();
+        first.release();
+    }
+
+    /**
+     * Collects all .png, .jpg and .bmp files of the directory in name order
+     */
+    public static ImageSequenceFrameSource fromDirectory(File dir, boolean loop) {
+        File[] files = dir.listFiles();
+        if (files == null)
+            throw new IllegalArgumentException("Not a directory: " + dir);
+        Arrays.sort(files);
+        List<String> paths = new ArrayList<String>();
+        for (File f : files) {
+            String name = f.getName().toLowerCase();
+            if (name.endsWith(".png") || name.endsWith(".jpg") || name.endsWith(".jpeg") || name.endsWith(".bmp"))
+                paths.add(f.getAbsolutePath());
+        }
+        return new ImageSequenceFrameSource(paths, loop);
+    }
+
+    @Override
+    public int getWidth() {
+        return mWidth;
+    }
+
+    @Override
+    public int getHeight() {
+        return mHeight;
+    }
+
+    @Override
+    public boolean grab() {
+        if (mIndex + 1 >= mPaths.size()) {
+            if (!mLoop)
+                return false;
+            mIndex = -1;
+        }
+        mIndex++;
+
+        if (mBgr != null)
+            mBgr.release();
+        mBgr = Imgcodecs.imread(mPaths.get(mIndex));
+        if (mBgr.empty())
+            return false;
+        Imgproc.cvtColor(mBgr, mRgba, Imgproc.COLOR_BGR2RGBA, 4);
+        Imgproc.cvtColor(mBgr, mGray, Imgproc.COLOR_BGR2GRAY);
+        return true;
+    }
+
+    @Override
+    public Mat rgba() {
+        return mRgba;
+    }
+
+    @Override
+    public Mat gray() {
+        return mGray;
+    }
+
+    @Override
+    public void rewind() {
+        mIndex = -1;
+    }
+
+    @Override
+    public void release() {
+        if (mBgr != null)
+            mBgr.release();
+        mRgba.release();
+        mGray.release();
+    }
+}
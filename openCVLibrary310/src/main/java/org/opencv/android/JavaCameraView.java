@@ -1,6 +1,10 @@
 package org.opencv.android;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 import android.content.Context;
 import android.graphics.ImageFormat;
@@ -14,6 +18,7 @@ import android.view.ViewGroup.LayoutParams;
 
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
+import org.opencv.core.MatPool;
 import org.opencv.core.Size;
 import org.opencv.imgproc.Imgproc;
 
@@ -25,22 +30,46 @@ import org.opencv.imgproc.Imgproc;
  * disconnectCamera - closes the camera and stops preview.
  * When frame is delivered via callback from Camera - it processed via OpenCV to be
  * converted to RGBA32 and then passed to the external callback for modifications if required.
+ * By default one thread converts, delivers and draws each frame. With setPipelineThreadCount()
+ * the conversion, the external callback and the drawing run on separate threads connected by
+ * bounded queues, so that consecutive frames are processed concurrently.
+ * Several preview buffers are registered with the camera, each bound to its own frame Mat.
+ * The preview callback only hands the buffer index over to the processing thread, which copies
+ * the buffer into the frame's Mat. The buffer goes back to the camera when that frame is released.
  */
 public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallback {
 
     private static final int MAGIC_TEXTURE_ID = 10;
     private static final String TAG = "JavaCameraView";
 
-    private byte mBuffer[];
-    private Mat[] mFrameChain;
-    private int mChainIdx = 0;
+    /* Stages of the pipelined frame processing */
+    private static final int STAGE_CONVERT = 0;
+    private static final int STAGE_DELIVER = 1;
+    private static final int STAGE_DRAW = 2;
+    private static final int STAGE_COUNT = 3;
+
+    private int mPreviewBufferCount = 3;
+    private byte[][] mBuffers;
+    /* Number of buffers the camera currently owns. Guarded by this */
+    private int mBuffersInCamera;
+    private BlockingQueue<Integer> mReadyBuffers;
     private Thread mThread;
-    private boolean mStopThread;
+    private volatile boolean mStopThread;
 
     protected Camera mCamera;
     protected JavaCameraFrame[] mCameraFrame;
     private SurfaceTexture mSurfaceTexture;
 
+    private int mPipelineThreadCount = 1;
+    private int mPipelineQueueCapacity = 1;
+    private PipelineFrame[] mPipelineFrames;
+    private List<BlockingQueue<PipelineFrame>> mStageQueues;
+    private Thread[] mPipelineThreads;
+    private volatile boolean mStopPipeline;
+    private final AtomicLong mDroppedFrames = new AtomicLong();
+    private final AtomicLong mStarvedFrames = new AtomicLong();
+    private volatile MatPool mMatPool;
+
     public static class JavaCameraSizeAccessor implements ListItemAccessor {
 
         @Override
@@ -64,6 +93,86 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
         super(context, attrs);
     }
 
+    /**
+     * This method sets the number of threads frames are processed on. It takes effect on the next
+     * camera connection.
+     * 1 - conversion, external callback and drawing run one after another on a single thread (default).
+     * 2 - conversion and callback run on one thread, drawing of the previous frame on another.
+     * 3 - conversion, callback and drawing each run on their own thread.
+     * With more than one thread the Mat returned from onCameraFrame() is drawn while the next frame
+     * is being delivered; if it is not the frame's own rgba() or gray() Mat it is copied first.
+     * @param threadCount - from 1 to 3
+     */
+    public void setPipelineThreadCount(int threadCount) {
+        if (threadCount < 1 || threadCount > STAGE_COUNT)
+            throw new IllegalArgumentException("Pipeline thread count must be from 1 to " + STAGE_COUNT + ": " + threadCount);
+        mPipelineThreadCount = threadCount;
+    }
+
+    public int getPipelineThreadCount() {
+        return mPipelineThreadCount;
+    }
+
+    /**
+     * This method sets how many frames may wait in front of each pipeline thread. When a queue is full
+     * its oldest frame is dropped, so the latency stays bounded. It takes effect on the next camera connection.
+     * @param capacity - at least 1
+     */
+    public void setPipelineQueueCapacity(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Pipeline queue capacity must be positive: " + capacity);
+        mPipelineQueueCapacity = capacity;
+    }
+
+    public int getPipelineQueueCapacity() {
+        return mPipelineQueueCapacity;
+    }
+
+    /**
+     * This method sets how many preview buffers are registered with the camera in the single thread mode.
+     * One is being processed, one waits for processing and the others are free for the camera to fill.
+     * In the pipeline mode there is one buffer per pipeline frame. It takes effect on the next camera connection.
+     * @param count - at least 2
+     */
+    public void setPreviewBufferCount(int count) {
+        if (count < 2)
+            throw new IllegalArgumentException("Preview buffer count must be at least 2: " + count);
+        mPreviewBufferCount = count;
+    }
+
+    public int getPreviewBufferCount() {
+        return mPreviewBufferCount;
+    }
+
+    /**
+     * This method returns the number of frames dropped by the pipeline queues since the view was created.
+     */
+    public long getDroppedFrameCount() {
+        return mDroppedFrames.get();
+    }
+
+    /**
+     * This method returns the number of preview frames after which the camera had no free buffer left,
+     * so that it had to wait for a frame to be released, since the view was created.
+     */
+    public long getStarvedBufferCount() {
+        return mStarvedFrames.get();
+    }
+
+    /**
+     * This method sets the pool the frame Mats (NV21 data, RGBA, pyramid levels) are leased from and
+     * given back to when the camera is released, so that reconnecting at the same resolution does not
+     * allocate them again. The pool may be shared with the frame consumer. It takes effect on the next camera connection.
+     * @param pool - null to allocate and release the Mats directly (default)
+     */
+    public void setMatPool(MatPool pool) {
+        mMatPool = pool;
+    }
+
+    public MatPool getMatPool() {
+        return mMatPool;
+    }
+
     protected boolean initializeCamera(int width, int height) {
         Log.d(TAG, "Initialize java camera");
         boolean result = true;
@@ -174,20 +283,29 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
 
                     int size = mFrameWidth * mFrameHeight;
                     size  = size * ImageFormat.getBitsPerPixel(params.getPreviewFormat()) / 8;
-                    mBuffer = new byte[size];
-
-                    mCamera.addCallbackBuffer(mBuffer);
-                    mCamera.setPreviewCallbackWithBuffer(this);
-
-                    mFrameChain = new Mat[2];
-                    mFrameChain[0] = new Mat(mFrameHeight + (mFrameHeight/2), mFrameWidth, CvType.CV_8UC1);
-                    mFrameChain[1] = new Mat(mFrameHeight + (mFrameHeight/2), mFrameWidth, CvType.CV_8UC1);
 
                     AllocateCache();
+                    int bufferCount;
+                    if (mPipelineThreadCount > 1) {
+                        allocatePipeline();
+                        bufferCount = mPipelineFrames.length;
+                    } else {
+                        bufferCount = mPreviewBufferCount;
+                        mCameraFrame = new JavaCameraFrame[bufferCount];
+                        for (int i = 0; i < bufferCount; i++)
+                            mCameraFrame[i] = new JavaCameraFrame(leaseMat(mFrameHeight + (mFrameHeight/2), mFrameWidth, CvType.CV_8UC1),
+                                    mFrameWidth, mFrameHeight);
+                        /* The queue holds only the latest frame, older ones go back to the camera */
+                        mReadyBuffers = new ArrayBlockingQueue<Integer>(1);
+                    }
 
-                    mCameraFrame = new JavaCameraFrame[2];
-                    mCameraFrame[0] = new JavaCameraFrame(mFrameChain[0], mFrameWidth, mFrameHeight);
-                    mCameraFrame[1] = new JavaCameraFrame(mFrameChain[1], mFrameWidth, mFrameHeight);
+                    mBuffers = new byte[bufferCount][];
+                    for (int i = 0; i < bufferCount; i++) {
+                        mBuffers[i] = new byte[size];
+                        mCamera.addCallbackBuffer(mBuffers[i]);
+                    }
+                    mBuffersInCamera = bufferCount;
+                    mCamera.setPreviewCallbackWithBuffer(this);
 
                     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
                         mSurfaceTexture = new SurfaceTexture(MAGIC_TEXTURE_ID);
@@ -219,18 +337,95 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
                 mCamera.release();
             }
             mCamera = null;
-            if (mFrameChain != null) {
-                mFrameChain[0].release();
-                mFrameChain[1].release();
-            }
+            mBuffers = null;
+            mReadyBuffers = null;
             if (mCameraFrame != null) {
-                mCameraFrame[0].release();
-                mCameraFrame[1].release();
+                for (JavaCameraFrame frame : mCameraFrame)
+                    frame.release();
+                mCameraFrame = null;
+            }
+            if (mPipelineFrames != null) {
+                for (PipelineFrame frame : mPipelineFrames)
+                    frame.release();
+                mPipelineFrames = null;
+                mStageQueues = null;
+            }
+        }
+    }
+
+    /**
+     * Leases a frame Mat from the pool, or allocates it when no pool is set.
+     */
+    private Mat leaseMat(int rows, int cols, int type) {
+        MatPool pool = mMatPool;
+        return pool != null ? pool.lease(rows, cols, type) : new Mat(rows, cols, type);
+    }
+
+    private void recycleMat(Mat mat) {
+        MatPool pool = mMatPool;
+        if (pool != null)
+            pool.recycle(mat);
+        else
+            mat.close();
+    }
+
+    /**
+     * Allocates the frame ring shared by the pipeline threads, one frame per preview buffer.
+     * Every thread may hold one frame and have a full queue in front of it, and one more buffer
+     * is left to the camera, so the camera never runs out of free buffers.
+     * Called when this lock is held
+     */
+    private void allocatePipeline() {
+        int frameCount = mPipelineThreadCount * (mPipelineQueueCapacity + 1) + 1;
+        mPipelineFrames = new PipelineFrame[frameCount];
+        for (int i = 0; i < frameCount; i++)
+            mPipelineFrames[i] = new PipelineFrame(i, mFrameWidth, mFrameHeight);
+        mStageQueues = new ArrayList<BlockingQueue<PipelineFrame>>(mPipelineThreadCount);
+        for (int i = 0; i < mPipelineThreadCount; i++)
+            mStageQueues.add(new ArrayBlockingQueue<PipelineFrame>(mPipelineQueueCapacity));
+    }
+
+    /**
+     * Puts the frame into the queue. When the queue is full its oldest frame is dropped and
+     * its buffer goes back to the camera.
+     */
+    private void offerDropOldest(BlockingQueue<PipelineFrame> queue, PipelineFrame frame) {
+        while (!queue.offer(frame)) {
+            PipelineFrame oldest = queue.poll();
+            if (oldest != null) {
+                mDroppedFrames.incrementAndGet();
+                releaseBuffer(oldest.mBufferIndex);
+            }
+        }
+    }
+
+    /**
+     * Returns the preview buffer to the camera. Called when the frame bound to it has been
+     * processed or dropped.
+     */
+    private void releaseBuffer(int index) {
+        synchronized (this) {
+            /* After a reconnection the index refers to a buffer that no longer exists */
+            if (mCamera != null && mBuffers != null && index < mBuffers.length) {
+                mCamera.addCallbackBuffer(mBuffers[index]);
+                mBuffersInCamera++;
             }
         }
     }
 
-    private boolean mCameraFrameReady = false;
+    /**
+     * Returns the index of the preview buffer, or -1 if it belongs to a previous connection.
+     * Called when this lock is held
+     */
+    private int bufferIndex(byte[] buffer) {
+        if (mBuffers == null)
+            return -1;
+        for (int i = 0; i < mBuffers.length; i++) {
+            if (mBuffers[i] == buffer)
+                return i;
+        }
+        return -1;
+    }
 
     @Override
     protected boolean connectCamera(int width, int height) {
@@ -243,7 +438,21 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
         if (!initializeCamera(width, height))
             return false;
 
-        mCameraFrameReady = false;
+        if (mPipelineFrames != null) {
+            Log.d(TAG, "Starting " + mPipelineThreadCount + " pipeline threads");
+            mStopPipeline = false;
+            mPipelineThreads = new Thread[mPipelineThreadCount];
+            for (int i = 0; i < mPipelineThreadCount; i++) {
+                /* The first thread converts and delivers, the last one always draws */
+                int firstStage = (i == 0) ? STAGE_CONVERT : STAGE_COUNT - mPipelineThreadCount + i;
+                int lastStage = (i == mPipelineThreadCount - 1) ? STAGE_DRAW : STAGE_COUNT - mPipelineThreadCount + i;
+                BlockingQueue<PipelineFrame> output = (i == mPipelineThreadCount - 1) ? null : mStageQueues.get(i + 1);
+                mPipelineThreads[i] = new Thread(new PipelineWorker(firstStage, lastStage, mStageQueues.get(i), output),
+                        "JavaCameraView pipeline " + i);
+                mPipelineThreads[i].start();
+            }
+            return true;
+        }
 
         /* now we can start update thread */
         Log.d(TAG, "Starting processing thread");
@@ -263,9 +472,8 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
         try {
             mStopThread = true;
             Log.d(TAG, "Notify thread");
-            synchronized (this) {
-                this.notify();
-            }
+            if (mThread != null)
+                mThread.interrupt();
             Log.d(TAG, "Wating for thread");
             if (mThread != null)
                 mThread.join();
@@ -275,81 +483,262 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
             mThread =  null;
         }
 
+        if (mPipelineThreads != null) {
+            Log.d(TAG, "Stopping pipeline threads");
+            mStopPipeline = true;
+            for (Thread thread : mPipelineThreads)
+                thread.interrupt();
+            try {
+                for (Thread thread : mPipelineThreads)
+                    thread.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            } finally {
+                mPipelineThreads = null;
+            }
+        }
+
         /* Now release camera */
         releaseCamera();
-
-        mCameraFrameReady = false;
     }
 
     @Override
     public void onPreviewFrame(byte[] frame, Camera arg1) {
         Log.d(TAG, "Preview Frame received. Frame size: " + frame.length);
         synchronized (this) {
-            mFrameChain[mChainIdx].put(0, 0, frame);
-            mCameraFrameReady = true;
-            this.notify();
+            int index = bufferIndex(frame);
+            if (index < 0)
+                return;
+            if (--mBuffersInCamera == 0)
+                mStarvedFrames.incrementAndGet();
+            /* The buffer is copied by the thread that processes it, not here */
+            if (mPipelineFrames != null) {
+                offerDropOldest(mStageQueues.get(0), mPipelineFrames[index]);
+            } else {
+                while (!mReadyBuffers.offer(index)) {
+                    Integer oldest = mReadyBuffers.poll();
+                    if (oldest != null) {
+                        mDroppedFrames.incrementAndGet();
+                        releaseBuffer(oldest);
+                    }
+                }
+            }
         }
-        if (mCamera != null)
-            mCamera.addCallbackBuffer(mBuffer);
     }
 
+    /**
+     * Frame backed by NV21 data. The views are computed lazily on first use and memoised until
+     * invalidate() is called when the NV21 data is overwritten with the next camera frame.
+     */
     private class JavaCameraFrame implements CvCameraViewFrame {
         @Override
         public Mat gray() {
-            return mYuvFrameData.submat(0, mHeight, 0, mWidth);
+            return mGray;
+        }
+
+        @Override
+        public Mat gray(int level) {
+            if (level < 0)
+                throw new IllegalArgumentException("Pyramid level must not be negative: " + level);
+            if (level == 0)
+                return mGray;
+            while (mPyramid.size() < level) {
+                /* The size pyrDown produces, rounded up at every level */
+                int shift = mPyramid.size() + 1;
+                mPyramid.add(leaseMat((mHeight + (1 << shift) - 1) >> shift, (mWidth + (1 << shift) - 1) >> shift, CvType.CV_8UC1));
+            }
+            for (int i = mPyramidValid; i < level; i++)
+                Imgproc.pyrDown(i == 0 ? mGray : mPyramid.get(i - 1), mPyramid.get(i));
+            mPyramidValid = Math.max(mPyramidValid, level);
+            return mPyramid.get(level - 1);
         }
 
         @Override
         public Mat rgba() {
-            Imgproc.cvtColor(mYuvFrameData, mRgba, Imgproc.COLOR_YUV2RGBA_NV21, 4);
+            if (!mRgbaValid) {
+                Imgproc.cvtColor(mYuvFrameData, mRgba, Imgproc.COLOR_YUV2RGBA_NV21, 4);
+                mRgbaValid = true;
+            }
             return mRgba;
         }
 
+        @Override
+        public Mat rgb() {
+            if (!mRgbValid) {
+                Imgproc.cvtColor(mYuvFrameData, mRgb, Imgproc.COLOR_YUV2RGB_NV21, 3);
+                mRgbValid = true;
+            }
+            return mRgb;
+        }
+
         public JavaCameraFrame(Mat Yuv420sp, int width, int height) {
             super();
             mWidth = width;
             mHeight = height;
             mYuvFrameData = Yuv420sp;
-            mRgba = new Mat();
+            mGray = mYuvFrameData.submat(0, mHeight, 0, mWidth);
+            mRgba = leaseMat(mHeight, mWidth, CvType.CV_8UC4);
+            mRgb = new Mat();
+        }
+
+        /**
+         * Copies the preview buffer into the NV21 data and marks all views stale.
+         */
+        public void fill(byte[] buffer) {
+            mYuvFrameData.put(0, 0, buffer);
+            invalidate();
+        }
+
+        /**
+         * Marks all views stale. Called when the NV21 data is overwritten.
+         */
+        public void invalidate() {
+            mRgbaValid = false;
+            mRgbValid = false;
+            mPyramidValid = 0;
+        }
+
+        /**
+         * Returns true if the Mat is one of the views of this frame.
+         */
+        public boolean owns(Mat mat) {
+            return mat == mGray || mat == mRgba || mat == mRgb || mPyramid.contains(mat);
         }
 
         public void release() {
-            mRgba.release();
+            mGray.close();
+            recycleMat(mRgba);
+            mRgb.close();
+            for (Mat level : mPyramid)
+                recycleMat(level);
+            mPyramid.clear();
+            recycleMat(mYuvFrameData);
+            invalidate();
         }
 
-        private Mat mYuvFrameData;
+        protected Mat mYuvFrameData;
+        private Mat mGray;
         private Mat mRgba;
+        private Mat mRgb;
+        private final List<Mat> mPyramid = new ArrayList<Mat>();
+        private boolean mRgbaValid;
+        private boolean mRgbValid;
+        private int mPyramidValid;
         private int mWidth;
         private int mHeight;
     };
 
-    private class CameraWorker implements Runnable {
+    /**
+     * Frame of the pipeline ring. It owns its NV21 data, which is filled from the preview buffer
+     * of the same index, and a Mat the result of the external callback is copied to when needed.
+     */
+    private class PipelineFrame extends JavaCameraFrame {
+
+        public PipelineFrame(int bufferIndex, int width, int height) {
+            super(leaseMat(height + (height/2), width, CvType.CV_8UC1), width, height);
+            mBufferIndex = bufferIndex;
+            mOutput = leaseMat(height, width, CvType.CV_8UC4);
+        }
+
+        /**
+         * Converts to RGBA ahead of the callback, so that it overlaps with the previous callback.
+         */
+        public void convert() {
+            rgba();
+        }
+
+        /**
+         * Keeps the Mat returned by the external callback until it is drawn.
+         * The callback may reuse its own Mats for the next frame, so those are copied.
+         */
+        public void setResult(Mat modified) {
+            if (modified == null || owns(modified)) {
+                mResult = modified;
+            } else {
+                modified.copyTo(mOutput);
+                mResult = mOutput;
+            }
+        }
+
+        @Override
+        public void release() {
+            super.release();
+            recycleMat(mOutput);
+        }
+
+        private final int mBufferIndex;
+        private Mat mOutput;
+        private Mat mResult;
+    };
+
+    /**
+     * Runs the stages from firstStage to lastStage for every frame taken from its input queue and
+     * hands the frame to the next queue, or back to the free frames after drawing.
+     */
+    private class PipelineWorker implements Runnable {
+
+        public PipelineWorker(int firstStage, int lastStage, BlockingQueue<PipelineFrame> input, BlockingQueue<PipelineFrame> output) {
+            mFirstStage = firstStage;
+            mLastStage = lastStage;
+            mInput = input;
+            mOutput = output;
+        }
 
         @Override
         public void run() {
-            do {
-                boolean hasFrame = false;
-                synchronized (JavaCameraView.this) {
-                    try {
-                        while (!mCameraFrameReady && !mStopThread) {
-                            JavaCameraView.this.wait();
+            try {
+                while (!mStopPipeline) {
+                    PipelineFrame frame = mInput.take();
+                    for (int stage = mFirstStage; stage <= mLastStage && !mStopPipeline; stage++) {
+                        switch (stage) {
+                        case STAGE_CONVERT:
+                            frame.fill(mBuffers[frame.mBufferIndex]);
+                            frame.convert();
+                            break;
+                        case STAGE_DELIVER:
+                            frame.setResult(deliverFrame(frame));
+                            break;
+                        case STAGE_DRAW:
+                            drawFrame(frame.mResult);
+                            break;
                         }
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                    if (mCameraFrameReady)
-                    {
-                        mChainIdx = 1 - mChainIdx;
-                        mCameraFrameReady = false;
-                        hasFrame = true;
                     }
+                    if (mOutput != null)
+                        offerDropOldest(mOutput, frame);
+                    else
+                        releaseBuffer(frame.mBufferIndex);
                 }
+            } catch (InterruptedException e) {
+                /* The view is disconnecting */
+            }
+            Log.d(TAG, "Finish pipeline thread " + mFirstStage + "-" + mLastStage);
+        }
+
+        private final int mFirstStage;
+        private final int mLastStage;
+        private final BlockingQueue<PipelineFrame> mInput;
+        private final BlockingQueue<PipelineFrame> mOutput;
+    }
+
+    /**
+     * Takes the index of the latest preview buffer, copies the buffer into the frame of the same
+     * index, delivers and draws it and then gives the buffer back to the camera.
+     */
+    private class CameraWorker implements Runnable {
 
-                if (!mStopThread && hasFrame) {
-                    if (!mFrameChain[1 - mChainIdx].empty())
-                        deliverAndDrawFrame(mCameraFrame[1 - mChainIdx]);
+        @Override
+        public void run() {
+            try {
+                while (!mStopThread) {
+                    int index = mReadyBuffers.take();
+                    JavaCameraFrame frame = mCameraFrame[index];
+                    frame.fill(mBuffers[index]);
+                    deliverAndDrawFrame(frame);
+                    releaseBuffer(index);
                 }
-            } while (!mStopThread);
+            } catch (InterruptedException e) {
+                /* The view is disconnecting */
+            }
             Log.d(TAG, "Finish processing thread");
         }
     }
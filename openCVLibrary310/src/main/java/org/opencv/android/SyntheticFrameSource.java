@@ -0,0 +1,134 @@
+package org.opencv.android;
+
+import java.util.Random;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * This class is an implementation of FrameSource which generates frames: a plug socket face plate
+ * with two dark vertical slots, slowly drifting over a noisy background with some dark clutter.
+ * The same seed always gives the same sequence of slot positions, so it can be used to measure
+ * the detector without any recorded data.
+ */
+public class SyntheticFrameSource implements FrameSource {
+
+    private static final Scalar BACKGROUND = new Scalar(160);
+    private static final Scalar FACE_PLATE = new Scalar(225);
+    private static final Scalar SLOT = new Scalar(30);
+    private static final Scalar CLUTTER = new Scalar(60);
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mFrameCount;
+    private final int mClutterCount;
+    private final long mSeed;
+    private Random mRandom;
+    private int mIndex = -1;
+
+    private final Mat mGray;
+    private final Mat mRgba;
+    private final Mat mNoise;
+    private final Point mPt1 = new Point();
+    private final Point mPt2 = new Point();
+
+    /**
+     * @param width - frame width
+     * @param height - frame height
+     * @param frameCount - number of frames to deliver, or 0 for an endless source
+     * @param clutterCount - number of dark distractor blobs drawn in every frame
+     * @param seed - seed for the slot motion and the clutter positions
+     */
+    public SyntheticFrameSource(int width, int height, int frameCount, int clutterCount, long seed) {
+        mWidth = width;
+        mHeight = height;
+        mFrameCount = frameCount;
+        mClutterCount = clutterCount;
+        mSeed = seed;
+        mRandom = new Random(seed);
+        mGray = new Mat(height, width, CvType.CV_8UC1);
+        mRgba = new Mat(height, width, CvType.CV_8UC4);
+        mNoise = new Mat(height, width, CvType.CV_8UC1);
+    }
+
+    @Override
+    public int getWidth() {
+        return mWidth;
+    }
+
+    @Override
+    public int getHeight() {
+        return mHeight;
+    }
+
+    @Override
+    public boolean grab() {
+        if (mFrameCount > 0 && mIndex + 1 >= mFrameCount)
+            return false;
+        mIndex++;
+
+        mPt1.x = 0;
+        mPt1.y = 0;
+        mPt2.x = mWidth;
+        mPt2.y = mHeight;
+        Imgproc.rectangle(mGray, mPt1, mPt2, BACKGROUND, -1);
+
+        for (int i = 0; i < mClutterCount; i++) {
+            int size = 4 + mRandom.nextInt(24);
+            mPt1.x = mRandom.nextInt(Math.max(1, mWidth - size));
+            mPt1.y = mRandom.nextInt(Math.max(1, mHeight - size));
+            mPt2.x = mPt1.x + size;
+            mPt2.y = mPt1.y + size;
+            Imgproc.rectangle(mGray, mPt1, mPt2, CLUTTER, -1);
+        }
+
+        // slot geometry matches the detector limits: 16x48 slots, centroids 80px apart
+        double phase = mIndex * 0.05;
+        double cx = mWidth / 2.0 + Math.sin(phase) * mWidth / 8.0;
+        double cy = mHeight / 2.0 + Math.cos(phase * 0.7) * mHeight / 8.0;
+        mPt1.x = cx - 80;
+        mPt1.y = cy - 70;
+        mPt2.x = cx + 80;
+        mPt2.y = cy + 70;
+        Imgproc.rectangle(mGray, mPt1, mPt2, FACE_PLATE, -1);
+        for (int side = -1; side <= 1; side += 2) {
+            mPt1.x = cx + side * 40 - 8;
+            mPt1.y = cy - 24;
+            mPt2.x = cx + side * 40 + 8;
+            mPt2.y = cy + 24;
+            Imgproc.rectangle(mGray, mPt1, mPt2, SLOT, -1);
+        }
+
+        Core.randu(mNoise, 0, 16);
+        Core.add(mGray, mNoise, mGray);
+        Imgproc.cvtColor(mGray, mRgba, Imgproc.COLOR_GRAY2RGBA, 4);
+        return true;
+    }
+
+    @Override
+    public Mat rgba() {
+        return mRgba;
+    }
+
+    @Override
+    public Mat gray() {
+        return mGray;
+    }
+
+    @Override
+    public void rewind() {
+        mIndex = -1;
+        mRandom = new Random(mSeed);
+    }
+
+    @Override
+    public void release() {
+        mGray.release();
+        mRgba.release();
+        mNoise.release();
+    }
+}
@@ -0,0 +1,72 @@
+package org.opencv.android;
+
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.videoio.VideoCapture;
+import org.opencv.videoio.Videoio;
+
+/**
+ * This class is an implementation of FrameSource which decodes a video file with VideoCapture.
+ */
+public class VideoFrameSource implements FrameSource {
+
+    private final VideoCapture mCapture;
+    private final Mat mBgr;
+    private final Mat mRgba;
+    private final Mat mGray;
+    private final int mWidth;
+    private final int mHeight;
+
+    public VideoFrameSource(String filename) {
+        mCapture = new VideoCapture(filename);
+        if (!mCapture.isOpened())
+            throw new IllegalArgumentException("Can't open video " + filename);
+        mWidth = (int) mCapture.get(Videoio.CAP_PROP_FRAME_WIDTH);
+        mHeight = (int) mCapture.get(Videoio.CAP_PROP_FRAME_HEIGHT);
+        mBgr = new Mat();
+        mRgba = new Mat();
+        mGray = new Mat();
+    }
+
+    @Override
+    public int getWidth() {
+        return mWidth;
+    }
+
+    @Override
+    public int getHeight() {
+        return mHeight;
+    }
+
+    @Override
+    public boolean grab() {
+        if (!mCapture.read(mBgr) || mBgr.empty())
+            return false;
+        Imgproc.cvtColor(mBgr, mRgba, Imgproc.COLOR_BGR2RGBA, 4);
+        Imgproc.cvtColor(mBgr, mGray, Imgproc.COLOR_BGR2GRAY);
+        return true;
+    }
+
+    @Override
+    public Mat rgba() {
+        return mRgba;
+    }
+
+    @Override
+    public Mat gray() {
+        return mGray;
+    }
+
+    @Override
+    public void rewind() {
+        mCapture.set(Videoio.CAP_PROP_POS_FRAMES, 0);
+    }
+
+    @Override
+    public void release() {
+        mCapture.release();
+        mBgr.release();
+        mRgba.release();
+        mGray.release();
+    }
+}
@@ -426,9 +426,9 @@ public class Calib3d {
         Mat tvecs_mat = new Mat();
         double retVal = calibrateCamera_0(objectPoints_mat.nativeObj, imagePoints_mat.nativeObj, imageSize.width, imageSize.height, cameraMatrix.nativeObj, distCoeffs.nativeObj, rvecs_mat.nativeObj, tvecs_mat.nativeObj, flags, criteria.type, criteria.maxCount, criteria.epsilon);
         Converters.Mat_to_vector_Mat(rvecs_mat, rvecs);
-        rvecs_mat.release();
+        rvecs_mat.close();
         Converters.Mat_to_vector_Mat(tvecs_mat, tvecs);
-        tvecs_mat.release();
+        tvecs_mat.close();
         return retVal;
     }
 
@@ -441,9 +441,9 @@ public class Calib3d {
         Mat tvecs_mat = new Mat();
         double retVal = calibrateCamera_1(objectPoints_mat.nativeObj, imagePoints_mat.nativeObj, imageSize.width, imageSize.height, cameraMatrix.nativeObj, distCoeffs.nativeObj, rvecs_mat.nativeObj, tvecs_mat.nativeObj, flags);
         Converters.Mat_to_vector_Mat(rvecs_mat, rvecs);
-        rvecs_mat.release();
+        rvecs_mat.close();
         Converters.Mat_to_vector_Mat(tvecs_mat, tvecs);
-        tvecs_mat.release();
+        tvecs_mat.close();
         return retVal;
     }
 
@@ -456,9 +456,9 @@ public class Calib3d {
         Mat tvecs_mat = new Mat();
         double retVal = calibrateCamera_2(objectPoints_mat.nativeObj, imagePoints_mat.nativeObj, imageSize.width, imageSize.height, cameraMatrix.nativeObj, distCoeffs.nativeObj, rvecs_mat.nativeObj, tvecs_mat.nativeObj);
         Converters.Mat_to_vector_Mat(rvecs_mat, rvecs);
-        rvecs_mat.release();
+        rvecs_mat.close();
         Converters.Mat_to_vector_Mat(tvecs_mat, tvecs);
-        tvecs_mat.release();
+        tvecs_mat.close();
         return retVal;
     }
 
@@ -528,9 +528,9 @@ public class Calib3d {
         Mat tvecs_mat = new Mat();
         double retVal = calibrate_0(objectPoints_mat.nativeObj, imagePoints_mat.nativeObj, image_size.width, image_size.height, K.nativeObj, D.nativeObj, rvecs_mat.nativeObj, tvecs_mat.nativeObj, flags, criteria.type, criteria.maxCount, criteria.epsilon);
         Converters.Mat_to_vector_Mat(rvecs_mat, rvecs);
-        rvecs_mat.release();
+        rvecs_mat.close();
         Converters.Mat_to_vector_Mat(tvecs_mat, tvecs);
-        tvecs_mat.release();
+        tvecs_mat.close();
         return retVal;
     }
 
@@ -543,9 +543,9 @@ public class Calib3d {
         Mat tvecs_mat = new Mat();
         double retVal = calibrate_1(objectPoints_mat.nativeObj, imagePoints_mat.nativeObj, image_size.width, image_size.height, K.nativeObj, D.nativeObj, rvecs_mat.nativeObj, tvecs_mat.nativeObj, flags);
         Converters.Mat_to_vector_Mat(rvecs_mat, rvecs);
-        rvecs_mat.release();
+        rvecs_mat.close();
         Converters.Mat_to_vector_Mat(tvecs_mat, tvecs);
-        tvecs_mat.release();
+        tvecs_mat.close();
         return retVal;
     }
 
@@ -558,9 +558,9 @@ public class Calib3d {
         Mat tvecs_mat = new Mat();
         double retVal = calibrate_2(objectPoints_mat.nativeObj, imagePoints_mat.nativeObj, image_size.width, image_size.height, K.nativeObj, D.nativeObj, rvecs_mat.nativeObj, tvecs_mat.nativeObj);
         Converters.Mat_to_vector_Mat(rvecs_mat, rvecs);
-        rvecs_mat.release();
+        rvecs_mat.close();
         Converters.Mat_to_vector_Mat(tvecs_mat, tvecs);
-        tvecs_mat.release();
+        tvecs_mat.close();
         return retVal;
     }
 
@@ -633,11 +633,11 @@ public class Calib3d {
         Mat normals_mat = new Mat();
         int retVal = decomposeHomographyMat_0(H.nativeObj, K.nativeObj, rotations_mat.nativeObj, translations_mat.nativeObj, normals_mat.nativeObj);
         Converters.Mat_to_vector_Mat(rotations_mat, rotations);
-        rotations_mat.release();
+        rotations_mat.close();
         Converters.Mat_to_vector_Mat(translations_mat, translations);
-        translations_mat.release();
+        translations_mat.close();
         Converters.Mat_to_vector_Mat(normals_mat, normals);
-        normals_mat.release();
+        normals_mat.close();
         return retVal;
     }
 
@@ -2035,7 +2035,7 @@ public class Core {
         Mat mv_mat = new Mat();
         split_0(m.nativeObj, mv_mat.nativeObj);
         Converters.Mat_to_vector_Mat(mv_mat, mv);
-        mv_mat.release();
+        mv_mat.close();
         return;
     }
 
@@ -2,15 +2,19 @@ package org.opencv.core;
 
 // C++: class Mat
 //javadoc: Mat
-public class Mat {
+public class Mat implements AutoCloseable {
 
     public final long nativeObj;
 
+    // manual port: set by close(), the native object is deleted and must not be used
+    private boolean mClosed;
+
     public Mat(long addr)
     {
         if (addr == 0)
             throw new java.lang.UnsupportedOperationException("Native object address is NULL");
         nativeObj = addr;
+        MatTracker.onCreate(this);
     }
 
     //
@@ -23,6 +27,8 @@ public class Mat {
 
         nativeObj = n_Mat();
 
+        MatTracker.onCreate(this);
+
         return;
     }
 
@@ -36,6 +42,8 @@ public class Mat {
 
         nativeObj = n_Mat(rows, cols, type);
 
+        MatTracker.onCreate(this);
+
         return;
     }
 
@@ -49,6 +57,8 @@ public class Mat {
 
         nativeObj = n_Mat(size.width, size.height, type);
 
+        MatTracker.onCreate(this);
+
         return;
     }
 
@@ -62,6 +72,8 @@ public class Mat {
 
         nativeObj = n_Mat(rows, cols, type, s.val[0], s.val[1], s.val[2], s.val[3]);
 
+        MatTracker.onCreate(this);
+
         return;
     }
 
@@ -75,6 +87,8 @@ public class Mat {
 
         nativeObj = n_Mat(size.width, size.height, type, s.val[0], s.val[1], s.val[2], s.val[3]);
 
+        MatTracker.onCreate(this);
+
         return;
     }
 
@@ -88,6 +102,8 @@ public class Mat {
 
         nativeObj = n_Mat(m.nativeObj, rowRange.start, rowRange.end, colRange.start, colRange.end);
 
+        MatTracker.onCreate(this);
+
         return;
     }
 
@@ -97,6 +113,8 @@ public class Mat {
 
         nativeObj = n_Mat(m.nativeObj, rowRange.start, rowRange.end);
 
+        MatTracker.onCreate(this);
+
         return;
     }
 
@@ -110,6 +128,8 @@ public class Mat {
 
         nativeObj = n_Mat(m.nativeObj, roi.y, roi.y + roi.height, roi.x, roi.x + roi.width);
 
+        MatTracker.onCreate(this);
+
         return;
     }
 
@@ -906,9 +926,34 @@ public class Mat {
         return retVal;
     }
 
+    // manual port: deterministic release, see MatScope and MatTracker
+    /**
+     * This method deletes the native object now instead of leaving it to the finalizer.
+     * The pixel data is freed as well unless another Mat, for example a submat, still refers to it.
+     * The Mat must not be used after this call. Calling it again does nothing.
+     */
     @Override
-    protected void finalize() throws Throwable {
+    public synchronized void close()
+    {
+        if (mClosed)
+            return;
+        mClosed = true;
+        MatTracker.onClose(this);
         n_delete(nativeObj);
+    }
+
+    // manual port: deterministic release, see MatScope and MatTracker
+    public synchronized boolean isClosed()
+    {
+        return mClosed;
+    }
+
+    @Override
+    protected void finalize() throws Throwable {
+        if (!isClosed()) {
+            MatTracker.onFinalize(this);
+            n_delete(nativeObj);
+        }
         super.finalize();
     }
 
@@ -0,0 +1,106 @@
+package org.opencv.core;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Direct {@link ByteBuffer} access to the pixel data of a {@link Mat}, without copying.
+ * <p>
+ * {@link Mat#get(int, int, byte[])} and {@link Mat#put(int, int, byte[])} copy the data through JNI,
+ * so processing a frame in Java copies it twice. A direct ByteBuffer reads and writes the Mat memory in place.
+ * <p>
+ * The native methods are not part of the opencv_java library. They are implemented by the application's
+ * own JNI library (detection_based_tracker in the face detection sample), which must be loaded before
+ * this class is used. Until then every method except {@link #isAvailable()} throws {@link UnsatisfiedLinkError}.
+ * Callers that also run without that library should check {@link #isAvailable()} once and fall back to get and put.
+ * <p>
+ * Ownership and lifetime:
+ * <ul>
+ * <li>The ByteBuffer returned by {@link #view(Mat)} borrows the memory of the Mat and does not keep it alive.
+ * It must not be used after the Mat is closed or reallocated, for example by create(); take a new view when dataAddr() changes.</li>
+ * <li>The Mat returned by {@link #wrap(ByteBuffer, int, int, int)} borrows the memory of the ByteBuffer and never frees it.
+ * The {@link WrappedMat} refers to the ByteBuffer, so the buffer is not collected while the Mat is in use.
+ * Calling create() on it with another size or type makes OpenCV allocate new memory that is no longer shared with the buffer.</li>
+ * </ul>
+ */
+public class MatBuffers {
+
+    private static final int UNKNOWN = 0;
+    private static final int AVAILABLE = 1;
+    private static final int UNAVAILABLE = 2;
+    private static int sNativeState = UNKNOWN;
+
+    /**
+     * A Mat over the memory of a direct ByteBuffer. It refers to the buffer so that the buffer is not collected first.
+     */
+    public static class WrappedMat extends Mat {
+        private final ByteBuffer mBuffer;
+
+        private WrappedMat(long addr, ByteBuffer buffer) {
+            super(addr);
+            mBuffer = buffer;
+        }
+
+        /**
+         * This method returns the ByteBuffer whose memory this Mat uses.
+         */
+        public ByteBuffer buffer() {
+            return mBuffer;
+        }
+    }
+
+    private MatBuffers() {
+    }
+
+    /**
+     * This method returns whether the native methods are loaded. The result of the first call is kept.
+     */
+    public static synchronized boolean isAvailable() {
+        if (sNativeState == UNKNOWN) {
+            try {
+                nativeProbe();
+                sNativeState = AVAILABLE;
+            } catch (UnsatisfiedLinkError e) {
+                sNativeState = UNAVAILABLE;
+            }
+        }
+        return sNativeState == AVAILABLE;
+    }
+
+    /**
+     * This method returns the pixel data of mat as a direct ByteBuffer in native byte order,
+     * so that Mats of ints or floats can be read with asIntBuffer() and so on.
+     * @param mat a continuous, non-empty Mat
+     * @return a ByteBuffer of total() * elemSize() bytes
+     */
+    public static ByteBuffer view(Mat mat) {
+        if (mat.empty() || !mat.isContinuous())
+            throw new java.lang.IllegalArgumentException("Mat must be continuous and not empty");
+        ByteBuffer buffer = nativeView(mat.getNativeObjAddr());
+        return buffer.order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * This method creates a Mat that uses the memory of a direct ByteBuffer.
+     * The position of the buffer is ignored and the first rows * cols * element size bytes are used.
+     * @param type CvType of the Mat
+     * @return a Mat to be closed by the caller
+     */
+    public static WrappedMat wrap(ByteBuffer buffer, int rows, int cols, int type) {
+        if (!buffer.isDirect())
+            throw new java.lang.IllegalArgumentException("ByteBuffer must be direct");
+        long bytes = (long) rows * cols * CvType.ELEM_SIZE(type);
+        if (rows <= 0 || cols <= 0 || bytes > buffer.capacity())
+            throw new java.lang.IllegalArgumentException("ByteBuffer of " + buffer.capacity() + " bytes cannot hold "
+                    + rows + "x" + cols + " " + CvType.typeToString(type));
+        return new WrappedMat(nativeWrap(buffer, rows, cols, type), buffer);
+    }
+
+    private static native void nativeProbe();
+
+    // returns a direct ByteBuffer over the data of the Mat
+    private static native ByteBuffer nativeView(long mat);
+
+    // returns the address of a new cv::Mat over the memory of buffer
+    private static native long nativeWrap(ByteBuffer buffer, int rows, int cols, int type);
+}
@@ -0,0 +1,221 @@
+package org.opencv.core;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A thread-safe pool of idle {@link Mat}s keyed by rows, cols and type.
+ * <p>
+ * {@link #lease(int, int, int)} returns an idle Mat of the requested shape, or a new one when there is none,
+ * and {@link #recycle(Mat)} takes it back instead of freeing the native memory. The contents of a leased Mat are undefined.
+ * <p>
+ * The pool keeps at most maxPerKey idle Mats of one shape and at most maxBytes of idle pixel data in total.
+ * When the byte budget is exceeded the Mats that have been idle the longest are closed first.
+ * Leased Mats are owned by the caller and do not count against the budget.
+ * <p>
+ * A leased Mat must be recycled at most once, and neither it nor its submatrices may be used afterwards.
+ * It may also simply be closed.
+ * Mats created by the pool are not collected by an open {@link MatScope}.
+ */
+public class MatPool {
+
+    /** Idle Mats of one shape, the most recently recycled last */
+    private static class Slot {
+        final int rows;
+        final int cols;
+        final int type;
+        /** Bytes of pixel data of one Mat, kept here because an idle Mat may have been closed */
+        final long bytes;
+        final ArrayDeque<Mat> idle = new ArrayDeque<Mat>();
+
+        Slot(int rows, int cols, int type) {
+            this.rows = rows;
+            this.cols = cols;
+            this.type = type;
+            bytes = (long) rows * cols * CvType.ELEM_SIZE(type);
+        }
+    }
+
+    private final int mMaxPerKey;
+    private long mMaxBytes;
+
+    private final List<Slot> mSlots = new ArrayList<Slot>();
+    /** All idle Mats, the longest idle first */
+    private final LinkedHashMap<Mat, Slot> mIdle = new LinkedHashMap<Mat, Slot>();
+    private long mIdleBytes = 0;
+
+    private long mHits = 0;
+    private long mMisses = 0;
+    private long mEvictions = 0;
+
+    /**
+     * @param maxPerKey maximum number of idle Mats of one shape
+     * @param maxBytes maximum bytes of idle pixel data in total
+     */
+    public MatPool(int maxPerKey, long maxBytes) {
+        if (maxPerKey < 0 || maxBytes < 0)
+            throw new java.lang.IllegalArgumentException("maxPerKey and maxBytes must not be negative");
+        mMaxPerKey = maxPerKey;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * This method returns a Mat of the given shape, reusing an idle one if possible.
+     * Empty shapes are never pooled and always get a new Mat.
+     */
+    public synchronized Mat lease(int rows, int cols, int type) {
+        if (rows <= 0 || cols <= 0)
+            return newMat(rows, cols, type);
+        Slot slot = findSlot(rows, cols, type, false);
+        while (slot != null && !slot.idle.isEmpty()) {
+            Mat mat = slot.idle.pollLast();
+            mIdle.remove(mat);
+            mIdleBytes -= slot.bytes;
+            // a Mat closed behind the pool's back cannot be reused
+            if (!mat.isClosed()) {
+                mHits++;
+                return mat;
+            }
+        }
+        mMisses++;
+        return newMat(rows, cols, type);
+    }
+
+    public Mat lease(Size size, int type) {
+        return lease((int) size.height, (int) size.width, type);
+    }
+
+    /**
+     * This method takes mat back for reuse. It is pooled under its current shape, which may differ from the leased one.
+     * Mats that cannot be pooled, such as empty Mats, submatrices or those beyond the limits, are closed.
+     */
+    public synchronized void recycle(Mat mat) {
+        if (mat == null || mat.isClosed())
+            return;
+        if (mIdle.containsKey(mat))
+            throw new java.lang.IllegalStateException("Mat is already in the pool");
+        if (mat.empty() || mat.isSubmatrix() || !mat.isContinuous()) {
+            mat.close();
+            return;
+        }
+        Slot slot = findSlot(mat.rows(), mat.cols(), mat.type(), true);
+        if (slot.idle.size() >= mMaxPerKey || slot.bytes > mMaxBytes) {
+            mat.close();
+            mEvictions++;
+            return;
+        }
+        slot.idle.addLast(mat);
+        mIdle.put(mat, slot);
+        mIdleBytes += slot.bytes;
+        trim(mMaxBytes);
+    }
+
+    /**
+     * This method closes the longest idle Mats until at most maxBytes of idle pixel data remain.
+     * The budget given to the constructor is not changed.
+     */
+    public synchronized void trim(long maxBytes) {
+        Iterator<Map.Entry<Mat, Slot>> it = mIdle.entrySet().iterator();
+        while (mIdleBytes > maxBytes && it.hasNext()) {
+            Map.Entry<Mat, Slot> entry = it.next();
+            Mat mat = entry.getKey();
+            Slot slot = entry.getValue();
+            it.remove();
+            // the longest idle Mat of the pool is also the longest idle of its slot
+            slot.idle.removeFirst();
+            mIdleBytes -= slot.bytes;
+            mat.close();
+            mEvictions++;
+        }
+    }
+
+    /**
+     * This method changes the byte budget and trims the pool to it.
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        if (maxBytes < 0)
+            throw new java.lang.IllegalArgumentException("maxBytes must not be negative");
+        mMaxBytes = maxBytes;
+        trim(maxBytes);
+    }
+
+    public synchronized long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    public int getMaxPerKey() {
+        return mMaxPerKey;
+    }
+
+    /**
+     * This method closes all idle Mats. Leased Mats are not affected and can still be recycled.
+     */
+    public synchronized void clear() {
+        trim(0);
+        mSlots.clear();
+    }
+
+    public synchronized int getIdleCount() {
+        return mIdle.size();
+    }
+
+    public synchronized long getIdleBytes() {
+        return mIdleBytes;
+    }
+
+    /**
+     * This method returns how many leases were served by an idle Mat.
+     */
+    public synchronized long getHitCount() {
+        return mHits;
+    }
+
+    /**
+     * This method returns how many leases had to create a new Mat. Empty shapes are not counted.
+     */
+    public synchronized long getMissCount() {
+        return mMisses;
+    }
+
+    public synchronized double getHitRate() {
+        long leases = mHits + mMisses;
+        return leases == 0 ? 0 : (double) mHits / leases;
+    }
+
+    /**
+     * This method returns how many Mats were closed because of the per-key cap or the byte budget.
+     */
+    public synchronized long getEvictionCount() {
+        return mEvictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "MatPool [ idle " + mIdle.size() + " (" + mIdleBytes + " / " + mMaxBytes + " bytes)"
+                + ", hits " + mHits + ", misses " + mMisses + ", evictions " + mEvictions + " ]";
+    }
+
+    private Slot findSlot(int rows, int cols, int type, boolean create) {
+        // a pool holds few shapes, so a linear search does not allocate a key per lease
+        for (int i = 0; i < mSlots.size(); i++) {
+            Slot slot = mSlots.get(i);
+            if (slot.rows == rows && slot.cols == cols && slot.type == type)
+                return slot;
+        }
+        if (!create)
+            return null;
+        Slot slot = new Slot(rows, cols, type);
+        mSlots.add(slot);
+        return slot;
+    }
+
+    private static Mat newMat(int rows, int cols, int type) {
+        Mat mat = new Mat(rows, cols, type);
+        MatScope.forget(mat);
+        return mat;
+    }
+}
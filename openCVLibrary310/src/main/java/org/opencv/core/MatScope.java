@@ -0,0 +1,116 @@
+package org.opencv.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Closes every {@link Mat} created on the current thread while the scope is open.
+ * <pre>
+ * Mat result;
+ * try (MatScope scope = MatScope.open()) {
+ *     Mat gray = new Mat();
+ *     Imgproc.cvtColor(rgba, gray, Imgproc.COLOR_RGBA2GRAY);
+ *     result = scope.keep(gray.submat(roi).clone());
+ * }
+ * </pre>
+ * This includes the Mats the Java wrappers create, such as return values and the elements of
+ * output lists ({@code List<MatOfPoint>} of findContours). Use {@link #keep(Mat)} for the Mats
+ * that must outlive the scope. Mats created on other threads are not collected.
+ * <p>
+ * Scopes nest per thread and must be closed in the reverse order of opening, on the thread that opened them.
+ */
+public final class MatScope implements AutoCloseable {
+
+    /** Open scopes of all threads, so that Mats created outside any scope skip the thread-local lookup */
+    private static final AtomicInteger sOpenCount = new AtomicInteger();
+    private static final ThreadLocal<MatScope> sCurrent = new ThreadLocal<MatScope>();
+
+    private final MatScope mParent;
+    private final List<Mat> mMats = new ArrayList<Mat>();
+    private boolean mClosed;
+
+    private MatScope(MatScope parent) {
+        mParent = parent;
+    }
+
+    /**
+     * This method opens a scope nested in the current scope of this thread, if any.
+     */
+    public static MatScope open() {
+        MatScope scope = new MatScope(sCurrent.get());
+        sCurrent.set(scope);
+        sOpenCount.incrementAndGet();
+        return scope;
+    }
+
+    /**
+     * This method returns the innermost open scope of this thread, or null.
+     */
+    public static MatScope current() {
+        return sCurrent.get();
+    }
+
+    /**
+     * This method takes mat out of this scope so that it is not closed with it.
+     * It moves to the enclosing scope if there is one.
+     * @return mat
+     */
+    public <T extends Mat> T keep(T mat) {
+        for (int i = mMats.size() - 1; i >= 0; i--) {
+            if (mMats.get(i) == mat) {
+                mMats.remove(i);
+                if (mParent != null)
+                    mParent.mMats.add(mat);
+                break;
+            }
+        }
+        return mat;
+    }
+
+    /**
+     * This method returns the number of Mats this scope will close.
+     */
+    public int size() {
+        return mMats.size();
+    }
+
+    /**
+     * This method closes the Mats of this scope, the most recently created first.
+     */
+    @Override
+    public void close() {
+        if (mClosed)
+            return;
+        if (sCurrent.get() != this)
+            throw new java.lang.IllegalStateException("MatScope must be closed on its thread, innermost first");
+        mClosed = true;
+        for (int i = mMats.size() - 1; i >= 0; i--)
+            mMats.get(i).close();
+        mMats.clear();
+        if (mParent != null)
+            sCurrent.set(mParent);
+        else
+            sCurrent.remove();
+        sOpenCount.decrementAndGet();
+    }
+
+    /**
+     * Takes a Mat just created on this thread out of the innermost scope, for Mats owned by someone else such as a {@link MatPool}.
+     */
+    static void forget(Mat mat) {
+        if (sOpenCount.get() == 0)
+            return;
+        MatScope scope = sCurrent.get();
+        if (scope != null && !scope.mMats.isEmpty() && scope.mMats.get(scope.mMats.size() - 1) == mat)
+            scope.mMats.remove(scope.mMats.size() - 1);
+    }
+
+    static void onCreate(Mat mat) {
+        if (sOpenCount.get() == 0)
+            return;
+        MatScope scope = sCurrent.get();
+        if (scope != null)
+            scope.mMats.add(mat);
+    }
+}
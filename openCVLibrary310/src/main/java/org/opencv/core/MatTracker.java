@@ -0,0 +1,206 @@
+package org.opencv.core;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide accounting of the native objects behind {@link Mat} and its subclasses.
+ * <p>
+ * The counters of created, closed and finalized Mats are always kept and cost one atomic increment per Mat.
+ * A Mat that is neither closed nor finalized yet is live, so a live count that keeps growing
+ * points to Mats left to the garbage collector.
+ * <p>
+ * Live bytes and allocation sites need a registry of the live Mats, which is off by default because
+ * every Mat then costs a map entry and a weak reference. Turn it on in debug builds with
+ * {@link #setEnabled(boolean)}, and with {@link #setRecordAllocationSites(boolean)} to also keep
+ * the stack trace of every allocation for {@link #report(int)}. Only Mats created while the registry
+ * is enabled are seen by it.
+ */
+public final class MatTracker {
+
+    private static final AtomicLong sCreated = new AtomicLong();
+    private static final AtomicLong sClosed = new AtomicLong();
+    private static final AtomicLong sFinalized = new AtomicLong();
+
+    private static volatile boolean sEnabled = false;
+    private static volatile boolean sRecordSites = false;
+    private static final Map<Long, Entry> sLive = new ConcurrentHashMap<Long, Entry>();
+
+    /** Number of stack frames below the Mat constructors that identify an allocation site */
+    private static final int SITE_FRAMES = 4;
+    /** Mat, its subclasses and this class, which are skipped when describing a site */
+    private static final String MAT_CLASS_PREFIX = "org.opencv.core.Mat";
+
+    private static final class Entry {
+        final WeakReference<Mat> mat;
+        final Throwable site;
+
+        Entry(Mat mat, Throwable site) {
+            this.mat = new WeakReference<Mat>(mat);
+            this.site = site;
+        }
+    }
+
+    private MatTracker() {
+    }
+
+    /**
+     * This method turns the registry of live Mats on or off. Turning it off forgets the registered Mats.
+     */
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+        if (!enabled)
+            sLive.clear();
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * This method makes the registry keep the stack trace of every Mat it registers.
+     * It has no effect unless the registry is enabled.
+     */
+    public static void setRecordAllocationSites(boolean record) {
+        sRecordSites = record;
+    }
+
+    public static boolean isRecordingAllocationSites() {
+        return sRecordSites;
+    }
+
+    public static long getCreatedCount() {
+        return sCreated.get();
+    }
+
+    public static long getClosedCount() {
+        return sClosed.get();
+    }
+
+    /**
+     * This method returns how many Mats were deleted by the finalizer instead of {@link Mat#close()}.
+     */
+    public static long getFinalizedCount() {
+        return sFinalized.get();
+    }
+
+    /**
+     * This method returns how many Mats are neither closed nor finalized.
+     * Unreachable Mats waiting for the finalizer are still counted.
+     */
+    public static long getLiveCount() {
+        return sCreated.get() - sClosed.get() - sFinalized.get();
+    }
+
+    /**
+     * This method returns how many live Mats the registry holds, or 0 if it is not enabled.
+     */
+    public static int getTrackedCount() {
+        return sLive.size();
+    }
+
+    /**
+     * This method returns the bytes of pixel data referred to by the registered live Mats.
+     * Mats sharing the same data are counted once, and submatrices are not counted because their parent holds the data.
+     * The value is approximate while other threads create or reallocate Mats. It is 0 if the registry is not enabled.
+     */
+    public static long getLiveBytes() {
+        long bytes = 0;
+        Set<Long> seen = new HashSet<Long>();
+        for (Entry entry : sLive.values()) {
+            Mat mat = entry.mat.get();
+            if (mat == null)
+                continue;
+            // close() holds the same lock, so the native object is not deleted while it is read
+            synchronized (mat) {
+                if (mat.isClosed() || mat.empty() || mat.isSubmatrix())
+                    continue;
+                if (seen.add(mat.dataAddr()))
+                    bytes += mat.total() * mat.elemSize();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * This method groups the registered live Mats by allocation site and describes the largest groups.
+     * @param maxSites number of groups to describe
+     */
+    public static String report(int maxSites) {
+        final Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (Entry entry : sLive.values()) {
+            if (entry.mat.get() == null)
+                continue;
+            String site = siteOf(entry.site);
+            Integer count = counts.get(site);
+            counts.put(site, count == null ? 1 : count + 1);
+        }
+        List<String> sites = new ArrayList<String>(counts.keySet());
+        Collections.sort(sites, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return counts.get(b) - counts.get(a);
+            }
+        });
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("live ").append(getLiveCount())
+                .append(", created ").append(getCreatedCount())
+                .append(", closed ").append(getClosedCount())
+                .append(", finalized ").append(getFinalizedCount());
+        if (sEnabled)
+            sb.append(", tracked ").append(sLive.size()).append(", bytes ").append(getLiveBytes());
+        for (int i = 0; i < sites.size() && i < maxSites; i++) {
+            String site = sites.get(i);
+            sb.append('\n').append(counts.get(site)).append(" at ").append(site);
+        }
+        return sb.toString();
+    }
+
+    static void onCreate(Mat mat) {
+        sCreated.incrementAndGet();
+        if (sEnabled)
+            sLive.put(mat.nativeObj, new Entry(mat, sRecordSites ? new Throwable("Mat allocation") : null));
+        MatScope.onCreate(mat);
+    }
+
+    static void onClose(Mat mat) {
+        sClosed.incrementAndGet();
+        if (!sLive.isEmpty())
+            sLive.remove(mat.nativeObj);
+    }
+
+    static void onFinalize(Mat mat) {
+        // a constructor that threw never got a native object or a count
+        if (mat.nativeObj == 0)
+            return;
+        sFinalized.incrementAndGet();
+        if (!sLive.isEmpty())
+            sLive.remove(mat.nativeObj);
+    }
+
+    private static String siteOf(Throwable site) {
+        if (site == null)
+            return "(unknown)";
+        StackTraceElement[] frames = site.getStackTrace();
+        int first = 0;
+        while (first < frames.length && frames[first].getClassName().startsWith(MAT_CLASS_PREFIX))
+            first++;
+        StringBuilder sb = new StringBuilder();
+        for (int i = first; i < frames.length && i < first + SITE_FRAMES; i++) {
+            if (i > first)
+                sb.append(" < ");
+            sb.append(frames[i]);
+        }
+        return sb.toString();
+    }
+}
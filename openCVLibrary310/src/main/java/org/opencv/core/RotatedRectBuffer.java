@@ -0,0 +1,253 @@
+package org.opencv.core;
+
+/**
+ * A batch of rotated rectangles stored as parallel <code>double[]</code> columns.
+ * <p>
+ * The batch methods write into caller-provided primitive arrays, so working on many rectangles
+ * does not create a {@link Point} or {@link RotatedRect} per rectangle the way
+ * {@link RotatedRect#points(Point[])} and {@link RotatedRect#boundingRect()} do.
+ * The columns only grow, when more rectangles are added than ever before.
+ * They may be longer than {@link #size()}.
+ */
+public class RotatedRectBuffer {
+
+    /** Number of doubles written per rectangle by {@link #corners(double[])} */
+    public static final int CORNER_VALUES = 8;
+    /** Number of doubles written per rectangle by {@link #bounds(double[])} */
+    public static final int BOUND_VALUES = 4;
+
+    public double[] centerX;
+    public double[] centerY;
+    public double[] width;
+    public double[] height;
+    public double[] angle;
+
+    private int mSize;
+    private int mGrowCount;
+
+    public RotatedRectBuffer() {
+        this(16);
+    }
+
+    public RotatedRectBuffer(int capacity) {
+        if (capacity < 0)
+            throw new java.lang.IllegalArgumentException("capacity < 0");
+        centerX = new double[capacity];
+        centerY = new double[capacity];
+        width = new double[capacity];
+        height = new double[capacity];
+        angle = new double[capacity];
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * This method returns how many times the columns had to be replaced by larger ones.
+     */
+    public int getGrowCount() {
+        return mGrowCount;
+    }
+
+    public void clear() {
+        mSize = 0;
+    }
+
+    public void add(double cx, double cy, double w, double h, double a) {
+        ensureCapacity(mSize + 1);
+        centerX[mSize] = cx;
+        centerY[mSize] = cy;
+        width[mSize] = w;
+        height[mSize] = h;
+        angle[mSize] = a;
+        mSize++;
+    }
+
+    public void add(RotatedRect rr) {
+        add(rr.center.x, rr.center.y, rr.size.width, rr.size.height, rr.angle);
+    }
+
+    /**
+     * This method replaces the contents with the first count rectangles of rects.
+     */
+    public void set(RotatedRect[] rects, int count) {
+        ensureCapacity(count);
+        for (int i = 0; i < count; i++) {
+            RotatedRect rr = rects[i];
+            centerX[i] = rr.center.x;
+            centerY[i] = rr.center.y;
+            width[i] = rr.size.width;
+            height[i] = rr.size.height;
+            angle[i] = rr.angle;
+        }
+        mSize = count;
+    }
+
+    /**
+     * This method replaces the contents with count rectangles packed as (cx, cy, w, h, angle).
+     */
+    public void set(float[] packed, int count) {
+        ensureCapacity(count);
+        for (int i = 0, p = 0; i < count; i++, p += 5) {
+            centerX[i] = packed[p];
+            centerY[i] = packed[p + 1];
+            width[i] = packed[p + 2];
+            height[i] = packed[p + 3];
+            angle[i] = packed[p + 4];
+        }
+        mSize = count;
+    }
+
+    public void get(int i, RotatedRect out) {
+        out.center.x = centerX[i];
+        out.center.y = centerY[i];
+        out.size.width = width[i];
+        out.size.height = height[i];
+        out.angle = angle[i];
+    }
+
+    /**
+     * This method writes the four corners of rectangle i as (x0, y0, ..., x3, y3),
+     * in the same order as {@link RotatedRect#points(Point[])}.
+     */
+    public void corners(int i, double[] out, int offset) {
+        corners(centerX[i], centerY[i], width[i], height[i], angle[i], out, offset);
+    }
+
+    /**
+     * This method writes the corners of all rectangles, {@link #CORNER_VALUES} doubles each.
+     */
+    public void corners(double[] out) {
+        int n = mSize;
+        for (int i = 0; i < n; i++) {
+            corners(centerX[i], centerY[i], width[i], height[i], angle[i], out, i * CORNER_VALUES);
+        }
+    }
+
+    /**
+     * This method writes the four corners of rr in the same order as {@link RotatedRect#points(Point[])}.
+     */
+    public static void corners(RotatedRect rr, double[] out, int offset) {
+        corners(rr.center.x, rr.center.y, rr.size.width, rr.size.height, rr.angle, out, offset);
+    }
+
+    private static void corners(double cx, double cy, double w, double h, double a, double[] out, int offset) {
+        double _angle = a * Math.PI / 180.0;
+        double cb = Math.cos(_angle) * 0.5f;
+        double sa = Math.sin(_angle) * 0.5f;
+        double x0 = cx - sa * h - cb * w;
+        double y0 = cy + cb * h - sa * w;
+        double x1 = cx + sa * h - cb * w;
+        double y1 = cy - cb * h - sa * w;
+        out[offset] = x0;
+        out[offset + 1] = y0;
+        out[offset + 2] = x1;
+        out[offset + 3] = y1;
+        out[offset + 4] = 2 * cx - x0;
+        out[offset + 5] = 2 * cy - y0;
+        out[offset + 6] = 2 * cx - x1;
+        out[offset + 7] = 2 * cy - y1;
+    }
+
+    /**
+     * This method writes the centroid of every rectangle as (x, y). The centroid of the corners is the center.
+     */
+    public void centroids(double[] out) {
+        int n = mSize;
+        for (int i = 0; i < n; i++) {
+            out[i * 2] = centerX[i];
+            out[i * 2 + 1] = centerY[i];
+        }
+    }
+
+    /**
+     * This method returns the distance between the centers of rectangles i and j.
+     */
+    public double distance(int i, int j) {
+        double dx = centerX[i] - centerX[j];
+        double dy = centerY[i] - centerY[j];
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * This method writes the distances between all centers as a size() x size() row-major matrix.
+     */
+    public void distances(double[] out) {
+        int n = mSize;
+        for (int i = 0; i < n; i++) {
+            out[i * n + i] = 0;
+            for (int j = i + 1; j < n; j++) {
+                double d = distance(i, j);
+                out[i * n + j] = d;
+                out[j * n + i] = d;
+            }
+        }
+    }
+
+    /**
+     * This method writes the axis-aligned bounds of every rectangle as (minX, minY, maxX, maxY),
+     * {@link #BOUND_VALUES} doubles each.
+     */
+    public void bounds(double[] out) {
+        int n = mSize;
+        for (int i = 0; i < n; i++) {
+            bounds(i, out, i * BOUND_VALUES);
+        }
+    }
+
+    /**
+     * This method writes the axis-aligned bounds of rectangle i as (minX, minY, maxX, maxY).
+     */
+    public void bounds(int i, double[] out, int offset) {
+        double _angle = angle[i] * Math.PI / 180.0;
+        double cb = Math.cos(_angle) * 0.5f;
+        double sa = Math.sin(_angle) * 0.5f;
+        double cx = centerX[i];
+        double cy = centerY[i];
+        double w = width[i];
+        double h = height[i];
+        // the other two corners are the first two mirrored through the center
+        double x0 = cx - sa * h - cb * w;
+        double y0 = cy + cb * h - sa * w;
+        double x1 = cx + sa * h - cb * w;
+        double y1 = cy - cb * h - sa * w;
+        double x2 = 2 * cx - x0;
+        double y2 = 2 * cy - y0;
+        double x3 = 2 * cx - x1;
+        double y3 = 2 * cy - y1;
+        out[offset] = Math.min(Math.min(Math.min(x0, x1), x2), x3);
+        out[offset + 1] = Math.min(Math.min(Math.min(y0, y1), y2), y3);
+        out[offset + 2] = Math.max(Math.max(Math.max(x0, x1), x2), x3);
+        out[offset + 3] = Math.max(Math.max(Math.max(y0, y1), y2), y3);
+    }
+
+    /**
+     * This method writes the same integer rectangle as {@link RotatedRect#boundingRect()} into out.
+     */
+    public void boundingRect(int i, Rect out, double[] scratch) {
+        bounds(i, scratch, 0);
+        out.x = (int) Math.floor(scratch[0]);
+        out.y = (int) Math.floor(scratch[1]);
+        out.width = (int) Math.ceil(scratch[2]) - out.x + 1;
+        out.height = (int) Math.ceil(scratch[3]) - out.y + 1;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (centerX.length >= capacity)
+            return;
+        int grown = Math.max(capacity, Math.max(16, centerX.length * 2));
+        centerX = grow(centerX, grown);
+        centerY = grow(centerY, grown);
+        width = grow(width, grown);
+        height = grow(height, grown);
+        angle = grow(angle, grown);
+        mGrowCount++;
+    }
+
+    private double[] grow(double[] array, int capacity) {
+        double[] grown = new double[capacity];
+        System.arraycopy(array, 0, grown, 0, mSize);
+        return grown;
+    }
+}
@@ -145,7 +145,7 @@ public class DescriptorMatcher {
         Mat matches_mat = new Mat();
         knnMatch_0(nativeObj, queryDescriptors.nativeObj, trainDescriptors.nativeObj, matches_mat.nativeObj, k, mask.nativeObj, compactResult);
         Converters.Mat_to_vector_vector_DMatch(matches_mat, matches);
-        matches_mat.release();
+        matches_mat.close();
         return;
     }
 
@@ -155,7 +155,7 @@ public class DescriptorMatcher {
         Mat matches_mat = new Mat();
         knnMatch_1(nativeObj, queryDescriptors.nativeObj, trainDescriptors.nativeObj, matches_mat.nativeObj, k);
         Converters.Mat_to_vector_vector_DMatch(matches_mat, matches);
-        matches_mat.release();
+        matches_mat.close();
         return;
     }
 
@@ -171,7 +171,7 @@ public class DescriptorMatcher {
         Mat masks_mat = Converters.vector_Mat_to_Mat(masks);
         knnMatch_2(nativeObj, queryDescriptors.nativeObj, matches_mat.nativeObj, k, masks_mat.nativeObj, compactResult);
         Converters.Mat_to_vector_vector_DMatch(matches_mat, matches);
-        matches_mat.release();
+        matches_mat.close();
         return;
     }
 
@@ -181,7 +181,7 @@ public class DescriptorMatcher {
         Mat matches_mat = new Mat();
         knnMatch_3(nativeObj, queryDescriptors.nativeObj, matches_mat.nativeObj, k);
         Converters.Mat_to_vector_vector_DMatch(matches_mat, matches);
-        matches_mat.release();
+        matches_mat.close();
         return;
     }
 
@@ -243,7 +243,7 @@ public class DescriptorMatcher {
         Mat matches_mat = new Mat();
         radiusMatch_0(nativeObj, queryDescriptors.nativeObj, trainDescriptors.nativeObj, matches_mat.nativeObj, maxDistance, mask.nativeObj, compactResult);
         Converters.Mat_to_vector_vector_DMatch(matches_mat, matches);
-        matches_mat.release();
+        matches_mat.close();
         return;
     }
 
@@ -253,7 +253,7 @@ public class DescriptorMatcher {
         Mat matches_mat = new Mat();
         radiusMatch_1(nativeObj, queryDescriptors.nativeObj, trainDescriptors.nativeObj, matches_mat.nativeObj, maxDistance);
         Converters.Mat_to_vector_vector_DMatch(matches_mat, matches);
-        matches_mat.release();
+        matches_mat.close();
         return;
     }
 
@@ -269,7 +269,7 @@ public class DescriptorMatcher {
         Mat masks_mat = Converters.vector_Mat_to_Mat(masks);
         radiusMatch_2(nativeObj, queryDescriptors.nativeObj, matches_mat.nativeObj, maxDistance, masks_mat.nativeObj, compactResult);
         Converters.Mat_to_vector_vector_DMatch(matches_mat, matches);
-        matches_mat.release();
+        matches_mat.close();
         return;
     }
 
@@ -279,7 +279,7 @@ public class DescriptorMatcher {
         Mat matches_mat = new Mat();
         radiusMatch_3(nativeObj, queryDescriptors.nativeObj, matches_mat.nativeObj, maxDistance);
         Converters.Mat_to_vector_vector_DMatch(matches_mat, matches);
-        matches_mat.release();
+        matches_mat.close();
         return;
     }
 
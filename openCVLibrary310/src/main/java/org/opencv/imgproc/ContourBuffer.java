@@ -0,0 +1,207 @@
+package org.opencv.imgproc;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * Flat, reusable storage for the result of {@link Imgproc#findContours(Mat, ContourBuffer, int, int)}.
+ * <p>
+ * All contours are stored in one <code>int[]</code> of interleaved coordinates. Contour <code>i</code>
+ * holds the points <code>offsets[i]</code> to <code>offsets[i + 1] - 1</code>. Point <code>p</code>
+ * is <code>(points[2 * p], points[2 * p + 1])</code>. The hierarchy is stored as four ints per contour
+ * (next, previous, first child, parent), in the same layout as the <code>hierarchy</code> Mat of
+ * {@link Imgproc#findContours(Mat, java.util.List, Mat, int, int)}.
+ * <p>
+ * The arrays are reused between calls and are only replaced by larger ones when a frame has more
+ * contours or points than any frame before it. The arrays can also be supplied by the caller.
+ * They may be longer than needed, so use {@link #count} and {@link #offsets} to find out how much is valid.
+ * <p>
+ * The prebuilt opencv_java library has no packer for this layout. When the application's JNI library
+ * (detection_based_tracker in the face detection sample) is loaded, its native packer runs findContours and
+ * writes the points, offsets and hierarchy straight into these arrays, without any Java object per contour.
+ * Otherwise, for example on a desktop JVM, the contours go through the vector of Mats that the generated
+ * findContours returns, and every contour is copied through a short-lived Mat wrapper.
+ */
+public class ContourBuffer {
+
+    private static final int UNKNOWN = 0;
+    private static final int AVAILABLE = 1;
+    private static final int UNAVAILABLE = 2;
+    private static int sNativeState = UNKNOWN;
+
+    /** Interleaved x, y coordinates of every contour point */
+    public int[] points;
+    /** Start of every contour in points (in points, not ints); offsets[count] is the total point count */
+    public int[] offsets;
+    /** next, previous, first child and parent index of every contour, -1 if there is none */
+    public int[] hierarchy;
+    /** Number of contours found by the last call */
+    public int count;
+
+    private Mat mContoursMat;
+    private Mat mHierarchyMat;
+    private int[] mAddresses = new int[0];
+    private int[] mScratch = new int[0];
+    private int mGrowCount;
+    private long mWrapperCount;
+
+    public ContourBuffer() {
+        this(new int[0], new int[1], new int[0]);
+    }
+
+    /**
+     * Creates a buffer that starts with the caller's arrays.
+     * <p>
+     * The length of points must be even and the length of hierarchy a multiple of four.
+     */
+    public ContourBuffer(int[] points, int[] offsets, int[] hierarchy) {
+        if (points == null || offsets == null || hierarchy == null)
+            throw new java.lang.IllegalArgumentException("arrays must not be null");
+        if (points.length % 2 != 0 || hierarchy.length % 4 != 0)
+            throw new java.lang.IllegalArgumentException("points.length must be even and hierarchy.length a multiple of 4");
+        this.points = points;
+        this.offsets = offsets.length > 0 ? offsets : new int[1];
+        this.hierarchy = hierarchy;
+    }
+
+    /**
+     * This method returns the number of points in contour i.
+     */
+    public int pointCount(int i) {
+        return offsets[i + 1] - offsets[i];
+    }
+
+    /**
+     * This method returns the number of points in all contours.
+     */
+    public int totalPoints() {
+        return offsets[count];
+    }
+
+    /**
+     * This method returns how many times one of the arrays had to be replaced by a larger one.
+     */
+    public int getGrowCount() {
+        return mGrowCount;
+    }
+
+    /**
+     * This method returns how many Mat wrappers were created for single contours.
+     * It stays 0 while the native packer is used.
+     */
+    public long getWrapperCount() {
+        return mWrapperCount;
+    }
+
+    /**
+     * This method returns whether the native packer is loaded. The result of the first call is kept.
+     */
+    public static synchronized boolean isNativeAvailable() {
+        if (sNativeState == UNKNOWN) {
+            try {
+                nativeProbe();
+                sNativeState = AVAILABLE;
+            } catch (UnsatisfiedLinkError e) {
+                sNativeState = UNAVAILABLE;
+            }
+        }
+        return sNativeState == AVAILABLE;
+    }
+
+    /**
+     * This method closes the Mats kept between calls. The buffer can still be used afterwards.
+     */
+    public void release() {
+        if (mContoursMat != null) {
+            mContoursMat.close();
+            mContoursMat = null;
+        }
+        if (mHierarchyMat != null) {
+            mHierarchyMat.close();
+            mHierarchyMat = null;
+        }
+    }
+
+    /**
+     * Runs findContours with the native packer if it is loaded.
+     * @return false if the packer is not loaded and nothing was done
+     */
+    boolean findNative(Mat image, int mode, int method, int offsetX, int offsetY) {
+        if (!isNativeAvailable())
+            return false;
+        mGrowCount += nativeFindContours(image.nativeObj, mode, method, offsetX, offsetY, this);
+        return true;
+    }
+
+    long contoursNativeObj() {
+        if (mContoursMat == null)
+            mContoursMat = new Mat();
+        return mContoursMat.nativeObj;
+    }
+
+    long hierarchyNativeObj() {
+        if (mHierarchyMat == null)
+            mHierarchyMat = new Mat();
+        return mHierarchyMat.nativeObj;
+    }
+
+    /**
+     * Copies the vector of contour Mats written by the native findContours into the flat arrays.
+     * Every contour Mat is read with one bulk get and closed right away instead of being left to the finalizer.
+     */
+    void unpack() {
+        int n = mContoursMat.rows();
+        if (n > 0 && (CvType.CV_32SC2 != mContoursMat.type() || mContoursMat.cols() != 1))
+            throw new java.lang.IllegalArgumentException(
+                    "CvType.CV_32SC2 != m.type() ||  m.cols()!=1\n" + mContoursMat);
+
+        count = 0;
+        if (offsets.length < n + 1) {
+            offsets = new int[Math.max(n + 1, offsets.length * 2)];
+            mGrowCount++;
+        }
+        offsets[0] = 0;
+        if (n == 0)
+            return;
+
+        if (hierarchy.length < n * 4) {
+            hierarchy = new int[Math.max(n * 4, hierarchy.length * 2)];
+            mGrowCount++;
+        }
+        mHierarchyMat.get(0, 0, hierarchy);
+
+        if (mAddresses.length < n * 2)
+            mAddresses = new int[Math.max(n * 2, mAddresses.length * 2)];
+        mContoursMat.get(0, 0, mAddresses);
+
+        int used = 0;
+        for (int i = 0; i < n; i++) {
+            long addr = (((long) mAddresses[i * 2]) << 32) | (((long) mAddresses[i * 2 + 1]) & 0xffffffffL);
+            Mat contour = new Mat(addr);
+            int length = contour.rows() * 2;
+            if (mScratch.length < length)
+                mScratch = new int[Math.max(length, mScratch.length * 2)];
+            if (length > 0)
+                contour.get(0, 0, mScratch);
+            contour.close();
+            mWrapperCount++;
+
+            if (points.length < used + length) {
+                int[] grown = new int[Math.max(used + length, points.length * 2)];
+                System.arraycopy(points, 0, grown, 0, used);
+                points = grown;
+                mGrowCount++;
+            }
+            System.arraycopy(mScratch, 0, points, used, length);
+            used += length;
+            offsets[i + 1] = used / 2;
+        }
+        count = n;
+    }
+
+    private static native void nativeProbe();
+
+    // runs findContours on the image, replaces points, offsets and hierarchy by larger arrays if they are too short,
+    // fills them and sets count; returns how many arrays were replaced
+    private static native int nativeFindContours(long image, int mode, int method, int offsetX, int offsetY, ContourBuffer buffer);
+}
@@ -2100,7 +2100,7 @@ public class Imgproc {
         Mat contours_mat = new Mat();
         findContours_0(image.nativeObj, contours_mat.nativeObj, hierarchy.nativeObj, mode, method, offset.x, offset.y);
         Converters.Mat_to_vector_vector_Point(contours_mat, contours);
-        contours_mat.release();
+        contours_mat.close();
         return;
     }
 
@@ -2110,7 +2110,27 @@ public class Imgproc {
         Mat contours_mat = new Mat();
         findContours_1(image.nativeObj, contours_mat.nativeObj, hierarchy.nativeObj, mode, method);
         Converters.Mat_to_vector_vector_Point(contours_mat, contours);
-        contours_mat.release();
+        contours_mat.close();
+        return;
+    }
+
+    // manual port: contours and hierarchy as flat int arrays, see ContourBuffer
+    public static void findContours(Mat image, ContourBuffer contours, int mode, int method, Point offset)
+    {
+        if (contours.findNative(image, mode, method, (int) offset.x, (int) offset.y))
+            return;
+        findContours_0(image.nativeObj, contours.contoursNativeObj(), contours.hierarchyNativeObj(), mode, method, offset.x, offset.y);
+        contours.unpack();
+        return;
+    }
+
+    // manual port: contours and hierarchy as flat int arrays, see ContourBuffer
+    public static void findContours(Mat image, ContourBuffer contours, int mode, int method)
+    {
+        if (contours.findNative(image, mode, method, 0, 0))
+            return;
+        findContours_1(image.nativeObj, contours.contoursNativeObj(), contours.hierarchyNativeObj(), mode, method);
+        contours.unpack();
         return;
     }
 
@@ -259,12 +259,8 @@ public class Converters {
                     "CvType.CV_32SC2 != m.type() ||  m.cols()!=1\n" + m);
 
         mats.clear();
-        int[] buff = new int[count * 2];
-        m.get(0, 0, buff);
-        for (int i = 0; i < count; i++) {
-            long addr = (((long) buff[i * 2]) << 32) | (((long) buff[i * 2 + 1]) & 0xffffffffL);
+        for (long addr : Mat_to_addresses(m))
             mats.add(new Mat(addr));
-        }
     }
 
     public static Mat vector_float_to_Mat(List<Float> fs) {
@@ -496,14 +492,8 @@ public class Converters {
         if (m == null)
             throw new java.lang.IllegalArgumentException("Input Mat can't be null");
 
-        List<Mat> mats = new ArrayList<Mat>(m.rows());
-        Mat_to_vector_Mat(m, mats);
-        for (Mat mi : mats) {
-            MatOfPoint pt = new MatOfPoint(mi);
-            pts.add(pt);
-            mi.release();
-        }
-        mats.clear();
+        for (long addr : Mat_to_addresses(m))
+            pts.add(MatOfPoint.fromNativeAddr(addr));
     }
 
     // vector_vector_Point2f
@@ -514,14 +504,8 @@ public class Converters {
         if (m == null)
             throw new java.lang.IllegalArgumentException("Input Mat can't be null");
 
-        List<Mat> mats = new ArrayList<Mat>(m.rows());
-        Mat_to_vector_Mat(m, mats);
-        for (Mat mi : mats) {
-            MatOfPoint2f pt = new MatOfPoint2f(mi);
-            pts.add(pt);
-            mi.release();
-        }
-        mats.clear();
+        for (long addr : Mat_to_addresses(m))
+            pts.add(MatOfPoint2f.fromNativeAddr(addr));
     }
 
     // vector_vector_Point2f
@@ -546,14 +530,8 @@ public class Converters {
         if (m == null)
             throw new java.lang.IllegalArgumentException("Input Mat can't be null");
 
-        List<Mat> mats = new ArrayList<Mat>(m.rows());
-        Mat_to_vector_Mat(m, mats);
-        for (Mat mi : mats) {
-            MatOfPoint3f pt = new MatOfPoint3f(mi);
-            pts.add(pt);
-            mi.release();
-        }
-        mats.clear();
+        for (long addr : Mat_to_addresses(m))
+            pts.add(MatOfPoint3f.fromNativeAddr(addr));
     }
 
     // vector_vector_Point3f
@@ -591,14 +569,8 @@ public class Converters {
         if (m == null)
             throw new java.lang.IllegalArgumentException("Input Mat can't be null");
 
-        List<Mat> mats = new ArrayList<Mat>(m.rows());
-        Mat_to_vector_Mat(m, mats);
-        for (Mat mi : mats) {
-            MatOfKeyPoint vkp = new MatOfKeyPoint(mi);
-            kps.add(vkp);
-            mi.release();
-        }
-        mats.clear();
+        for (long addr : Mat_to_addresses(m))
+            kps.add(MatOfKeyPoint.fromNativeAddr(addr));
     }
 
     public static Mat vector_double_to_Mat(List<Double> ds) {
@@ -691,15 +663,9 @@ public class Converters {
         if (m == null)
             throw new java.lang.IllegalArgumentException("Input Mat can't be null");
 
-        List<Mat> mats = new ArrayList<Mat>(m.rows());
-        Mat_to_vector_Mat(m, mats);
         lvdm.clear();
-        for (Mat mi : mats) {
-            MatOfDMatch vdm = new MatOfDMatch(mi);
-            lvdm.add(vdm);
-            mi.release();
-        }
-        mats.clear();
+        for (long addr : Mat_to_addresses(m))
+            lvdm.add(MatOfDMatch.fromNativeAddr(addr));
     }
 
     // vector_vector_char
@@ -723,14 +689,230 @@ public class Converters {
         if (m == null)
             throw new java.lang.IllegalArgumentException("Input Mat can't be null");
 
-        List<Mat> mats = new ArrayList<Mat>(m.rows());
-        Mat_to_vector_Mat(m, mats);
-        for (Mat mi : mats) {
+        for (long addr : Mat_to_addresses(m)) {
+            Mat mi = new Mat(addr);
             List<Byte> lb = new ArrayList<Byte>();
             Mat_to_vector_char(mi, lb);
             llb.add(lb);
-            mi.release();
+            mi.close();
         }
-        mats.clear();
+    }
+
+    // manual port: primitive array overloads
+    //
+    // The List versions above box every element or create an object per point or rect.
+    // These take and return primitive arrays instead; points are packed as x, y and rects as x, y, width, height.
+    // The *_to_Mat overloads convert the first count elements of the array, so a reused array may be longer.
+    // The Mat_to_vector_* overloads write into the given array if it is long enough and otherwise
+    // return a new one of exactly the needed length; the element count is m.rows().
+    // Mat.put and Mat.get need packed arrays to hold whole points or rects, so their length must be a multiple of 2 or 4.
+
+    public static Mat vector_float_to_Mat(float[] fs) {
+        return vector_float_to_Mat(fs, (fs != null) ? fs.length : 0);
+    }
+
+    public static Mat vector_float_to_Mat(float[] fs, int count) {
+        Mat res = array_to_Mat(count, 1, (fs != null) ? fs.length : 0, CvType.CV_32FC1);
+        if (count > 0)
+            res.put(0, 0, fs);
+        return res;
+    }
+
+    public static float[] Mat_to_vector_float(Mat m, float[] fs) {
+        int length = Mat_to_array_length(m, CvType.CV_32FC1);
+        if (fs == null || fs.length < length)
+            fs = new float[length];
+        if (length > 0)
+            m.get(0, 0, fs);
+        return fs;
+    }
+
+    public static Mat vector_uchar_to_Mat(byte[] bs) {
+        return vector_uchar_to_Mat(bs, (bs != null) ? bs.length : 0);
+    }
+
+    public static Mat vector_uchar_to_Mat(byte[] bs, int count) {
+        Mat res = array_to_Mat(count, 1, (bs != null) ? bs.length : 0, CvType.CV_8UC1);
+        if (count > 0)
+            res.put(0, 0, bs);
+        return res;
+    }
+
+    public static byte[] Mat_to_vector_uchar(Mat m, byte[] us) {
+        int length = Mat_to_array_length(m, CvType.CV_8UC1);
+        if (us == null || us.length < length)
+            us = new byte[length];
+        if (length > 0)
+            m.get(0, 0, us);
+        return us;
+    }
+
+    public static Mat vector_char_to_Mat(byte[] bs) {
+        return vector_char_to_Mat(bs, (bs != null) ? bs.length : 0);
+    }
+
+    public static Mat vector_char_to_Mat(byte[] bs, int count) {
+        Mat res = array_to_Mat(count, 1, (bs != null) ? bs.length : 0, CvType.CV_8SC1);
+        if (count > 0)
+            res.put(0, 0, bs);
+        return res;
+    }
+
+    public static byte[] Mat_to_vector_char(Mat m, byte[] bs) {
+        int length = Mat_to_array_length(m, CvType.CV_8SC1);
+        if (bs == null || bs.length < length)
+            bs = new byte[length];
+        if (length > 0)
+            m.get(0, 0, bs);
+        return bs;
+    }
+
+    public static Mat vector_int_to_Mat(int[] is) {
+        return vector_int_to_Mat(is, (is != null) ? is.length : 0);
+    }
+
+    public static Mat vector_int_to_Mat(int[] is, int count) {
+        Mat res = array_to_Mat(count, 1, (is != null) ? is.length : 0, CvType.CV_32SC1);
+        if (count > 0)
+            res.put(0, 0, is);
+        return res;
+    }
+
+    public static int[] Mat_to_vector_int(Mat m, int[] is) {
+        int length = Mat_to_array_length(m, CvType.CV_32SC1);
+        if (is == null || is.length < length)
+            is = new int[length];
+        if (length > 0)
+            m.get(0, 0, is);
+        return is;
+    }
+
+    public static Mat vector_double_to_Mat(double[] ds) {
+        return vector_double_to_Mat(ds, (ds != null) ? ds.length : 0);
+    }
+
+    public static Mat vector_double_to_Mat(double[] ds, int count) {
+        Mat res = array_to_Mat(count, 1, (ds != null) ? ds.length : 0, CvType.CV_64FC1);
+        if (count > 0)
+            res.put(0, 0, ds);
+        return res;
+    }
+
+    public static double[] Mat_to_vector_double(Mat m, double[] ds) {
+        int length = Mat_to_array_length(m, CvType.CV_64FC1);
+        if (ds == null || ds.length < length)
+            ds = new double[length];
+        if (length > 0)
+            m.get(0, 0, ds);
+        return ds;
+    }
+
+    public static Mat vector_Point_to_Mat(int[] xy, int count) {
+        Mat res = array_to_Mat(count, 2, (xy != null) ? xy.length : 0, CvType.CV_32SC2);
+        if (count > 0)
+            res.put(0, 0, xy);
+        return res;
+    }
+
+    public static int[] Mat_to_vector_Point(Mat m, int[] xy) {
+        int length = Mat_to_array_length(m, CvType.CV_32SC2);
+        if (xy == null || xy.length < length || xy.length % 2 != 0)
+            xy = new int[length];
+        if (length > 0)
+            m.get(0, 0, xy);
+        return xy;
+    }
+
+    public static Mat vector_Point2f_to_Mat(float[] xy, int count) {
+        Mat res = array_to_Mat(count, 2, (xy != null) ? xy.length : 0, CvType.CV_32FC2);
+        if (count > 0)
+            res.put(0, 0, xy);
+        return res;
+    }
+
+    public static float[] Mat_to_vector_Point2f(Mat m, float[] xy) {
+        int length = Mat_to_array_length(m, CvType.CV_32FC2);
+        if (xy == null || xy.length < length || xy.length % 2 != 0)
+            xy = new float[length];
+        if (length > 0)
+            m.get(0, 0, xy);
+        return xy;
+    }
+
+    public static Mat vector_Point2d_to_Mat(double[] xy, int count) {
+        Mat res = array_to_Mat(count, 2, (xy != null) ? xy.length : 0, CvType.CV_64FC2);
+        if (count > 0)
+            res.put(0, 0, xy);
+        return res;
+    }
+
+    public static double[] Mat_to_vector_Point2d(Mat m, double[] xy) {
+        int length = Mat_to_array_length(m, CvType.CV_64FC2);
+        if (xy == null || xy.length < length || xy.length % 2 != 0)
+            xy = new double[length];
+        if (length > 0)
+            m.get(0, 0, xy);
+        return xy;
+    }
+
+    public static Mat vector_Rect_to_Mat(int[] xywh, int count) {
+        Mat res = array_to_Mat(count, 4, (xywh != null) ? xywh.length : 0, CvType.CV_32SC4);
+        if (count > 0)
+            res.put(0, 0, xywh);
+        return res;
+    }
+
+    public static int[] Mat_to_vector_Rect(Mat m, int[] xywh) {
+        int length = Mat_to_array_length(m, CvType.CV_32SC4);
+        if (xywh == null || xywh.length < length || xywh.length % 4 != 0)
+            xywh = new int[length];
+        if (length > 0)
+            m.get(0, 0, xywh);
+        return xywh;
+    }
+
+    /**
+     * Creates the Mat for count elements of the given type, after checking that the array holds them.
+     * Mat.put copies only as many values as the Mat holds, so the array may be longer.
+     */
+    private static Mat array_to_Mat(int count, int channels, int arrayLength, int type) {
+        if (count < 0 || count * channels > arrayLength || arrayLength % channels != 0)
+            throw new java.lang.IllegalArgumentException(
+                    "Array of " + arrayLength + " values can't hold " + count + " elements of " + channels + " values");
+        return (count > 0) ? new Mat(count, 1, type) : new Mat();
+    }
+
+    /**
+     * Checks the type of a single-column Mat and returns the number of values it holds.
+     */
+    private static int Mat_to_array_length(Mat m, int type) {
+        if (m == null)
+            throw new java.lang.IllegalArgumentException("Input Mat can't be null");
+        if (m.empty())
+            return 0;
+        if (type != m.type() || m.cols() != 1)
+            throw new java.lang.IllegalArgumentException(
+                    CvType.typeToString(type) + " != m.type() ||  m.cols()!=1\n" + m);
+        return m.rows() * CvType.channels(type);
+    }
+
+    /**
+     * Reads the native cv::Mat addresses stored by vector_Mat_to_Mat.
+     * The caller takes ownership of every address and must wrap it in a Mat. The vector_vector conversions
+     * wrap each one directly in its MatOf* type, without a temporary Mat header and List&lt;Mat&gt; in between.
+     */
+    private static long[] Mat_to_addresses(Mat m) {
+        int count = m.rows();
+        if (CvType.CV_32SC2 != m.type() || m.cols() != 1)
+            throw new java.lang.IllegalArgumentException(
+                    "CvType.CV_32SC2 != m.type() ||  m.cols()!=1\n" + m);
+
+        int[] buff = new int[count * 2];
+        if (count > 0)
+            m.get(0, 0, buff);
+        long[] addrs = new long[count];
+        for (int i = 0; i < count; i++)
+            addrs[i] = (((long) buff[i * 2]) << 32) | (((long) buff[i * 2 + 1]) & 0xffffffffL);
+        return addrs;
     }
 }
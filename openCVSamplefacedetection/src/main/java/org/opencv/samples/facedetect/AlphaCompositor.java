@@ -0,0 +1,184 @@
+package org.opencv.samples.facedetect;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * 乗算済みアルファ (premultiplied alpha) の RGBA 画像を RGBA のフレームに直接合成する
+ * dst = src + dst * (255 - alpha) / 255 を指定した矩形の中だけ１回の走査で計算する。
+ *
+ * detection_based_tracker ライブラリが読み込まれていればネイティブ実装を使い、
+ * なければ (デスクトップの JVM など) Java で同じ計算をする。
+ * Java 実装は合成する範囲の幅 (SPAN_STEP 単位で切り上げ) だけを行ごとに読み書きする。
+ * 行バッファはその幅が変わったときだけ確保し直す。
+ */
+public class AlphaCompositor {
+
+    private static final int UNKNOWN = 0;
+    private static final int AVAILABLE = 1;
+    private static final int UNAVAILABLE = 2;
+    private static int sNativeState = UNKNOWN;
+
+    /** 行バッファの幅をそろえる単位 [px]。幅が少し変わるたびに確保し直さないため */
+    private static final int SPAN_STEP = 16;
+
+    private boolean mUseNative = true;
+    private byte[] mDstRow = new byte[0];
+    private byte[] mSrcRow = new byte[0];
+    private long mCompositedPixels = 0;
+    private long mBufferAllocations = 0;
+
+    /**
+     * ネイティブ実装を使うかどうか。使えない場合は true にしても Java 実装になる
+     * @param useNative
+     */
+    public void setNativeEnabled(boolean useNative) {
+        mUseNative = useNative;
+    }
+
+    public boolean isNativeEnabled() {
+        return mUseNative && isNativeAvailable();
+    }
+
+    /**
+     * 合成した画素数の累計
+     */
+    public long getCompositedPixels() {
+        return mCompositedPixels;
+    }
+
+    /**
+     * 行バッファを確保した回数
+     */
+    public long getBufferAllocationCount() {
+        return mBufferAllocations;
+    }
+
+    private static synchronized boolean isNativeAvailable() {
+        if (sNativeState == UNKNOWN) {
+            try {
+                nativeProbe();
+                sNativeState = AVAILABLE;
+            } catch (UnsatisfiedLinkError e) {
+                sNativeState = UNAVAILABLE;
+            }
+        }
+        return sNativeState == AVAILABLE;
+    }
+
+    /**
+     * RGBA 画像の色をアルファで乗算する (画像の読み込み時に１回だけ行う)
+     * @param src RGBA
+     * @param dst src と同じ大きさの RGBA (乗算済み)
+     */
+    public static void premultiply(Mat src, Mat dst) {
+        checkRgba(src);
+        Mat continuous = src.isContinuous() ? src : src.clone();
+        byte[] buf = new byte[(int) continuous.total() * 4];
+        continuous.get(0, 0, buf);
+        for (int i = 0; i < buf.length; i += 4) {
+            int a = buf[i + 3] & 0xff;
+            buf[i] = (byte) div255((buf[i] & 0xff) * a);
+            buf[i + 1] = (byte) div255((buf[i + 1] & 0xff) * a);
+            buf[i + 2] = (byte) div255((buf[i + 2] & 0xff) * a);
+        }
+        if (continuous != src) {
+            continuous.close();
+        }
+        dst.create(src.rows(), src.cols(), CvType.CV_8UC4);
+        dst.put(0, 0, buf);
+    }
+
+    /**
+     * src の (srcX, srcY) から width x height の範囲を dst の (dstX, dstY) に合成する
+     * @param dst RGBA のフレーム (書き換える)
+     * @param dstX
+     * @param dstY
+     * @param src 乗算済みアルファの RGBA
+     * @param srcX
+     * @param srcY
+     * @param width
+     * @param height
+     */
+    public void composite(Mat dst, int dstX, int dstY, Mat src, int srcX, int srcY, int width, int height) {
+        checkRgba(dst);
+        checkRgba(src);
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        if (dstX < 0 || dstY < 0 || dstX + width > dst.cols() || dstY + height > dst.rows()
+                || srcX < 0 || srcY < 0 || srcX + width > src.cols() || srcY + height > src.rows()) {
+            throw new IllegalArgumentException("Composite rectangle is out of image bounds");
+        }
+
+        if (isNativeEnabled()) {
+            nativeComposite(dst.getNativeObjAddr(), dstX, dstY, src.getNativeObjAddr(), srcX, srcY, width, height);
+        } else {
+            compositeJava(dst, dstX, dstY, src, srcX, srcY, width, height);
+        }
+        mCompositedPixels += (long) width * height;
+    }
+
+    private void compositeJava(Mat dst, int dstX, int dstY, Mat src, int srcX, int srcY, int width, int height) {
+        // Mat.get/put は配列の長さ分だけ読み書きするので、合成する範囲を含む行の一部の長さのバッファを使う
+        int span = (width + SPAN_STEP - 1) / SPAN_STEP * SPAN_STEP;
+        int dstSpan = Math.min(span, dst.cols());
+        int srcSpan = Math.min(span, src.cols());
+        if (mDstRow.length != dstSpan * 4) {
+            mDstRow = new byte[dstSpan * 4];
+            mBufferAllocations++;
+        }
+        if (mSrcRow.length != srcSpan * 4) {
+            mSrcRow = new byte[srcSpan * 4];
+            mBufferAllocations++;
+        }
+        // 切り上げた分が行からはみ出さないように、読み書きする範囲の左端をずらす
+        int dstX0 = Math.min(dstX, dst.cols() - dstSpan);
+        int srcX0 = Math.min(srcX, src.cols() - srcSpan);
+
+        byte[] d = mDstRow;
+        byte[] s = mSrcRow;
+        for (int row = 0; row < height; row++) {
+            dst.get(dstY + row, dstX0, d);
+            src.get(srcY + row, srcX0, s);
+            int di = (dstX - dstX0) * 4;
+            int si = (srcX - srcX0) * 4;
+            for (int col = 0; col < width; col++, di += 4, si += 4) {
+                int a = s[si + 3] & 0xff;
+                if (a == 0) {
+                    continue;
+                }
+                if (a == 255) {
+                    d[di] = s[si];
+                    d[di + 1] = s[si + 1];
+                    d[di + 2] = s[si + 2];
+                    d[di + 3] = s[si + 3];
+                    continue;
+                }
+                int ia = 255 - a;
+                d[di] = (byte) Math.min(255, (s[si] & 0xff) + div255((d[di] & 0xff) * ia));
+                d[di + 1] = (byte) Math.min(255, (s[si + 1] & 0xff) + div255((d[di + 1] & 0xff) * ia));
+                d[di + 2] = (byte) Math.min(255, (s[si + 2] & 0xff) + div255((d[di + 2] & 0xff) * ia));
+                d[di + 3] = (byte) Math.min(255, a + div255((d[di + 3] & 0xff) * ia));
+            }
+            dst.put(dstY + row, dstX0, d);
+        }
+    }
+
+    /**
+     * x / 255 を四捨五入で求める (0 <= x <= 255 * 255)
+     */
+    static int div255(int x) {
+        x += 128;
+        return (x + (x >> 8)) >> 8;
+    }
+
+    private static void checkRgba(Mat m) {
+        if (m.type() != CvType.CV_8UC4) {
+            throw new IllegalArgumentException("CV_8UC4 Mat is expected: " + m);
+        }
+    }
+
+    private static native void nativeProbe();
+    private static native void nativeComposite(long dst, int dstX, int dstY, long src, int srcX, int srcY, int width, int height);
+}
@@ -0,0 +1,243 @@
+package org.opencv.samples.facedetect;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
+import org.opencv.core.RotatedRect;
+import org.opencv.imgproc.ContourBuffer;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * エッジ画像から目の候補を取り出す
+ * findContours → 外側の輪郭ごとに minAreaRect → １つの目の条件 (面積と縦横比) までを行い、
+ * 残った候補を (cx, cy, w, h, angle) を並べた１つの float[] で返す。
+ *
+ * detection_based_tracker ライブラリが読み込まれていれば１回のネイティブ呼び出しで全部行うので、
+ * 輪郭ごとの MatOfPoint や RotatedRect が作られず、JNI の呼び出しも１回で済む。
+ * なければ (デスクトップの JVM など) Java ラッパーを使って同じことをする。
+ */
+public class CandidateExtractor {
+
+    /** １つの候補の要素数 (cx, cy, w, h, angle) */
+    public static final int FIELDS = 5;
+
+    private static final int UNKNOWN = 0;
+    private static final int AVAILABLE = 1;
+    private static final int UNAVAILABLE = 2;
+    private static int sNativeState = UNKNOWN;
+
+    private boolean mUseNative = true;
+    private float[] mPacked = new float[0];
+    private final int[] mNativeCounts = new int[2];
+    private int mCount = 0;
+
+    // Java 実装の作業領域
+    private final ContourBuffer mContours = new ContourBuffer();
+    private MatOfPoint2f mContour2f;
+    private float[] mContourBuf = new float[0];
+    private int mContourGrowCount = 0;
+    private long mContourWrapperCount = 0;
+
+    // 統計
+    private long mContourCount = 0;
+    private long mBufferAllocations = 0;
+    private long mBindingAllocations = 0;
+
+    /**
+     * ネイティブ実装を使うかどうか。使えない場合は true にしても Java 実装になる
+     * @param useNative
+     */
+    public void setNativeEnabled(boolean useNative) {
+        mUseNative = useNative;
+    }
+
+    public boolean isNativeEnabled() {
+        return mUseNative && isNativeAvailable();
+    }
+
+    private static synchronized boolean isNativeAvailable() {
+        if (sNativeState == UNKNOWN) {
+            try {
+                nativeProbe();
+                sNativeState = AVAILABLE;
+            } catch (UnsatisfiedLinkError e) {
+                sNativeState = UNAVAILABLE;
+            }
+        }
+        return sNativeState == AVAILABLE;
+    }
+
+    /**
+     * エッジ画像から目の候補を取り出す。edges は書き換えられる
+     * @param edges Canny の出力
+     * @param offset 輪郭の座標に足す値 (部分画像を調べるとき)
+     * @param scale offset を足した後に掛ける倍率 (縮小した画像を調べるとき)
+     * @param minArea scale を掛けた後の面積の下限
+     * @param maxArea 面積の上限
+     * @param minAspect 長辺 / 短辺 の下限
+     * @param maxAspect 長辺 / 短辺 の上限
+     * @return 候補の数。中身は getPacked() か get() で取り出す
+     */
+    public int extract(Mat edges, Point offset, double scale,
+                       double minArea, double maxArea, double minAspect, double maxAspect) {
+        if (isNativeEnabled()) {
+            float[] packed = nativeExtract(edges.getNativeObjAddr(), (int) offset.x, (int) offset.y, scale,
+                    minArea, maxArea, minAspect, maxAspect, mPacked, mNativeCounts);
+            if (packed != mPacked) {
+                mPacked = packed;
+                mBufferAllocations++;
+            }
+            mCount = mNativeCounts[0];
+            mContourCount += mNativeCounts[1];
+        } else {
+            extractJava(edges, offset, scale, minArea, maxArea, minAspect, maxAspect);
+        }
+        return mCount;
+    }
+
+    /**
+     * 候補を (cx, cy, w, h, angle) の順に並べた配列。長さは getCount() * FIELDS 以上
+     * 次の extract() で上書きされる
+     */
+    public float[] getPacked() {
+        return mPacked;
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * i 番目の候補を out に書き込む
+     */
+    public void get(int i, RotatedRect out) {
+        int p = i * FIELDS;
+        out.center.x = mPacked[p];
+        out.center.y = mPacked[p + 1];
+        out.size.width = mPacked[p + 2];
+        out.size.height = mPacked[p + 3];
+        out.angle = mPacked[p + 4];
+    }
+
+    /**
+     * これまでに調べた外側の輪郭の数
+     */
+    public long getContourCount() {
+        return mContourCount;
+    }
+
+    /**
+     * 候補の配列などを確保した回数
+     */
+    public long getBufferAllocationCount() {
+        return mBufferAllocations;
+    }
+
+    /**
+     * Java 実装で OpenCV の Java ラッパーが確保したオブジェクトの数
+     * (findContours の輪郭ごとの Mat、minAreaRect の RotatedRect)
+     */
+    public long getBindingAllocationCount() {
+        return mBindingAllocations;
+    }
+
+    /**
+     * Java 実装の作業領域を解放する
+     */
+    public void release() {
+        mContours.release();
+        if (mContour2f != null) {
+            mContour2f.close();
+            mContour2f = null;
+        }
+        mCount = 0;
+    }
+
+    private void extractJava(Mat edges, Point offset, double scale,
+                             double minArea, double maxArea, double minAspect, double maxAspect) {
+        if (mContour2f == null) {
+            mContour2f = new MatOfPoint2f();
+            mBufferAllocations++;
+        }
+        mCount = 0;
+
+        // 輪郭と階層は ContourBuffer の int[] にまとめて受け取る (輪郭ごとの MatOfPoint を作らない)
+        // TODO 階層関係使ってないのでRETR_LISTで十分
+        Imgproc.findContours(edges, mContours, Imgproc.RETR_CCOMP, Imgproc.CHAIN_APPROX_SIMPLE, offset);
+        // 輪郭ごとの Mat のラッパーはネイティブの詰め込みが使えないときだけ作られる
+        mBindingAllocations += mContours.getWrapperCount() - mContourWrapperCount;
+        mContourWrapperCount = mContours.getWrapperCount();
+        mBufferAllocations += mContours.getGrowCount() - mContourGrowCount;
+        mContourGrowCount = mContours.getGrowCount();
+        if (mContours.count == 0) {
+            return;
+        }
+        int[] points = mContours.points;
+        int[] hierarchy = mContours.hierarchy;
+
+        for (int idx = 0; idx >= 0; idx = hierarchy[idx * 4]) {
+            mContourCount++;
+            // API的にFloat型に変換する
+            int start = mContours.offsets[idx] * 2;
+            int n = mContours.pointCount(idx);
+            if (mContourBuf.length < n * 2) {
+                mContourBuf = new float[Math.max(n * 2, mContourBuf.length * 2)];
+                mBufferAllocations++;
+            }
+            for (int k = 0; k < n * 2; k++) {
+                mContourBuf[k] = points[start + k];
+            }
+            mContour2f.create(n, 1, CvType.CV_32FC2);
+            mContour2f.put(0, 0, mContourBuf);
+            RotatedRect bbox = Imgproc.minAreaRect(mContour2f); // 回転を考慮した外接矩形
+            mBindingAllocations++;
+
+            double width = bbox.size.width * scale;
+            double height = bbox.size.height * scale;
+            if (!isEye(width, height, minArea, maxArea, minAspect, maxAspect)) {
+                continue;
+            }
+            int p = mCount * FIELDS;
+            if (p + FIELDS > mPacked.length) {
+                float[] grown = new float[Math.max(16 * FIELDS, mPacked.length * 2)];
+                System.arraycopy(mPacked, 0, grown, 0, p);
+                mPacked = grown;
+                mBufferAllocations++;
+            }
+            mPacked[p] = (float) (bbox.center.x * scale);
+            mPacked[p + 1] = (float) (bbox.center.y * scale);
+            mPacked[p + 2] = (float) width;
+            mPacked[p + 3] = (float) height;
+            mPacked[p + 4] = (float) bbox.angle;
+            mCount++;
+        }
+    }
+
+    /**
+     * 目の条件を満たしているか調べる。１つの目だけの条件 (ネイティブ実装と同じ)
+     */
+    static boolean isEye(double width, double height,
+                         double minArea, double maxArea, double minAspect, double maxAspect) {
+        double area = width * height;
+        if (area < minArea || area > maxArea) {
+            return false;
+        }
+        double aspect = Math.max(width, height) / Math.min(width, height);
+        if (aspect < minAspect || aspect > maxAspect) {
+            return false;
+        }
+        return true;
+    }
+
+    private static native void nativeProbe();
+
+    /**
+     * @param buffer 候補を書き込む配列。足りなければ新しく確保して返す
+     * @param counts [0] に候補の数、[1] に調べた外側の輪郭の数を書き込む
+     * @return 候補を書き込んだ配列
+     */
+    private static native float[] nativeExtract(long edges, int offsetX, int offsetY, double scale,
+                                                double minArea, double maxArea, double minAspect, double maxAspect,
+                                                float[] buffer, int[] counts);
+}
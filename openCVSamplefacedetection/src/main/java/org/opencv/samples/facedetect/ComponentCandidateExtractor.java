@@ -0,0 +1,148 @@
+package org.opencv.samples.facedetect;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.RotatedRect;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * 二値画像の連結成分から目の候補を取り出す (CandidateExtractor の代わり)
+ * Otsu の二値化で目の穴はすでに塊になっているので、Canny と findContours を使わずに
+ * connectedComponentsWithStats の１回の呼び出しで全部の塊の外接矩形・面積・重心を求める。
+ *
+ * 外接矩形は軸に平行なので、候補の角度は 0 になる。
+ * 傾いた目は外接矩形が大きくなるので、塊の画素数が外接矩形に占める割合でも絞り込む。
+ * 候補は CandidateExtractor と同じ (cx, cy, w, h, angle) の並びで返す。
+ */
+public class ComponentCandidateExtractor {
+
+    /** 塊の画素数 / 外接矩形の面積 の下限。穴はほぼ長方形なので 1 に近い */
+    private static final double MIN_FILL_RATIO = 0.6;
+    private static final int CONNECTIVITY = 8;
+
+    private Mat mLabels;
+    private Mat mStats;
+    private Mat mCentroids;
+    private int[] mStatsBuf = new int[0];
+    private double[] mCentroidsBuf = new double[0];
+    private float[] mPacked = new float[0];
+    private int mCount = 0;
+
+    // 統計
+    private long mComponentCount = 0;
+    private long mBufferAllocations = 0;
+
+    /**
+     * 二値画像から目の候補を取り出す
+     * @param binary 目の穴が白の二値画像 (THRESH_BINARY_INV の出力)
+     * @param offset 座標に足す値 (部分画像を調べるとき)
+     * @param scale offset を足した後に掛ける倍率 (縮小した画像を調べるとき)
+     * @param minArea scale を掛けた後の面積の下限
+     * @param maxArea 面積の上限
+     * @param minAspect 長辺 / 短辺 の下限
+     * @param maxAspect 長辺 / 短辺 の上限
+     * @return 候補の数。中身は getPacked() か get() で取り出す
+     */
+    public int extract(Mat binary, Point offset, double scale,
+                       double minArea, double maxArea, double minAspect, double maxAspect) {
+        if (mLabels == null) {
+            mLabels = new Mat();
+            mStats = new Mat();
+            mCentroids = new Mat();
+            mBufferAllocations += 3;
+        }
+        mCount = 0;
+        int labels = Imgproc.connectedComponentsWithStats(binary, mLabels, mStats, mCentroids, CONNECTIVITY, CvType.CV_32S);
+        if (labels <= 1) {
+            return 0;
+        }
+        // 統計と重心はまとめて読む (ラベル 0 は背景)
+        if (mStatsBuf.length < labels * Imgproc.CC_STAT_MAX) {
+            mStatsBuf = new int[Math.max(labels * Imgproc.CC_STAT_MAX, mStatsBuf.length * 2)];
+            mCentroidsBuf = new double[mStatsBuf.length / Imgproc.CC_STAT_MAX * 2];
+            mBufferAllocations += 2;
+        }
+        mStats.get(0, 0, mStatsBuf);
+        mCentroids.get(0, 0, mCentroidsBuf);
+        mComponentCount += labels - 1;
+
+        for (int label = 1; label < labels; label++) {
+            int s = label * Imgproc.CC_STAT_MAX;
+            int w = mStatsBuf[s + Imgproc.CC_STAT_WIDTH];
+            int h = mStatsBuf[s + Imgproc.CC_STAT_HEIGHT];
+            if (mStatsBuf[s + Imgproc.CC_STAT_AREA] < MIN_FILL_RATIO * w * h) {
+                continue;
+            }
+            double width = w * scale;
+            double height = h * scale;
+            if (!CandidateExtractor.isEye(width, height, minArea, maxArea, minAspect, maxAspect)) {
+                continue;
+            }
+            int p = mCount * CandidateExtractor.FIELDS;
+            if (p + CandidateExtractor.FIELDS > mPacked.length) {
+                float[] grown = new float[Math.max(16 * CandidateExtractor.FIELDS, mPacked.length * 2)];
+                System.arraycopy(mPacked, 0, grown, 0, p);
+                mPacked = grown;
+                mBufferAllocations++;
+            }
+            mPacked[p] = (float) ((mCentroidsBuf[label * 2] + offset.x) * scale);
+            mPacked[p + 1] = (float) ((mCentroidsBuf[label * 2 + 1] + offset.y) * scale);
+            mPacked[p + 2] = (float) width;
+            mPacked[p + 3] = (float) height;
+            mPacked[p + 4] = 0;
+            mCount++;
+        }
+        return mCount;
+    }
+
+    /**
+     * 候補を (cx, cy, w, h, angle) の順に並べた配列。長さは getCount() * FIELDS 以上
+     * 次の extract() で上書きされる
+     */
+    public float[] getPacked() {
+        return mPacked;
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * i 番目の候補を out に書き込む
+     */
+    public void get(int i, RotatedRect out) {
+        int p = i * CandidateExtractor.FIELDS;
+        out.center.x = mPacked[p];
+        out.center.y = mPacked[p + 1];
+        out.size.width = mPacked[p + 2];
+        out.size.height = mPacked[p + 3];
+        out.angle = mPacked[p + 4];
+    }
+
+    /**
+     * これまでに調べた連結成分 (背景を除く) の数
+     */
+    public long getComponentCount() {
+        return mComponentCount;
+    }
+
+    /**
+     * 候補の配列などを確保した回数
+     */
+    public long getBufferAllocationCount() {
+        return mBufferAllocations;
+    }
+
+    public void release() {
+        if (mLabels != null) {
+            mLabels.close();
+            mStats.close();
+            mCentroids.close();
+            mLabels = null;
+            mStats = null;
+            mCentroids = null;
+        }
+        mCount = 0;
+    }
+}
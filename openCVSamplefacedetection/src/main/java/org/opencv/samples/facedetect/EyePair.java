@@ -0,0 +1,17 @@
+package org.opencv.samples.facedetect;
+
+import org.opencv.core.RotatedRect;
+
+/**
+ * コンセントの２つの穴 (目) の組
+ * フレーム毎に作り直さずに使い回す
+ */
+public class EyePair {
+    public RotatedRect first;
+    public RotatedRect second;
+
+    public void set(RotatedRect rr1, RotatedRect rr2) {
+        first = rr1;
+        second = rr2;
+    }
+}
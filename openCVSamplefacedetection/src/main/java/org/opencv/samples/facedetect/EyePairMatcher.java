@@ -0,0 +1,386 @@
+package org.opencv.samples.facedetect;
+
+import org.opencv.core.RotatedRect;
+import org.opencv.core.RotatedRectBuffer;
+
+/**
+ * 目の候補から、コンセントの目のペアを探す
+ * 候補を目の間隔 (短辺の5倍) を大きさにした格子に振り分けて、近くの格子の候補だけを比べる。
+ * 候補は RotatedRectBuffer の配列で受け取り、４隅は最初に１回だけ計算する。
+ * ペアは順番を区別せずに１回だけ作る。
+ * 重なったペアは一番条件に合うものだけを残す (non-maximum suppression)。
+ *
+ * 配列は使い回すので、候補の数が増えたときだけ確保する。
+ */
+public class EyePairMatcher {
+
+    /** 格子の１辺のセル数の上限。候補が広く散らばっていても格子が大きくなりすぎないようにする */
+    private static final int MAX_GRID_SIZE = 64;
+
+    // 候補 (RotatedRect[] で渡されたときは mOwnRects に詰め替える)
+    private final RotatedRectBuffer mOwnRects = new RotatedRectBuffer();
+    private int mCount = 0;
+    private double[] mCenterX;
+    private double[] mCenterY;
+    private double[] mWidth;
+    private double[] mHeight;
+    private double[] mAngle;
+
+    // 候補ごとの前計算 (４隅、目の間隔の理想値)
+    private double[] mCorners = new double[0];
+    private double[] mExpected = new double[0];
+
+    // 格子 (セルごとの候補の番号を counting sort で並べる)
+    private int[] mCellOf = new int[0];
+    private int[] mCellStart = new int[0];
+    private int[] mCellItems = new int[0];
+    private int mGridWidth;
+    private int mGridHeight;
+    private double mCellSize;
+    private double mOriginX;
+    private double mOriginY;
+
+    // 条件を満たしたペア
+    private int mRawCount = 0;
+    private int[] mRawFirst = new int[0];
+    private int[] mRawSecond = new int[0];
+    private double[] mRawScore = new double[0];
+    private int[] mOrder = new int[0];
+    private boolean[] mSuppressed = new boolean[0];
+    private boolean mSuppression = true;
+
+    // 重なりをまとめた結果 (スコアの良い順)
+    private int mPairCount = 0;
+    private int[] mFirst = new int[0];
+    private int[] mSecond = new int[0];
+    private double[] mScore = new double[0];
+
+    private long mComparisons = 0;
+    private long mAllocations = 0;
+
+    /**
+     * 重なったペアを１つにまとめるかどうか
+     */
+    public void setSuppression(boolean suppression) {
+        mSuppression = suppression;
+    }
+
+    public boolean isSuppression() {
+        return mSuppression;
+    }
+
+    /**
+     * 目のペアを探す
+     * @param candidates 目の候補
+     * @param count 候補の数
+     * @return 見つけたペアの数。getFirst() と getSecond() で候補の番号を返す
+     */
+    public int match(RotatedRect[] candidates, int count) {
+        mOwnRects.set(candidates, count);
+        return match(mOwnRects);
+    }
+
+    /**
+     * 目のペアを探す
+     * @param candidates 目の候補。getFirst() と getSecond() はこの中の番号を返す
+     * @return 見つけたペアの数
+     */
+    public int match(RotatedRectBuffer candidates) {
+        prepare(candidates);
+        int count = mCount;
+        mRawCount = 0;
+        mPairCount = 0;
+        if (count < 2) {
+            return 0;
+        }
+        buildGrid();
+
+        for (int i = 0; i < count; i++) {
+            int cx = (int) ((mCenterX[i] - mOriginX) / mCellSize);
+            int cy = (int) ((mCenterY[i] - mOriginY) / mCellSize);
+            for (int gy = Math.max(0, cy - 1); gy <= Math.min(mGridHeight - 1, cy + 1); gy++) {
+                for (int gx = Math.max(0, cx - 1); gx <= Math.min(mGridWidth - 1, cx + 1); gx++) {
+                    int cell = gy * mGridWidth + gx;
+                    for (int k = mCellStart[cell]; k < mCellStart[cell + 1]; k++) {
+                        int j = mCellItems[k];
+                        if (j > i) {
+                            testPair(i, j);
+                        }
+                    }
+                }
+            }
+        }
+
+        suppress();
+        return mPairCount;
+    }
+
+    /**
+     * 格子を使わずに全部の組み合わせを比べる (比較用)
+     */
+    int matchBruteForce(RotatedRect[] candidates, int count) {
+        mOwnRects.set(candidates, count);
+        prepare(mOwnRects);
+        mRawCount = 0;
+        for (int i = 0; i < count; i++) {
+            for (int j = i + 1; j < count; j++) {
+                testPair(i, j);
+            }
+        }
+        suppress();
+        return mPairCount;
+    }
+
+    public int getFirst(int pair) {
+        return mFirst[pair];
+    }
+
+    public int getSecond(int pair) {
+        return mSecond[pair];
+    }
+
+    /**
+     * ペアの条件からのずれ。小さいほど良い
+     */
+    public double getScore(int pair) {
+        return mScore[pair];
+    }
+
+    /**
+     * ２つの候補の条件を調べた回数
+     */
+    public long getComparisonCount() {
+        return mComparisons;
+    }
+
+    /**
+     * 配列を確保した回数。候補の数の最大値が増えたときだけ増える
+     */
+    public long getAllocationCount() {
+        return mAllocations + mOwnRects.getGrowCount() * 5;
+    }
+
+    private void prepare(RotatedRectBuffer rects) {
+        int count = rects.size();
+        ensureCandidateCapacity(count);
+        mCount = count;
+        mCenterX = rects.centerX;
+        mCenterY = rects.centerY;
+        mWidth = rects.width;
+        mHeight = rects.height;
+        mAngle = rects.angle;
+        // ４隅の平均は中心と同じなので、重心は中心をそのまま使う
+        rects.corners(mCorners);
+        for (int i = 0; i < count; i++) {
+            mExpected[i] = Math.min(mWidth[i], mHeight[i]) * 5;
+        }
+    }
+
+    /**
+     * セルの大きさは、一番大きい候補のペアが離れうる距離 (理想の間隔 / 0.7)
+     * こうすると、ペアになりうる候補は隣り合う 3x3 のセルに必ず入る
+     */
+    private void buildGrid() {
+        int count = mCount;
+        double minX = mCenterX[0];
+        double minY = mCenterY[0];
+        double maxX = minX;
+        double maxY = minY;
+        double maxReach = 0;
+        for (int i = 0; i < count; i++) {
+            minX = Math.min(minX, mCenterX[i]);
+            minY = Math.min(minY, mCenterY[i]);
+            maxX = Math.max(maxX, mCenterX[i]);
+            maxY = Math.max(maxY, mCenterY[i]);
+            maxReach = Math.max(maxReach, mExpected[i] / 0.7);
+        }
+        double extent = Math.max(maxX - minX, maxY - minY);
+        mCellSize = Math.max(Math.max(maxReach, 1), extent / MAX_GRID_SIZE);
+        mOriginX = minX;
+        mOriginY = minY;
+        mGridWidth = (int) ((maxX - minX) / mCellSize) + 1;
+        mGridHeight = (int) ((maxY - minY) / mCellSize) + 1;
+
+        int cells = mGridWidth * mGridHeight;
+        if (mCellStart.length < cells + 1) {
+            mCellStart = new int[Math.max(cells + 1, mCellStart.length * 2)];
+            mAllocations++;
+        }
+        for (int c = 0; c <= cells; c++) {
+            mCellStart[c] = 0;
+        }
+        for (int i = 0; i < count; i++) {
+            int cx = (int) ((mCenterX[i] - mOriginX) / mCellSize);
+            int cy = (int) ((mCenterY[i] - mOriginY) / mCellSize);
+            mCellOf[i] = cy * mGridWidth + cx;
+            mCellStart[mCellOf[i] + 1]++;
+        }
+        for (int c = 0; c < cells; c++) {
+            mCellStart[c + 1] += mCellStart[c];
+        }
+        // mCellStart[c] を書き込み位置として使ってから、１つずつ戻す
+        for (int i = 0; i < count; i++) {
+            mCellItems[mCellStart[mCellOf[i]]++] = i;
+        }
+        for (int c = cells; c > 0; c--) {
+            mCellStart[c] = mCellStart[c - 1];
+        }
+        mCellStart[0] = 0;
+    }
+
+    /**
+     * どちらか一方の目から見て条件を満たせばペアにする
+     * (以前の順序付きの総当たりで (i, j) か (j, i) のどちらかが通った場合と同じ)
+     */
+    private void testPair(int i, int j) {
+        mComparisons++;
+        // 大きさがだいたい同じ
+        if (Math.max(mWidth[i], mWidth[j]) / Math.min(mWidth[i], mWidth[j]) > 1.4
+                || Math.max(mHeight[i], mHeight[j]) / Math.min(mHeight[i], mHeight[j]) > 1.4) {
+            return;
+        }
+        // 角度がだいたい同じ
+        if (Math.abs(mAngle[i] - mAngle[j]) > 3) {
+            return;
+        }
+        double score = Math.min(score(i, j), score(j, i));
+        if (score == Double.MAX_VALUE) {
+            return;
+        }
+        addPair(i, j, score);
+    }
+
+    /**
+     * 目 i から見た目 j の距離の条件
+     * @return 条件を満たさなければ Double.MAX_VALUE、満たせば理想からのずれ
+     */
+    private double score(int i, int j) {
+        double cx1 = mCenterX[i];
+        double cy1 = mCenterY[i];
+
+        // 左右の目の重心は、目の横幅の5倍くらい離れているのが理想
+        double ddx = cx1 - mCenterX[j];
+        double ddy = cy1 - mCenterY[j];
+        double distance = Math.sqrt(ddx * ddx + ddy * ddy);
+        double expected = mExpected[i];
+        if (distance < expected * 0.7 || distance > expected / 0.7) {
+            return Double.MAX_VALUE;
+        }
+
+        double nearDistance = Double.MAX_VALUE;
+        double farDistance = 0.0;
+        int offset = j * RotatedRectBuffer.CORNER_VALUES;
+        for (int pi = 0; pi < 4; pi++) {
+            double px = mCorners[offset + pi * 2] - cx1;
+            double py = mCorners[offset + pi * 2 + 1] - cy1;
+            double dist = Math.sqrt(px * px + py * py);
+            nearDistance = Math.min(nearDistance, dist);
+            farDistance = Math.max(farDistance, dist);
+        }
+        double ratio = farDistance / nearDistance;
+        if (ratio > 1.3) {
+            return Double.MAX_VALUE;
+        }
+        return Math.abs(distance / expected - 1) + (ratio - 1);
+    }
+
+    private void addPair(int i, int j, double score) {
+        if (mRawCount == mRawFirst.length) {
+            int capacity = Math.max(8, mRawFirst.length * 2);
+            mRawFirst = grow(mRawFirst, capacity);
+            mRawSecond = grow(mRawSecond, capacity);
+            mRawScore = grow(mRawScore, capacity);
+            mOrder = new int[capacity];
+            mSuppressed = new boolean[capacity];
+            mFirst = new int[capacity];
+            mSecond = new int[capacity];
+            mScore = new double[capacity];
+            mAllocations += 8;
+        }
+        mRawFirst[mRawCount] = i;
+        mRawSecond[mRawCount] = j;
+        mRawScore[mRawCount] = score;
+        mRawCount++;
+    }
+
+    /**
+     * スコアの良い順に並べ、すでに残したペアと目を共有するか、
+     * 中点が目の間隔の半分より近いペアを捨てる
+     */
+    private void suppress() {
+        int n = mRawCount;
+        for (int k = 0; k < n; k++) {
+            mOrder[k] = k;
+            mSuppressed[k] = false;
+        }
+        // ペアの数は少ないので挿入ソート
+        for (int k = 1; k < n; k++) {
+            int p = mOrder[k];
+            int m = k - 1;
+            while (m >= 0 && mRawScore[mOrder[m]] > mRawScore[p]) {
+                mOrder[m + 1] = mOrder[m];
+                m--;
+            }
+            mOrder[m + 1] = p;
+        }
+
+        mPairCount = 0;
+        for (int k = 0; k < n; k++) {
+            int p = mOrder[k];
+            if (mSuppressed[p]) {
+                continue;
+            }
+            if (mSuppression) {
+                for (int m = k + 1; m < n; m++) {
+                    int q = mOrder[m];
+                    if (!mSuppressed[q] && overlaps(p, q)) {
+                        mSuppressed[q] = true;
+                    }
+                }
+            }
+            mFirst[mPairCount] = mRawFirst[p];
+            mSecond[mPairCount] = mRawSecond[p];
+            mScore[mPairCount] = mRawScore[p];
+            mPairCount++;
+        }
+    }
+
+    private boolean overlaps(int p, int q) {
+        int a1 = mRawFirst[p];
+        int b1 = mRawSecond[p];
+        int a2 = mRawFirst[q];
+        int b2 = mRawSecond[q];
+        if (a1 == a2 || a1 == b2 || b1 == a2 || b1 == b2) {
+            return true;
+        }
+        double mx = (mCenterX[a1] + mCenterX[b1] - mCenterX[a2] - mCenterX[b2]) / 2;
+        double my = (mCenterY[a1] + mCenterY[b1] - mCenterY[a2] - mCenterY[b2]) / 2;
+        double sx = mCenterX[a1] - mCenterX[b1];
+        double sy = mCenterY[a1] - mCenterY[b1];
+        return (mx * mx + my * my) * 4 < sx * sx + sy * sy;
+    }
+
+    private void ensureCandidateCapacity(int count) {
+        if (mExpected.length >= count) {
+            return;
+        }
+        int capacity = Math.max(count, Math.max(16, mExpected.length * 2));
+        mExpected = new double[capacity];
+        mCorners = new double[capacity * RotatedRectBuffer.CORNER_VALUES];
+        mCellOf = new int[capacity];
+        mCellItems = new int[capacity];
+        mAllocations += 4;
+    }
+
+    private static int[] grow(int[] array, int capacity) {
+        int[] grown = new int[capacity];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    private static double[] grow(double[] array, int capacity) {
+        double[] grown = new double[capacity];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+}
@@ -0,0 +1,330 @@
+package org.opencv.samples.facedetect;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.RotatedRect;
+import org.opencv.core.Scalar;
+import org.opencv.video.KalmanFilter;
+
+/**
+ * コンセントの目のペアをフレーム間で追跡する
+ * 状態は２つの目の中点 (mx, my)、中点から２つ目の目への差分 (dx, dy) とそれぞれの速度。
+ * 等速運動の KalmanFilter で次のフレームの位置を予測する。
+ * 目の大きさと角度は検出結果の移動平均を使う。
+ *
+ * 全体の検出は N フレームに１回か、見失いかけたときだけ行い、
+ * それ以外のフレームでは予測した位置の周りだけを探す (DetectionBasedTracker と同じ考え方)。
+ */
+public class EyePairTracker {
+
+    private static final int STATE_SIZE = 8;
+    private static final int MEASUREMENT_SIZE = 4;
+    /** この回数続けて見つからなかったら見失ったとする */
+    private static final int MAX_MISSES = 5;
+    /** 信頼度がこれを下回ったら全体を検出する */
+    private static final double MIN_CONFIDENCE = 0.5;
+    /** 大きさと角度の移動平均の重み */
+    private static final double SHAPE_SMOOTHING = 0.3;
+
+    // ネイティブライブラリを読み込む前に作られることがあるので、追跡を始めるときに作る
+    private KalmanFilter mKalman;
+    private Mat mMeasurement;
+    private final float[] mMeasurementBuf = new float[MEASUREMENT_SIZE];
+    private final float[] mStateBuf = new float[STATE_SIZE];
+
+    private boolean mTracking = false;
+    private int mMisses = 0;
+    private double mConfidence = 0;
+    private int mDetectionInterval = 10;
+    private int mFramesSinceDetection = 0;
+
+    // 予測・補正した目のペア (使い回す)
+    private final EyePair mPair = new EyePair();
+    private double mEyeWidth;
+    private double mEyeHeight;
+    private double mAngle;
+
+    // 統計
+    private long mDetectionFrames = 0;
+    private long mTrackedFrames = 0;
+    private long mBindingAllocations = 0;
+
+    public EyePairTracker() {
+        mPair.set(new RotatedRect(), new RotatedRect());
+    }
+
+    /**
+     * 全体の検出をする間隔を設定する
+     * @param frames 1 なら毎フレーム全体を検出する
+     */
+    public void setDetectionInterval(int frames) {
+        if (frames < 1) {
+            throw new IllegalArgumentException("detection interval must be positive: " + frames);
+        }
+        mDetectionInterval = frames;
+    }
+
+    public int getDetectionInterval() {
+        return mDetectionInterval;
+    }
+
+    /**
+     * 追跡をやめる。次のフレームは全体を検出する
+     */
+    public void reset() {
+        mTracking = false;
+        mMisses = 0;
+        mConfidence = 0;
+        mFramesSinceDetection = 0;
+    }
+
+    /**
+     * 追跡をやめて KalmanFilter と作業領域を解放する。次に追跡を始めるときに作り直す
+     */
+    public void release() {
+        reset();
+        if (mMeasurement != null) {
+            mMeasurement.close();
+            mMeasurement = null;
+        }
+        // KalmanFilter の Java ラッパーには解放するメソッドがないので、参照を外してファイナライザに任せる
+        mKalman = null;
+    }
+
+    public boolean isTracking() {
+        return mTracking;
+    }
+
+    public double getConfidence() {
+        return mConfidence;
+    }
+
+    /**
+     * このフレームで全体を検出するべきか
+     */
+    public boolean needsDetection() {
+        return !mTracking || mConfidence < MIN_CONFIDENCE || mFramesSinceDetection >= mDetectionInterval;
+    }
+
+    /**
+     * フレームの始めに呼ぶ。追跡中なら次の位置を予測する
+     * @param detection このフレームで全体を検出するか
+     */
+    public void beginFrame(boolean detection) {
+        if (detection) {
+            mFramesSinceDetection = 0;
+            mDetectionFrames++;
+        } else {
+            mFramesSinceDetection++;
+            mTrackedFrames++;
+        }
+        if (!mTracking) {
+            return;
+        }
+        // ラッパーが返す Mat は毎回新しいので、ファイナライザに任せずにすぐ閉じる
+        Mat predicted = mKalman.predict();
+        predicted.get(0, 0, mStateBuf);
+        predicted.close();
+        mBindingAllocations++;
+        updatePair();
+    }
+
+    /**
+     * 予測した目のペアの周りの探索範囲を求める
+     * 目のペアの外接矩形を、目の間隔だけ広げる
+     * @param out 探索範囲 (フレームの中に切り詰める)
+     * @param frameWidth
+     * @param frameHeight
+     */
+    public void searchRegion(Rect out, int frameWidth, int frameHeight) {
+        double margin = Math.sqrt(mStateBuf[2] * mStateBuf[2] + mStateBuf[3] * mStateBuf[3]) * 2
+                + Math.max(mEyeWidth, mEyeHeight);
+        double x0 = mStateBuf[0] - Math.abs(mStateBuf[2]) - margin;
+        double y0 = mStateBuf[1] - Math.abs(mStateBuf[3]) - margin;
+        double x1 = mStateBuf[0] + Math.abs(mStateBuf[2]) + margin;
+        double y1 = mStateBuf[1] + Math.abs(mStateBuf[3]) + margin;
+        out.x = Math.max(0, (int) Math.floor(x0));
+        out.y = Math.max(0, (int) Math.floor(y0));
+        out.width = Math.max(0, Math.min(frameWidth, (int) Math.ceil(x1)) - out.x);
+        out.height = Math.max(0, Math.min(frameHeight, (int) Math.ceil(y1)) - out.y);
+    }
+
+    /**
+     * 予測に一番近い目のペアを選ぶ。追跡していなければ最初のペア
+     * @param eyes
+     * @param count
+     * @return 見つからなければ null
+     */
+    public EyePair select(EyePair[] eyes, int count) {
+        if (count == 0) {
+            return null;
+        }
+        if (!mTracking) {
+            return eyes[0];
+        }
+        // 目の間隔より離れていたら別のペアとみなす
+        double gate = (mStateBuf[2] * mStateBuf[2] + mStateBuf[3] * mStateBuf[3]) * 4;
+        EyePair best = null;
+        double bestDistance = gate;
+        for (int i = 0; i < count; i++) {
+            RotatedRect a = eyes[i].first;
+            RotatedRect b = eyes[i].second;
+            double mx = (a.center.x + b.center.x) / 2 - mStateBuf[0];
+            double my = (a.center.y + b.center.y) / 2 - mStateBuf[1];
+            double d = mx * mx + my * my;
+            if (d <= bestDistance) {
+                best = eyes[i];
+                bestDistance = d;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 検出した目のペアで補正する。追跡していなければ追跡を始める
+     * @param measured
+     */
+    public void correct(EyePair measured) {
+        RotatedRect a = measured.first;
+        RotatedRect b = measured.second;
+        double dx = (b.center.x - a.center.x) / 2;
+        double dy = (b.center.y - a.center.y) / 2;
+        // ペアの順番は検出ごとに入れ替わるので、予測と同じ向きにそろえる
+        boolean flip = mTracking ? dx * mStateBuf[2] + dy * mStateBuf[3] < 0 : dx < 0 || (dx == 0 && dy < 0);
+        if (flip) {
+            dx = -dx;
+            dy = -dy;
+        }
+        mMeasurementBuf[0] = (float) ((a.center.x + b.center.x) / 2);
+        mMeasurementBuf[1] = (float) ((a.center.y + b.center.y) / 2);
+        mMeasurementBuf[2] = (float) dx;
+        mMeasurementBuf[3] = (float) dy;
+
+        double width = (a.size.width + b.size.width) / 2;
+        double height = (a.size.height + b.size.height) / 2;
+        double angle = (a.angle + b.angle) / 2;
+
+        if (!mTracking) {
+            ensureFilter();
+            for (int i = 0; i < STATE_SIZE; i++) {
+                mStateBuf[i] = i < MEASUREMENT_SIZE ? mMeasurementBuf[i] : 0;
+            }
+            Mat state = mKalman.get_statePost();
+            state.put(0, 0, mStateBuf);
+            state.close();
+            Mat errorCov = mKalman.get_errorCovPost();
+            Core.setIdentity(errorCov);
+            errorCov.close();
+            mBindingAllocations += 2;
+            mEyeWidth = width;
+            mEyeHeight = height;
+            mAngle = angle;
+            mTracking = true;
+            mConfidence = 1;
+        } else {
+            mMeasurement.put(0, 0, mMeasurementBuf);
+            Mat corrected = mKalman.correct(mMeasurement);
+            corrected.get(0, 0, mStateBuf);
+            corrected.close();
+            mBindingAllocations++;
+            mEyeWidth += SHAPE_SMOOTHING * (width - mEyeWidth);
+            mEyeHeight += SHAPE_SMOOTHING * (height - mEyeHeight);
+            mAngle += SHAPE_SMOOTHING * (angle - mAngle);
+            mConfidence = Math.min(1, mConfidence + 0.25);
+        }
+        mMisses = 0;
+        updatePair();
+    }
+
+    /**
+     * このフレームでは見つからなかった。予測した位置のまま続け、何回も続いたら見失う
+     */
+    public void miss() {
+        if (!mTracking) {
+            return;
+        }
+        mMisses++;
+        mConfidence *= 0.5;
+        if (mMisses >= MAX_MISSES) {
+            reset();
+        }
+    }
+
+    /**
+     * 追跡している目のペア。追跡していなければ null
+     * 返すオブジェクトは使い回すので、次のフレームで上書きされる
+     */
+    public EyePair getPair() {
+        return mTracking ? mPair : null;
+    }
+
+    /**
+     * 全体を検出したフレーム数
+     */
+    public long getDetectionFrameCount() {
+        return mDetectionFrames;
+    }
+
+    /**
+     * 探索範囲だけを調べたフレーム数
+     */
+    public long getTrackedFrameCount() {
+        return mTrackedFrames;
+    }
+
+    /**
+     * KalmanFilter の Java ラッパーが確保した Mat の数
+     */
+    public long getBindingAllocationCount() {
+        return mBindingAllocations;
+    }
+
+    private void ensureFilter() {
+        if (mKalman != null) {
+            return;
+        }
+        mKalman = new KalmanFilter(STATE_SIZE, MEASUREMENT_SIZE, 0, CvType.CV_32F);
+
+        // 位置 += 速度 の等速モデル
+        Mat transition = Mat.eye(STATE_SIZE, STATE_SIZE, CvType.CV_32F);
+        for (int i = 0; i < MEASUREMENT_SIZE; i++) {
+            transition.put(i, i + MEASUREMENT_SIZE, 1);
+        }
+        mKalman.set_transitionMatrix(transition);
+        transition.close();
+
+        Mat measurementMatrix = Mat.eye(MEASUREMENT_SIZE, STATE_SIZE, CvType.CV_32F);
+        mKalman.set_measurementMatrix(measurementMatrix);
+        measurementMatrix.close();
+
+        Mat processNoise = Mat.eye(STATE_SIZE, STATE_SIZE, CvType.CV_32F);
+        for (int i = 0; i < STATE_SIZE; i++) {
+            processNoise.put(i, i, i < MEASUREMENT_SIZE ? 0.1 : 1.0);
+        }
+        mKalman.set_processNoiseCov(processNoise);
+        processNoise.close();
+
+        // 検出位置のばらつきは 2px 程度
+        Mat measurementNoise = new Mat(MEASUREMENT_SIZE, MEASUREMENT_SIZE, CvType.CV_32F);
+        Core.setIdentity(measurementNoise, new Scalar(4));
+        mKalman.set_measurementNoiseCov(measurementNoise);
+        measurementNoise.close();
+
+        mMeasurement = new Mat(MEASUREMENT_SIZE, 1, CvType.CV_32F);
+    }
+
+    private void updatePair() {
+        setEye(mPair.first, mStateBuf[0] - mStateBuf[2], mStateBuf[1] - mStateBuf[3]);
+        setEye(mPair.second, mStateBuf[0] + mStateBuf[2], mStateBuf[1] + mStateBuf[3]);
+    }
+
+    private void setEye(RotatedRect eye, double x, double y) {
+        eye.center.x = x;
+        eye.center.y = y;
+        eye.size.width = mEyeWidth;
+        eye.size.height = mEyeHeight;
+        eye.angle = mAngle;
+    }
+}
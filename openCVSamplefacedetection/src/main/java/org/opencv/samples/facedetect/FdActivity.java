@@ -4,31 +4,24 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
 
 import org.opencv.android.BaseLoaderCallback;
 import org.opencv.android.CameraBridgeViewBase.CvCameraViewFrame;
 import org.opencv.android.LoaderCallbackInterface;
 import org.opencv.android.OpenCVLoader;
 import org.opencv.android.Utils;
-import org.opencv.core.Core;
-import org.opencv.core.CvType;
 import org.opencv.core.Mat;
-import org.opencv.core.MatOfPoint;
-import org.opencv.core.MatOfPoint2f;
-import org.opencv.core.Point;
-import org.opencv.core.RotatedRect;
+import org.opencv.core.MatPool;
+import org.opencv.core.MatTracker;
 import org.opencv.core.Scalar;
-import org.opencv.core.Size;
 import org.opencv.android.CameraBridgeViewBase;
 import org.opencv.android.CameraBridgeViewBase.CvCameraViewListener2;
-import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.android.JavaCameraView;
 import org.opencv.objdetect.CascadeClassifier;
-import org.opencv.imgproc.Imgproc;
+import org.opencv.samples.facedetect.SocketDetectionPipeline.State;
 
 import android.app.Activity;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
@@ -45,12 +38,21 @@ public class FdActivity extends Activity implements CvCameraViewListener2 {
     private static final Scalar    FACE_RECT_COLOR     = new Scalar(0, 255, 0, 255);
     public static final int        JAVA_DETECTOR       = 0;
     public static final int        NATIVE_DETECTOR     = 1;
+    /** 1フレームの処理時間の目標 [ms] */
+    private static final double    TARGET_FRAME_MILLIS = 33;
+    /** 帯に分けて並列に処理するスレッドの上限。カメラとプレビューのスレッドの分を残す */
+    private static final int       MAX_TILE_THREADS    = 4;
+    /** 同じ大きさの Mat をプールに残す数。パイプラインのフレーム (3 スレッドで 7 枚) が全部収まる */
+    private static final int       MAT_POOL_PER_KEY    = 8;
+    /** プールに残す Mat の合計の上限 [byte] */
+    private static final long      MAT_POOL_BUDGET     = 32L * 1024 * 1024;
 
     private MenuItem               mItemFace50;
     private MenuItem               mItemFace40;
     private MenuItem               mItemFace30;
     private MenuItem               mItemFace20;
     private MenuItem               mItemType;
+    private MenuItem               mItemBackend;
 
     private Mat                    mRgba;
     private Mat                    mGray;
@@ -65,6 +67,9 @@ public class FdActivity extends Activity implements CvCameraViewListener2 {
     private int                    mAbsoluteFaceSize   = 0;
 
     private CameraBridgeViewBase   mOpenCvCameraView;
+    private final SocketDetectionPipeline mPipeline = new SocketDetectionPipeline();
+    /** カメラのフレームとパイプラインの作業用の Mat。onPause から onResume で確保し直さない */
+    private final MatPool          mMatPool            = new MatPool(MAT_POOL_PER_KEY, MAT_POOL_BUDGET);
 
 
     private BaseLoaderCallback  mLoaderCallback = new BaseLoaderCallback(this) {
@@ -133,12 +138,23 @@ public class FdActivity extends Activity implements CvCameraViewListener2 {
         Log.i(TAG, "called onCreate");
         super.onCreate(savedInstanceState);
         getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
+        if (BuildConfig.DEBUG) {
+            // 解放し忘れた Mat をどこで作ったか onPause で出す
+            MatTracker.setEnabled(true);
+            MatTracker.setRecordAllocationSites(true);
+        }
 
         setContentView(R.layout.face_detect_surface_view);
 
         mOpenCvCameraView = (CameraBridgeViewBase) findViewById(R.id.fd_activity_surface_view);
         mOpenCvCameraView.setVisibility(CameraBridgeViewBase.VISIBLE);
         mOpenCvCameraView.setCvCameraViewListener(this);
+        if (mOpenCvCameraView instanceof JavaCameraView) {
+            // 変換・検出・描画を別々のスレッドで重ねて実行する
+            ((JavaCameraView) mOpenCvCameraView).setPipelineThreadCount(3);
+            ((JavaCameraView) mOpenCvCameraView).setMatPool(mMatPool);
+        }
+        mPipeline.setMatPool(mMatPool);
     }
 
     @Override
@@ -147,6 +163,23 @@ public class FdActivity extends Activity implements CvCameraViewListener2 {
         super.onPause();
         if (mOpenCvCameraView != null)
             mOpenCvCameraView.disableView();
+        if (mOpenCvCameraView instanceof JavaCameraView) {
+            // 処理が追いつかずに捨てたフレームと、カメラの空きバッファがなくなった回数
+            JavaCameraView view = (JavaCameraView) mOpenCvCameraView;
+            Log.i(TAG, "dropped frames " + view.getDroppedFrameCount() + ", starved buffers " + view.getStarvedBufferCount());
+        }
+        // close() されずにファイナライザ待ちの Mat が増え続けていないか
+        Log.i(TAG, "Mat " + MatTracker.report(5));
+        Log.i(TAG, mMatPool.toString());
+    }
+
+    @Override
+    public void onTrimMemory(int level)
+    {
+        super.onTrimMemory(level);
+        // 使っていない Mat はメモリが足りなくなったら捨てる。次に借りるときに確保し直す
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW)
+            mMatPool.clear();
     }
 
     @Override
@@ -168,18 +201,28 @@ public class FdActivity extends Activity implements CvCameraViewListener2 {
     }
 
     public void onCameraViewStarted(int width, int height) {
-        mGray = new Mat();
-        mRgba = new Mat();
         loadYukari();
+        mPipeline.start(width, height);
+        // 30fps に間に合うように検出の解像度を自動で下げる
+        mPipeline.setTargetFrameMillis(TARGET_FRAME_MILLIS);
+        // 見つけた目のペアを追跡して、全体の検出は数フレームに１回にする
+        mPipeline.setTrackingEnabled(true);
+        // 手で持って止めているときは前回の結果を使い回す
+        mPipeline.setMotionGatingEnabled(true);
+        // blur, threshold, Canny を帯に分けて複数のコアで処理する
+        mPipeline.setTileThreads(Math.min(MAX_TILE_THREADS, Runtime.getRuntime().availableProcessors()));
+        mPipeline.setSprite(yukari);
+        yukari.release();
     }
 
     public void onCameraViewStopped() {
-        mGray.release();
-        mRgba.release();
+        // mGray と mRgba はカメラのフレームが持っているので解放しない
+        mGray = null;
+        mRgba = null;
+        mPipeline.stop();
     }
 
     private long startTime = System.currentTimeMillis();
-    enum State { ORIGNAL, BLUR, FILTER, CANNY, RECT, EYE, EYES }
     private State state = State.ORIGNAL;
     private static final int step = 3; // sec
 
@@ -209,50 +252,10 @@ public class FdActivity extends Activity implements CvCameraViewListener2 {
         mRgba = inputFrame.rgba();
         mGray = inputFrame.gray();
         updateState();
-        if (debug && this.state == State.ORIGNAL) {
-            Imgproc.putText(mRgba, this.state.toString(), new Point(140, 140), Core.FONT_HERSHEY_SIMPLEX, 5f, eyeColor);
-            return mRgba;
-        }
-
-        Mat blurImage = new Mat();
-        Imgproc.GaussianBlur(mGray, blurImage, new Size(7, 7), 0, 0);
-        if (debug && this.state == State.BLUR) {
-            Imgproc.putText(blurImage, this.state.toString(), new Point(140, 140), Core.FONT_HERSHEY_SIMPLEX, 5f, eyeColor);
-            return blurImage;
-        }
-
-        Mat thresholdImage = new Mat();
-        double highThreshold = Imgproc.threshold(blurImage, thresholdImage, 0, 255, Imgproc.THRESH_BINARY_INV + Imgproc.THRESH_OTSU);
-        double lowThreshold = 0.5 * highThreshold;
-        if (debug && this.state == State.FILTER) {
-            Imgproc.putText(thresholdImage, this.state.toString(), new Point(140, 140), Core.FONT_HERSHEY_SIMPLEX, 5f, eyeColor);
-            return thresholdImage;
-        }
-
-        Mat cannyImage = new Mat();
-        Imgproc.Canny(thresholdImage, cannyImage, lowThreshold, highThreshold);
-        Log.d("Canny", "threshold low, high = " + lowThreshold + ", " + highThreshold);
-        if (debug && this.state == State.CANNY) {
-            Imgproc.putText(cannyImage, this.state.toString(), new Point(140, 140), Core.FONT_HERSHEY_SIMPLEX, 5f, eyeColor);
-            return cannyImage;
-        }
-
-        this.findContours(cannyImage);
-
-        mRgba = this.drawEyes(mGray, mRgba);
-        Imgproc.putText(mRgba, this.state.toString(), new Point(140, 140), Core.FONT_HERSHEY_SIMPLEX, 5f, eyeColor);
-        return this.drawRect(mRgba); // debug
+        mPipeline.setState(this.state);
+        return mPipeline.process(mGray, mRgba);
     }
 
-    private static final boolean debug = true;
-    private static final double longAspect = 23/6;
-    private static final double shortAspect = 17/6;
-    private static final double minWidth = 10;
-    private static final double minHeight = shortAspect * minWidth;
-    private static final double maxWidth = 40;
-    private static final double maxHeight = longAspect * maxWidth;
-    private static final Scalar eyeColor = new Scalar(255, 0, 0);
-
     private Mat yukari;
 
     private void loadYukari() {
@@ -262,357 +265,6 @@ public class FdActivity extends Activity implements CvCameraViewListener2 {
         Log.d("imread", "yukari.size = " + yukari.size() + " channels = " + yukari.channels());
     }
 
-
-    /**
-     *  RGBA画像からAlphaを削除してRGB画像にする
-     * @param img_rgba
-     * @return
-     */
-    private Mat removeAlpha(Mat img_rgba) {
-        List<Mat> planes_rgba = new ArrayList<>();
-        for (int i = 0; i< 4; i++){
-            planes_rgba.add(new Mat());
-        }
-        Core.split(img_rgba, planes_rgba);
-
-        List<Mat> planes_rgb = new ArrayList<>();
-        planes_rgb.add(planes_rgba.get(0));
-        planes_rgb.add(planes_rgba.get(1));
-        planes_rgb.add(planes_rgba.get(2));
-        Mat img_rgb = new Mat();
-        Core.merge(planes_rgb, img_rgb);
-        return img_rgb;
-    }
-
-    /***
-     *
-     * @param backgroundImage
-     * @param foregroundImage
-     * @return
-     */
-    private Mat overlayImage(Mat backgroundImage, Mat foregroundImage) {
-        assert(backgroundImage.channels() == foregroundImage.channels());
-        assert(backgroundImage.size() == foregroundImage.size());
-
-        int maxVal = 255; //(int)(Math.pow(2, 8 * backgroundImage.elemSize1()) - 1);
-
-        // チャンネルに分解
-        List<Mat> planes_rgba = new ArrayList<>();
-        Core.split(foregroundImage, planes_rgba);
-
-        //RGBA画像をRGBに変換
-        Mat img_rgb = new Mat();
-        Core.merge(Arrays.asList(planes_rgba.get(0), planes_rgba.get(1), planes_rgba.get(2)), img_rgb);
-
-        //RGBA画像からアルファチャンネル抽出
-        Mat img_aaa = new Mat();
-        Core.merge(Arrays.asList(planes_rgba.get(3), planes_rgba.get(3), planes_rgba.get(3)), img_aaa);
-
-        //背景用アルファチャンネル
-        Mat negpos = new Mat();
-        Core.bitwise_not(planes_rgba.get(3), negpos);
-        Mat img_1ma = new Mat();
-        Core.merge(Arrays.asList(negpos, negpos, negpos), img_1ma);
-
-
-        Mat img_dst1 = new Mat();
-        Mat img_dst2 = new Mat();
-        Mat img_dst3 = new Mat();
-        Core.multiply(img_rgb, img_aaa, img_dst1, 1.0 / maxVal);
-        Core.multiply(backgroundImage, img_1ma, img_dst2, 1.0 / maxVal);
-        Core.add(img_dst1, img_dst2, img_dst3);
-        return img_dst3;
-    }
-
-    /**
-     *  縁ちゃん画像の目の位置を合わせるためのアフィン変換行列を計算
-     * @param foregroundImage
-     * @param rr1
-     * @param rr2
-     * @return
-     */
-    private Mat computeAffineTransform(Mat foregroundImage, RotatedRect rr1, RotatedRect rr2) {
-        Point [] srcTri = new Point[]{
-                new Point(0.0f, 0.0f),
-                new Point(foregroundImage.width(), 0.0f),
-                new Point(foregroundImage.width(), foregroundImage.height()),
-        };
-
-        Point points1[] = new Point[4];
-        rr1.points(points1);
-
-        Point points2[] = new Point[4];
-        rr2.points(points2);
-
-        Point tl = points1[0];
-        Point br = points1[0];
-        double tld = Math.sqrt(Math.pow(tl.x, 2) + Math.pow(tl.y, 2));
-        double brd = Math.sqrt(Math.pow(br.x, 2) + Math.pow(br.y, 2));
-        for (Point point : points1) {
-            double d = Math.sqrt(Math.pow(point.x, 2) + Math.pow(point.y, 2));
-            if (d <= tld){
-                tl = point;
-                tld = d;
-            }
-            if (d >= brd) {
-                br = point;
-                brd = d;
-            }
-        }
-        for (Point point : points2) {
-            double d = Math.sqrt(Math.pow(point.x, 2) + Math.pow(point.y, 2));
-            if (d <= tld){
-                tl = point;
-                tld = d;
-            }
-            if (d >= brd) {
-                br = point;
-                brd = d;
-            }
-        }
-        double width = br.x - tl.x;
-        double height = br.y - tl.y;
-
-        Point [] dstTri = new Point[] {
-                new Point(tl.x - 1.4 * width, tl.y - 2.3 * height),
-                new Point(br.x + 1.6 * width, tl.y - 2.3 * height),
-                new Point(br.x + 1.6 * width, br.y + 3.4 * height),
-        };
-
-        // 変形行列を作成
-        Mat affineTrans = Imgproc.getAffineTransform(new MatOfPoint2f(srcTri), new MatOfPoint2f(dstTri));
-
-        return affineTrans;
-    }
-
-    /**
-     * 縁ちゃんを描く
-     * @param frame
-     * @return
-     */
-    private Mat drawYukari(Mat frame) {
-        Mat backgroundImage = removeAlpha(frame);
-
-        for (List<RotatedRect> eyePair : eyes) {
-            RotatedRect rr1 = eyePair.get(0);
-            RotatedRect rr2 = eyePair.get(1);
-
-            Mat affineTrans = computeAffineTransform(yukari, rr1, rr2);
-
-            // 出力画像と同じ幅・高さのアルファ付き画像を作成
-            Mat alpha0 = new Mat(frame.rows(), frame.cols(), yukari.type());
-            Imgproc.warpAffine(yukari, alpha0, affineTrans, alpha0.size(), Imgproc.INTER_LINEAR, Core.BORDER_TRANSPARENT, new Scalar(0, 0, 0));
-
-            backgroundImage = overlayImage(backgroundImage, alpha0);
-            return backgroundImage;
-        }
-        return backgroundImage;
-    }
-
-    /**
-     *  目の基準となる四角を描く
-     * @param frame
-     * @return
-     */
-    private Mat drawRect(Mat frame) {
-        if (!debug) {
-            return frame;
-        }
-        Scalar color = new Scalar(0, 255, 0);
-        double x = 200;
-        double y = 200;
-//        Imgproc.rectangle(frame, new Point(y + 0, x + 0), new Point(y + minHeight, x + minWidth), color, 2);
-//        Imgproc.rectangle(frame, new Point(y + 0, x + 0), new Point(y + maxHeight, x + maxWidth), color, 2);
-
-        Imgproc.rectangle(frame, new Point(x + 0, y + 0), new Point(x + minWidth, y + minHeight), color, 2);
-        Imgproc.rectangle(frame, new Point(x + 0, y + 0), new Point(x + maxWidth, y + maxHeight), color, 2);
-        return frame;
-    }
-
-    private List<MatOfPoint> contours;
-    private Mat hierarchy;
-
-    private void findContours(Mat maskedImage) {
-        // init
-        contours = new ArrayList<>();
-        hierarchy = new Mat();
-
-        // find contours
-        // TODO 階層関係使ってないのでRETR_LISTで十分
-        Imgproc.findContours(maskedImage, contours, hierarchy, Imgproc.RETR_CCOMP, Imgproc.CHAIN_APPROX_SIMPLE);
-    }
-
-    /**
-     * 目の条件を満たしているか調べる。１つの目だけの条件
-     * @param width
-     * @param height
-     * @return
-     */
-    private boolean isEye(double width, double height) {
-        double areaMinThreshold = minWidth * minHeight;
-        double areaMaxThreshold = maxWidth * maxHeight;
-        double aspectMinThreshold = longAspect * 0.7;
-        double aspectMaxThreshold = longAspect / 0.7;
-
-        if (debug && this.state == State.RECT) {
-            areaMinThreshold *= 0.8;
-            areaMaxThreshold /= 0.8;
-            aspectMinThreshold *= 0.8;
-            aspectMaxThreshold /= 0.8;
-        }
-
-        double area = width * height;
-        if (area < areaMinThreshold || area > areaMaxThreshold) {
-            return false;
-        }
-        double aspect = Math.max(width, height) / Math.min(width, height);
-        if (aspect < aspectMinThreshold || aspect > aspectMaxThreshold) {
-            return false;
-        }
-        return true;
-    }
-
-    /**
-     * 目の条件を満たしているか調べる。２つの目での条件
-     * @param rr1
-     * @param rr2
-     * @return
-     */
-    private boolean isEyes(RotatedRect rr1, RotatedRect rr2) {
-        if (debug && this.state == State.EYE || debug && this.state == State.RECT) {
-            return true;
-        }
-        // 大きさがだいたい同じ
-        double w1 = rr1.size.width;
-        double h1 = rr1.size.height;
-        double w2 = rr2.size.width;
-        double h2 = rr2.size.height;
-        if (Math.max(w1, w2) / Math.min(w1, w2) > 1.4 || Math.max(h1, h2) / Math.min(h1, h2) > 1.4) {
-            return false;
-        }
-
-        // 角度がだいたい同じ
-        double a1 = rr1.angle;
-        double a2 = rr2.angle;
-        if (Math.abs(a1 - a2) > 3) {
-            return false;
-        }
-
-        // 距離がいい感じ
-        double cx1;
-        double cy1;
-        {
-            Point points[] = new Point[4];
-            rr1.points(points);
-            double sumX = 0.0;
-            double sumY = 0.0;
-            for (Point p : points) {
-                sumX += p.x;
-                sumY += p.y;
-            }
-            cx1 = sumX / 4.0;
-            cy1 = sumY / 4.0;
-        }
-        double cx2;
-        double cy2;
-        double nearDistance = 0.0;
-        double farDistance = 0.0;
-        {
-            Point points[] = new Point[4];
-            rr2.points(points);
-            double sumX = 0.0;
-            double sumY = 0.0;
-            int pi = 0;
-            for (Point p : points) {
-                sumX += p.x;
-                sumY += p.y;
-
-                double dist = Math.sqrt(Math.pow(cx1 - p.x, 2) + Math.pow(cy1 - p.y, 2));
-                if (pi == 0) {
-                    nearDistance = dist;
-                    farDistance = dist;
-                } else {
-                    nearDistance = Math.min(nearDistance, dist);
-                    farDistance = Math.max(farDistance, dist);
-                }
-                pi++;
-            }
-            cx2 = sumX / 4.0;
-            cy2 = sumY / 4.0;
-        }
-
-        // 左右の目の重心は、目の横幅の5倍くらい離れているのが理想
-        double distance = Math.sqrt(Math.pow(cx1 - cx2, 2) + Math.pow(cy1 - cy2, 2));
-        double expected = Math.min(w1, h1) * 5;
-        if (distance < expected * 0.7 || distance > expected / 0.7) {
-            return false;
-        }
-
-
-        Log.d("isEyes", "near, far = " + nearDistance + ", " + farDistance);
-        if (farDistance / nearDistance > 1.3) {
-            return false;
-        }
-
-        return true;
-    }
-
-    private Mat drawEye(RotatedRect bbox, Mat frame) {
-        Point points[] = new Point[4];
-        bbox.points(points);
-        MatOfPoint mop = new MatOfPoint(points);
-        List<MatOfPoint> contours = new ArrayList<>();
-        contours.add(mop);
-        Imgproc.drawContours(frame, contours, 0, eyeColor, 2);
-        return frame;
-    }
-
-    private List<List<RotatedRect>> eyes = new ArrayList<>();
-
-    private Mat drawEyes(Mat maskedImage, Mat frame) {
-        List<RotatedRect> rrList = new ArrayList<RotatedRect>();
-
-        // if any contour exist...
-        if (hierarchy.size().height > 0 && hierarchy.size().width > 0) {
-            // for each contour, display it in blue
-            for (int idx = 0; idx >= 0; idx = (int) hierarchy.get(0, idx)[0]) {
-                MatOfPoint pmat = contours.get(idx);
-                MatOfPoint2f ptmat2 = new MatOfPoint2f(pmat.toArray()); // API的にFloat型に変換する
-                RotatedRect bbox = Imgproc.minAreaRect(ptmat2); // 回転を考慮した外接矩形
-
-                if (isEye(bbox.size.width, bbox.size.height)) {
-                    rrList.add(bbox);
-                }
-            }
-        }
-
-        eyes.clear();
-        int len = rrList.size();
-        for (int i = 0; i< len; i ++) {
-            RotatedRect rr1 = rrList.get(i);
-            for (int j =0; j<len; j++){
-                if (j == i){
-                    continue;
-                }
-                RotatedRect rr2 = rrList.get(j);
-                if (isEyes(rr1, rr2)) {
-                    if (this.state == State.EYE || this.state == State.RECT) {
-                        drawEye(rr1, frame);
-                        drawEye(rr2, frame);
-                    }
-                    List<RotatedRect> eyePair = new ArrayList<>();
-                    eyePair.add(rr1);
-                    eyePair.add(rr2);
-                    eyes.add(eyePair);
-                }
-            }
-        }
-        if(this.debug && this.state == State.EYES) {
-            frame = drawYukari(frame);
-        }
-        return frame;
-    }
-
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         Log.i(TAG, "called onCreateOptionsMenu");
@@ -621,6 +273,7 @@ public class FdActivity extends Activity implements CvCameraViewListener2 {
         mItemFace30 = menu.add("Face size 30%");
         mItemFace20 = menu.add("Face size 20%");
         mItemType   = menu.add(mDetectorName[mDetectorType]);
+        mItemBackend = menu.add(mPipeline.getCandidateBackend().name());
         return true;
     }
 
@@ -639,6 +292,12 @@ public class FdActivity extends Activity implements CvCameraViewListener2 {
             int tmpDetectorType = (mDetectorType + 1) % mDetectorName.length;
             item.setTitle(mDetectorName[tmpDetectorType]);
             setDetectorType(tmpDetectorType);
+        } else if (item == mItemBackend) {
+            // 目の候補の取り出し方を CONTOURS と COMPONENTS で切り替える
+            SocketDetectionPipeline.CandidateBackend[] backends = SocketDetectionPipeline.CandidateBackend.values();
+            SocketDetectionPipeline.CandidateBackend next = backends[(mPipeline.getCandidateBackend().ordinal() + 1) % backends.length];
+            mPipeline.setCandidateBackend(next);
+            item.setTitle(next.name());
         }
         return true;
     }
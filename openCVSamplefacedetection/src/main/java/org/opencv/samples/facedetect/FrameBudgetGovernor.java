@@ -0,0 +1,276 @@
+package org.opencv.samples.facedetect;
+
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * 1フレームの処理時間の目標に合わせて、フレームごとに何をするかを決める
+ * 処理の種類 (Cost) ごとの時間を移動平均で測り、目標を超えたら Step の順に品質を下げ、
+ * 余裕ができたら逆の順に戻す。
+ *
+ * 戻すときは、戻した後の処理時間を測った時間から見積もり、目標に収まる場合だけ戻す。
+ * 上げ下げを繰り返さないように、一度変えたら COOLDOWN_FRAMES の間は変えず、処理時間も測り直す。
+ */
+public class FrameBudgetGovernor {
+
+    /** 処理時間を測る処理の種類 */
+    public enum Cost { DETECT, PAIR, WARP, COMPOSITE, DEBUG_DRAW }
+
+    /** 品質を下げる手順。この順に下げ、逆の順に戻す */
+    public enum Step {
+        /** 状態の文字と目の基準の四角を描かない */
+        SKIP_DEBUG_OVERLAY,
+        /** warpAffine を INTER_NEAREST にする */
+        NEAREST_WARP,
+        /** 2フレームに１回だけ検出する */
+        DETECT_EVERY_2ND,
+        /** 3フレームに１回だけ検出する */
+        DETECT_EVERY_3RD,
+        /** 1/2 の解像度で検出する */
+        DETECTION_LEVEL_1,
+        /** 1/4 の解像度で検出する */
+        DETECTION_LEVEL_2
+    }
+
+    private static final int COST_COUNT = Cost.values().length;
+    private static final Step[] STEPS = Step.values();
+    /** 処理時間の移動平均の重み */
+    private static final double SMOOTHING = 0.1;
+    /** 品質を変えた後、次に変えるまで待つフレーム数 */
+    private static final int COOLDOWN_FRAMES = 15;
+    /** 戻した後の見積もりが目標のこの割合に収まれば戻す */
+    private static final double RESTORE_MARGIN = 0.85;
+    /** 検出の解像度を 1/2 にすると検出の時間はおよそ 1/4 になる */
+    private static final double LEVEL_COST_RATIO = 4;
+
+    private double mTargetMillis = 0;
+    private int mStepCount = 0;
+    private int mCooldown = 0;
+    private long mFrameIndex = 0;
+
+    // 移動平均 [ms]
+    private double mFrameMillis = 0;
+    /** DETECT は検出したフレームだけで平均する */
+    private final double[] mCostMillis = new double[COST_COUNT];
+    /** SKIP_DEBUG_OVERLAY や NEAREST_WARP にする前の時間。戻すときの見積もりに使う */
+    private double mDebugDrawMillis = 0;
+    private double mLinearWarpMillis = 0;
+
+    // このフレームの時間
+    private final double[] mFrameCosts = new double[COST_COUNT];
+
+    // 統計
+    private long mFrames = 0;
+    private long mSkippedDetections = 0;
+    private long mDegrades = 0;
+    private long mRestores = 0;
+
+    /**
+     * 目標の処理時間を設定する。品質は元に戻る
+     * @param millis 0 なら品質を下げない
+     */
+    public void setTargetFrameMillis(double millis) {
+        mTargetMillis = millis;
+        reset();
+    }
+
+    public double getTargetFrameMillis() {
+        return mTargetMillis;
+    }
+
+    /**
+     * 品質を元に戻し、測った時間を忘れる
+     */
+    public void reset() {
+        mStepCount = 0;
+        mCooldown = 0;
+        mFrameMillis = 0;
+        for (int i = 0; i < COST_COUNT; i++) {
+            mCostMillis[i] = 0;
+        }
+    }
+
+    /**
+     * フレームの始めに呼ぶ
+     * @return このフレームで検出するなら true。false なら前回の結果を使う
+     */
+    public boolean beginFrame() {
+        for (int i = 0; i < COST_COUNT; i++) {
+            mFrameCosts[i] = 0;
+        }
+        long index = mFrameIndex++;
+        boolean detect = index % getDetectionInterval() == 0;
+        if (!detect) {
+            mSkippedDetections++;
+        }
+        return detect;
+    }
+
+    /**
+     * このフレームの処理時間を加える
+     */
+    public void addCost(Cost cost, double millis) {
+        mFrameCosts[cost.ordinal()] += millis;
+    }
+
+    /**
+     * フレームの終わりに呼ぶ。移動平均を更新して品質を上げ下げする
+     * @param frameMillis このフレーム全体の処理時間
+     * @param detected このフレームで検出したか
+     */
+    public void endFrame(double frameMillis, boolean detected) {
+        mFrames++;
+        mFrameMillis = smooth(mFrameMillis, frameMillis);
+        for (int i = 0; i < COST_COUNT; i++) {
+            if (i != Cost.DETECT.ordinal() || detected) {
+                mCostMillis[i] = smooth(mCostMillis[i], mFrameCosts[i]);
+            }
+        }
+        if (!isApplied(Step.SKIP_DEBUG_OVERLAY)) {
+            mDebugDrawMillis = mCostMillis[Cost.DEBUG_DRAW.ordinal()];
+        }
+        if (!isApplied(Step.NEAREST_WARP)) {
+            mLinearWarpMillis = mCostMillis[Cost.WARP.ordinal()];
+        }
+
+        if (mTargetMillis <= 0) {
+            return;
+        }
+        if (mCooldown > 0) {
+            mCooldown--;
+            return;
+        }
+        if (mFrameMillis > mTargetMillis && mStepCount < STEPS.length) {
+            mStepCount++;
+            mDegrades++;
+            mCooldown = COOLDOWN_FRAMES;
+            mFrameMillis = 0;
+        } else if (mStepCount > 0
+                && mFrameMillis + restoreCost(STEPS[mStepCount - 1]) < mTargetMillis * RESTORE_MARGIN) {
+            mStepCount--;
+            mRestores++;
+            mCooldown = COOLDOWN_FRAMES;
+            mFrameMillis = 0;
+        }
+    }
+
+    /**
+     * step を戻したときに増える１フレームあたりの時間の見積もり [ms]
+     */
+    private double restoreCost(Step step) {
+        int interval = getDetectionInterval();
+        double detectMillis = mCostMillis[Cost.DETECT.ordinal()];
+        switch (step) {
+            case SKIP_DEBUG_OVERLAY:
+                return mDebugDrawMillis;
+            case NEAREST_WARP:
+                return Math.max(0, mLinearWarpMillis - mCostMillis[Cost.WARP.ordinal()]);
+            case DETECT_EVERY_2ND:
+            case DETECT_EVERY_3RD:
+                // 検出の間隔が１つ短くなる
+                return detectMillis * (1.0 / (interval - 1) - 1.0 / interval);
+            case DETECTION_LEVEL_1:
+            case DETECTION_LEVEL_2:
+                return detectMillis * (LEVEL_COST_RATIO - 1) / interval;
+            default:
+                return 0;
+        }
+    }
+
+    private static double smooth(double average, double value) {
+        return average == 0 ? value : average + SMOOTHING * (value - average);
+    }
+
+    /**
+     * 下げた品質の数 (0 なら元の品質)
+     */
+    public int getStepCount() {
+        return mStepCount;
+    }
+
+    public boolean isApplied(Step step) {
+        return step.ordinal() < mStepCount;
+    }
+
+    /**
+     * 状態の文字や基準の四角を描くか
+     */
+    public boolean isDebugOverlayEnabled() {
+        return !isApplied(Step.SKIP_DEBUG_OVERLAY);
+    }
+
+    /**
+     * warpAffine の補間方法
+     */
+    public int getWarpInterpolation() {
+        return isApplied(Step.NEAREST_WARP) ? Imgproc.INTER_NEAREST : Imgproc.INTER_LINEAR;
+    }
+
+    /**
+     * 何フレームに１回検出するか
+     */
+    public int getDetectionInterval() {
+        if (isApplied(Step.DETECT_EVERY_3RD)) {
+            return 3;
+        }
+        return isApplied(Step.DETECT_EVERY_2ND) ? 2 : 1;
+    }
+
+    /**
+     * 品質を下げたことによる検出レベル (0 から 2)
+     */
+    public int getDetectionLevel() {
+        if (isApplied(Step.DETECTION_LEVEL_2)) {
+            return 2;
+        }
+        return isApplied(Step.DETECTION_LEVEL_1) ? 1 : 0;
+    }
+
+    /**
+     * 処理時間の移動平均 [ms]
+     */
+    public double getFrameMillis() {
+        return mFrameMillis;
+    }
+
+    /**
+     * 処理の種類ごとの時間の移動平均 [ms]。DETECT は検出したフレームだけの平均
+     */
+    public double getCostMillis(Cost cost) {
+        return mCostMillis[cost.ordinal()];
+    }
+
+    public long getFrameCount() {
+        return mFrames;
+    }
+
+    /**
+     * 検出の間隔のために検出を飛ばしたフレーム数
+     */
+    public long getSkippedDetectionCount() {
+        return mSkippedDetections;
+    }
+
+    public long getDegradeCount() {
+        return mDegrades;
+    }
+
+    public long getRestoreCount() {
+        return mRestores;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("frame %.2f ms / target %.2f ms, steps %d", mFrameMillis, mTargetMillis, mStepCount));
+        for (int i = 0; i < mStepCount; i++) {
+            sb.append(i == 0 ? " [" : ", ").append(STEPS[i]);
+        }
+        if (mStepCount > 0) {
+            sb.append(']');
+        }
+        for (Cost cost : Cost.values()) {
+            sb.append(String.format(", %s %.2f ms", cost, mCostMillis[cost.ordinal()]));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,249 @@
+package org.opencv.samples.facedetect;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.video.BackgroundSubtractor;
+import org.opencv.video.Video;
+
+/**
+ * シーンが変わったかどうかを調べる
+ * スマホを止めてコンセントに向けているときはほぼ同じフレームが続くので、
+ * 変わっていなければ検出を飛ばして前回の結果を描き直せばよい。
+ *
+ * BLOCK_DIFFERENCE (既定) は縮小したグレー画像をブロックに分け、最後に検出したフレームとの
+ * 平均絶対差 (MAD) が一番大きいブロックで判断する。縮小画像は数千画素なので Java で計算する。
+ * MOG2 と KNN は OpenCV の背景差分を縮小画像に使い、前景の割合で判断する (重いが手ぶれに強い)。
+ * どのモードでも MAX_SKIPPED_FRAMES 続けて飛ばしたら１回は検出させる。
+ */
+public class MotionGate {
+
+    public enum Mode { BLOCK_DIFFERENCE, MOG2, KNN }
+
+    /** 縮小画像の幅 [px]。高さはフレームの縦横比で決める */
+    private static final int SAMPLE_WIDTH = 80;
+    /** ブロックの１辺 [縮小画像の px] */
+    private static final int BLOCK_SIZE = 8;
+    /** ブロックの平均絶対差がこれを超えたら変わったとする [輝度] */
+    private static final double DEFAULT_BLOCK_THRESHOLD = 6;
+    /** 前景の画素の割合がこれを超えたら変わったとする (MOG2, KNN) */
+    private static final double DEFAULT_FOREGROUND_RATIO = 0.01;
+    /** これだけ続けて飛ばしたら、変わっていなくても検出する */
+    private static final int MAX_SKIPPED_FRAMES = 30;
+
+    private Mode mMode = Mode.BLOCK_DIFFERENCE;
+    private double mBlockThreshold = DEFAULT_BLOCK_THRESHOLD;
+    private double mForegroundRatio = DEFAULT_FOREGROUND_RATIO;
+
+    private Mat mSample;
+    private final Size mSampleSize = new Size();
+    private byte[] mCurrent = new byte[0];
+    private byte[] mReference = new byte[0];
+    private boolean mHasReference = false;
+    /** モードごとに１つ作って使い回す。Java からは解放できず、捨てると finalizer 任せになるため */
+    private BackgroundSubtractor mMog2;
+    private BackgroundSubtractor mKnn;
+    private boolean mHasBackground = false;
+    private Mat mForeground;
+    private int mSkipped = 0;
+    private double mLastChange = 0;
+
+    // 統計
+    private long mFrames = 0;
+    private long mGatedFrames = 0;
+    private long mBufferAllocations = 0;
+
+    /**
+     * 判定の方法を切り替える。判定の履歴は消える
+     * @param mode
+     */
+    public void setMode(Mode mode) {
+        if (mode == null) {
+            throw new IllegalArgumentException("mode must not be null");
+        }
+        if (mode != mMode) {
+            mMode = mode;
+            reset();
+        }
+    }
+
+    public Mode getMode() {
+        return mMode;
+    }
+
+    /**
+     * BLOCK_DIFFERENCE で変わったとみなすブロックの平均絶対差 [輝度]
+     */
+    public void setBlockThreshold(double threshold) {
+        mBlockThreshold = threshold;
+    }
+
+    public double getBlockThreshold() {
+        return mBlockThreshold;
+    }
+
+    /**
+     * MOG2, KNN で変わったとみなす前景の割合 (0..1)
+     */
+    public void setForegroundRatio(double ratio) {
+        mForegroundRatio = ratio;
+    }
+
+    public double getForegroundRatio() {
+        return mForegroundRatio;
+    }
+
+    /**
+     * 前回検出したときからシーンが変わったか調べる
+     * true を返したフレームは検出する前提で、そのフレームを次の比較の基準にする
+     * @param gray カメラ画像 (グレースケール)
+     * @return 変わっていたら true、前回の結果を使ってよければ false
+     */
+    public boolean hasChanged(Mat gray) {
+        mFrames++;
+        if (mSample == null) {
+            mSample = new Mat();
+            mBufferAllocations++;
+        }
+        mSampleSize.width = SAMPLE_WIDTH;
+        mSampleSize.height = Math.max(1, Math.round((double) SAMPLE_WIDTH * gray.rows() / gray.cols()));
+        Imgproc.resize(gray, mSample, mSampleSize, 0, 0, Imgproc.INTER_AREA);
+
+        boolean changed;
+        if (mMode == Mode.BLOCK_DIFFERENCE) {
+            changed = blockDifference();
+        } else {
+            changed = foreground();
+        }
+        if (!changed && mSkipped >= MAX_SKIPPED_FRAMES) {
+            changed = true;
+        }
+
+        if (changed) {
+            mSkipped = 0;
+            if (mMode == Mode.BLOCK_DIFFERENCE) {
+                byte[] swap = mReference;
+                mReference = mCurrent;
+                mCurrent = swap;
+                mHasReference = true;
+            }
+        } else {
+            mSkipped++;
+            mGatedFrames++;
+        }
+        return changed;
+    }
+
+    /**
+     * 比較の基準を忘れる。次のフレームは必ず変わったとみなす
+     */
+    public void reset() {
+        mHasReference = false;
+        mHasBackground = false;
+        mSkipped = 0;
+    }
+
+    /**
+     * 最後に調べたフレームの変化量。BLOCK_DIFFERENCE ならブロックの平均絶対差の最大値、
+     * MOG2, KNN なら前景の割合
+     */
+    public double getLastChange() {
+        return mLastChange;
+    }
+
+    /**
+     * 変わっていないとして検出を飛ばしたフレームの割合 (0..1)
+     */
+    public double getGatingRatio() {
+        return mFrames == 0 ? 0 : (double) mGatedFrames / mFrames;
+    }
+
+    public long getFrameCount() {
+        return mFrames;
+    }
+
+    public long getGatedFrameCount() {
+        return mGatedFrames;
+    }
+
+    /**
+     * 作業領域を確保した回数
+     */
+    public long getBufferAllocationCount() {
+        return mBufferAllocations;
+    }
+
+    public void release() {
+        if (mSample != null) {
+            mSample.close();
+            mSample = null;
+        }
+        if (mForeground != null) {
+            mForeground.close();
+            mForeground = null;
+        }
+        reset();
+    }
+
+    private boolean blockDifference() {
+        int cols = mSample.cols();
+        int rows = mSample.rows();
+        int total = cols * rows;
+        if (mCurrent.length != total) {
+            // 大きさが変わったら基準も作り直す
+            mCurrent = new byte[total];
+            mReference = new byte[total];
+            mHasReference = false;
+            mBufferAllocations += 2;
+        }
+        mSample.get(0, 0, mCurrent);
+        if (!mHasReference) {
+            mLastChange = Double.MAX_VALUE;
+            return true;
+        }
+
+        double maxMad = 0;
+        for (int by = 0; by < rows; by += BLOCK_SIZE) {
+            int y1 = Math.min(rows, by + BLOCK_SIZE);
+            for (int bx = 0; bx < cols; bx += BLOCK_SIZE) {
+                int x1 = Math.min(cols, bx + BLOCK_SIZE);
+                int sum = 0;
+                for (int y = by; y < y1; y++) {
+                    int row = y * cols;
+                    for (int x = row + bx; x < row + x1; x++) {
+                        sum += Math.abs((mCurrent[x] & 0xff) - (mReference[x] & 0xff));
+                    }
+                }
+                maxMad = Math.max(maxMad, (double) sum / ((y1 - by) * (x1 - bx)));
+            }
+        }
+        mLastChange = maxMad;
+        return maxMad > mBlockThreshold;
+    }
+
+    private boolean foreground() {
+        BackgroundSubtractor subtractor;
+        if (mMode == Mode.MOG2) {
+            if (mMog2 == null) {
+                mMog2 = Video.createBackgroundSubtractorMOG2(MAX_SKIPPED_FRAMES * 4, 16, false);
+            }
+            subtractor = mMog2;
+        } else {
+            if (mKnn == null) {
+                mKnn = Video.createBackgroundSubtractorKNN(MAX_SKIPPED_FRAMES * 4, 400, false);
+            }
+            subtractor = mKnn;
+        }
+        if (mForeground == null) {
+            mForeground = new Mat();
+            mBufferAllocations++;
+        }
+        // 履歴を忘れた直後は学習率 1 で背景を今のフレームだけから作り直す
+        boolean first = !mHasBackground;
+        subtractor.apply(mSample, mForeground, first ? 1 : -1);
+        mHasBackground = true;
+        mLastChange = (double) Core.countNonZero(mForeground) / mForeground.total();
+        return first || mLastChange > mForegroundRatio;
+    }
+}
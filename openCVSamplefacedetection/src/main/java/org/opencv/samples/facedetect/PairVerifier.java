@@ -0,0 +1,324 @@
+package org.opencv.samples.facedetect;
+
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatBuffers;
+import org.opencv.core.RotatedRectBuffer;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * 目のペアを見た目で確かめる
+ * EyePairMatcher は minAreaRect の形 (大きさ、角度、間隔) だけで組にするので、
+ * 穴でないものの組も縁ちゃんの合成まで進んでしまう。
+ *
+ * フレームごとに積分画像 (Imgproc.integral2) を１回作り、組ごとに次の値を四隅の４点から求める。
+ * - 穴の中 (短い辺の INNER_RATIO 倍の正方形) の平均と、穴の外接矩形の周り (RING_RATIO) の平均の差
+ * - ２つの穴の間の面板 (中点の周りの正方形) の標準偏差と、面板と穴の平均の差
+ * 穴が周りより MIN_CONTRAST 以上暗く、面板が一様で穴より明るい組だけを残す。
+ * 積分画像は組を調べるときに初めて作るので、組がないフレームでは作らない。
+ * MatBuffers が使えれば積分画像を direct buffer で直接読み、四隅ごとに JNI を呼ばない。
+ */
+public class PairVerifier {
+
+    /** 穴の中として平均を取る正方形の１辺 / 短い辺 (傾いていても穴の中に収まる) */
+    private static final double INNER_RATIO = 0.7;
+    /** 穴の周りとして外接矩形の外に広げる幅 / 短い辺 */
+    private static final double RING_RATIO = 0.75;
+    /** 面板として調べる正方形の１辺 / 穴の中心の間隔 */
+    private static final double PLATE_RATIO = 0.4;
+    /** 穴はその周りや面板よりこれ以上暗い [輝度] */
+    private static final double DEFAULT_MIN_CONTRAST = 20;
+    /** 面板の標準偏差の上限 [輝度] */
+    private static final double DEFAULT_MAX_PLATE_STDDEV = 24;
+
+    private double mMinContrast = DEFAULT_MIN_CONTRAST;
+    private double mMaxPlateStddev = DEFAULT_MAX_PLATE_STDDEV;
+
+    private Mat mImage;
+    private double mScale = 1;
+    private boolean mIntegralValid = false;
+    private Mat mSum;
+    private Mat mSqSum;
+    private int mCols;
+    private int mRows;
+    private final int[] mSumCell = new int[1];
+    private final double[] mSqSumCell = new double[1];
+    // 積分画像のメモリを直接読む view (MatBuffers が使えないときは null)
+    // MatBuffers が使えるかは最初に積分画像を作るとき (ネイティブライブラリを読み込んだ後) に１回だけ調べる
+    private boolean mViewsChecked = false;
+    private boolean mUseViews = false;
+    private IntBuffer mSumView;
+    private DoubleBuffer mSqSumView;
+    private long mSumViewAddr;
+    private long mSqSumViewAddr;
+    private final double[] mBounds = new double[RotatedRectBuffer.BOUND_VALUES];
+    /** slotContrast() で求めた２つの穴の中の平均 */
+    private final double[] mSlotMeans = new double[2];
+    // box() で決めた画素の範囲 [x0, x1) x [y0, y1)
+    private int mX0;
+    private int mY0;
+    private int mX1;
+    private int mY1;
+
+    // 最後に調べた組の値
+    private double mLastContrast;
+    private double mLastPlateStddev;
+
+    // 統計
+    private long mVerified = 0;
+    private long mRejected = 0;
+    private long mIntegrals = 0;
+    private long mBufferAllocations = 0;
+
+    /**
+     * 穴とその周りの平均の差の下限 [輝度]
+     */
+    public void setMinContrast(double contrast) {
+        mMinContrast = contrast;
+    }
+
+    public double getMinContrast() {
+        return mMinContrast;
+    }
+
+    /**
+     * 面板の標準偏差の上限 [輝度]
+     */
+    public void setMaxPlateStddev(double stddev) {
+        mMaxPlateStddev = stddev;
+    }
+
+    public double getMaxPlateStddev() {
+        return mMaxPlateStddev;
+    }
+
+    /**
+     * このフレームで調べる画像を設定する。積分画像は次の verify() で作る
+     * @param gray グレー画像 (検出に使った縮小画像でよい)。verify() を呼ぶ間は書き換えない
+     * @param scale 候補の座標 / gray の座標
+     */
+    public void setImage(Mat gray, double scale) {
+        mImage = gray;
+        mScale = scale;
+        mIntegralValid = false;
+    }
+
+    /**
+     * 画像を忘れる。次に setImage() するまで verify() はどの組も残す
+     */
+    public void clearImage() {
+        mImage = null;
+        mIntegralValid = false;
+    }
+
+    /**
+     * rects の first 番目と second 番目の組が穴の組に見えるか調べる
+     * @return 残すなら true。画像が設定されていなければ true
+     */
+    public boolean verify(RotatedRectBuffer rects, int first, int second) {
+        if (mImage == null) {
+            return true;
+        }
+        if (!mIntegralValid) {
+            computeIntegral();
+        }
+        mVerified++;
+
+        double contrast = Math.min(slotContrast(rects, first, 0), slotContrast(rects, second, 1));
+
+        // ２つの穴の中点の周りの面板
+        double s = 1.0 / mScale;
+        double half = 0.5 * PLATE_RATIO * rects.distance(first, second) * s;
+        double mx = 0.5 * (rects.centerX[first] + rects.centerX[second]) * s;
+        double my = 0.5 * (rects.centerY[first] + rects.centerY[second]) * s;
+        boolean plateOk = true;
+        mLastPlateStddev = 0;
+        if (box(mx - half, my - half, mx + half, my + half)) {
+            double area = (double) (mX1 - mX0) * (mY1 - mY0);
+            double mean = sum() / area;
+            double variance = Math.max(0, sqSum() / area - mean * mean);
+            mLastPlateStddev = Math.sqrt(variance);
+            plateOk = mLastPlateStddev <= mMaxPlateStddev && mean - Math.max(mSlotMeans[0], mSlotMeans[1]) >= mMinContrast;
+        }
+
+        mLastContrast = contrast;
+        boolean ok = mLastContrast >= mMinContrast && plateOk;
+        if (!ok) {
+            mRejected++;
+        }
+        return ok;
+    }
+
+    /**
+     * 最後に調べた組の、穴とその周りの平均の差の小さい方 [輝度]
+     */
+    public double getLastContrast() {
+        return mLastContrast;
+    }
+
+    /**
+     * 最後に調べた組の面板の標準偏差 [輝度]
+     */
+    public double getLastPlateStddev() {
+        return mLastPlateStddev;
+    }
+
+    /**
+     * 調べた組の数
+     */
+    public long getVerifiedCount() {
+        return mVerified;
+    }
+
+    /**
+     * 見た目で落とした組の数
+     */
+    public long getRejectedCount() {
+        return mRejected;
+    }
+
+    /**
+     * 調べた組のうち落とした割合 (0..1)
+     */
+    public double getRejectionRate() {
+        return mVerified == 0 ? 0 : (double) mRejected / mVerified;
+    }
+
+    /**
+     * 積分画像を作った回数
+     */
+    public long getIntegralCount() {
+        return mIntegrals;
+    }
+
+    /**
+     * 作業領域を確保した回数
+     */
+    public long getBufferAllocationCount() {
+        return mBufferAllocations;
+    }
+
+    public void release() {
+        if (mSum != null) {
+            mSum.close();
+            mSqSum.close();
+            mSum = null;
+            mSqSum = null;
+        }
+        // Mat を解放したので view も使えない
+        mSumView = null;
+        mSqSumView = null;
+        mSumViewAddr = 0;
+        mSqSumViewAddr = 0;
+        clearImage();
+    }
+
+    /**
+     * 穴の周りの平均 - 穴の中の平均。穴の中の平均は mSlotMeans[slot] に書く
+     * @return 調べられないときは MAX_VALUE
+     */
+    private double slotContrast(RotatedRectBuffer rects, int i, int slot) {
+        double s = 1.0 / mScale;
+        double cx = rects.centerX[i] * s;
+        double cy = rects.centerY[i] * s;
+        double shortSide = Math.min(rects.width[i], rects.height[i]) * s;
+
+        // 画像の外なら面板との比較で落とさないように 0 にする
+        double mean = 0;
+        double half = 0.5 * INNER_RATIO * shortSide;
+        if (box(cx - half, cy - half, cx + half, cy + half)) {
+            mean = sum() / ((double) (mX1 - mX0) * (mY1 - mY0));
+        }
+        mSlotMeans[slot] = mean;
+
+        // 外接矩形を広げた矩形から外接矩形を引いた周り
+        rects.bounds(i, mBounds, 0);
+        double margin = RING_RATIO * shortSide;
+        if (!box(mBounds[0] * s, mBounds[1] * s, mBounds[2] * s, mBounds[3] * s)) {
+            return Double.MAX_VALUE;
+        }
+        double innerSum = sum();
+        long innerArea = (long) (mX1 - mX0) * (mY1 - mY0);
+        if (!box(mBounds[0] * s - margin, mBounds[1] * s - margin, mBounds[2] * s + margin, mBounds[3] * s + margin)) {
+            return Double.MAX_VALUE;
+        }
+        long ringArea = (long) (mX1 - mX0) * (mY1 - mY0) - innerArea;
+        if (ringArea <= 0) {
+            return Double.MAX_VALUE;
+        }
+        return (sum() - innerSum) / ringArea - mean;
+    }
+
+    /**
+     * 画像の中に切り詰めた範囲を mX0 などに設定する
+     * @return 範囲が空なら false
+     */
+    private boolean box(double x0, double y0, double x1, double y1) {
+        mX0 = Math.max(0, (int) Math.floor(x0));
+        mY0 = Math.max(0, (int) Math.floor(y0));
+        mX1 = Math.min(mCols, (int) Math.ceil(x1));
+        mY1 = Math.min(mRows, (int) Math.ceil(y1));
+        return mX1 > mX0 && mY1 > mY0;
+    }
+
+    /** mX0 などの範囲の画素の和 */
+    private double sum() {
+        return sumCell(mY1, mX1) - sumCell(mY0, mX1) - sumCell(mY1, mX0) + sumCell(mY0, mX0);
+    }
+
+    /** mX0 などの範囲の画素の２乗の和 */
+    private double sqSum() {
+        return sqSumCell(mY1, mX1) - sqSumCell(mY0, mX1) - sqSumCell(mY1, mX0) + sqSumCell(mY0, mX0);
+    }
+
+    private int sumCell(int row, int col) {
+        if (mSumView != null) {
+            return mSumView.get(row * (mCols + 1) + col);
+        }
+        mSum.get(row, col, mSumCell);
+        return mSumCell[0];
+    }
+
+    private double sqSumCell(int row, int col) {
+        if (mSqSumView != null) {
+            return mSqSumView.get(row * (mCols + 1) + col);
+        }
+        mSqSum.get(row, col, mSqSumCell);
+        return mSqSumCell[0];
+    }
+
+    private void computeIntegral() {
+        if (mSum == null) {
+            mSum = new Mat();
+            mSqSum = new Mat();
+            mBufferAllocations += 2;
+        }
+        // 8bit の画像なら 32bit の和で 8M 画素まで溢れない
+        Imgproc.integral2(mImage, mSum, mSqSum, CvType.CV_32S, CvType.CV_64F);
+        mCols = mImage.cols();
+        mRows = mImage.rows();
+        mIntegralValid = true;
+        mIntegrals++;
+
+        // view は積分画像を作り直して場所か大きさが変わったときだけ取り直す
+        if (!mViewsChecked) {
+            mUseViews = MatBuffers.isAvailable();
+            mViewsChecked = true;
+        }
+        if (mUseViews) {
+            if (mSum.dataAddr() != mSumViewAddr || mSumView.capacity() != mSum.total()) {
+                mSumView = MatBuffers.view(mSum).asIntBuffer();
+                mSumViewAddr = mSum.dataAddr();
+                mBufferAllocations++;
+            }
+            if (mSqSum.dataAddr() != mSqSumViewAddr || mSqSumView.capacity() != mSqSum.total()) {
+                mSqSumView = MatBuffers.view(mSqSum).asDoubleBuffer();
+                mSqSumViewAddr = mSqSum.dataAddr();
+                mBufferAllocations++;
+            }
+        }
+    }
+}
@@ -0,0 +1,1163 @@
+package org.opencv.samples.facedetect;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatPool;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.RotatedRect;
+import org.opencv.core.RotatedRectBuffer;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * コンセント検出パイプライン
+ * blur → Otsu threshold → Canny → findContours → minAreaRect → 目のペア → 縁ちゃん合成
+ *
+ * 二値化の閾値は ThresholdEstimator で間引いた画像から求め、フレーム間で安定させる
+ * (setStableThreshold(false) で毎フレーム THRESH_OTSU に戻せる)。
+ *
+ * 形で組にした目のペアは PairVerifier で見た目 (穴の暗さと面板の一様さ) を確かめ、
+ * 穴でない組を縁ちゃんの合成の前に落とす (setPairVerificationEnabled(false) で止められる)。
+ *
+ * 動きの判定を有効にすると、RECT, EYE, EYES の状態で前回検出したときからシーンが変わっていなければ
+ * blur から候補の取り出しまでを飛ばし、前回の結果を描き直す (MotionGate)。
+ *
+ * 候補の取り出し方は setCandidateBackend() で切り替えられる。
+ * COMPONENTS にすると Canny と findContours の代わりに、二値画像の連結成分から候補を作る。
+ *
+ * 作業用の Mat は start() で確保して stop() で解放する。
+ * 定常状態ではパイプライン自身は Java オブジェクトも Mat も確保しない。
+ *
+ * 目は十分大きいので、輪郭の検出は pyrDown で縮小したグレー画像でも行える (検出レベル)。
+ * 見つかった RotatedRect は元の解像度に戻してから判定・描画・合成に使う。
+ * 目標の処理時間を設定すると、FrameBudgetGovernor が段階ごとの処理時間を測り、
+ * デバッグ表示 → 合成の補間 → 検出の間隔 → 検出レベル の順に品質を下げ、余裕ができたら戻す。
+ *
+ * setTileThreads() でスレッド数を設定すると、blur、固定の閾値の threshold、Canny を
+ * TileExecutor で横長の帯に分けて並列に処理する (OpenCV 自身が並列化しない端末でも複数のコアを使う)。
+ *
+ * 追跡を有効にすると、EYES の状態では EyePairTracker が目のペアの位置を予測し、
+ * 全体の検出は数フレームに１回だけにして、それ以外は予測位置の周りだけを探す。
+ */
+public class SocketDetectionPipeline {
+
+    public enum State { ORIGNAL, BLUR, FILTER, CANNY, RECT, EYE, EYES }
+
+    /** 処理時間を計測する単位。FrameBudgetGovernor にはまとめて cost として渡す */
+    public enum Stage {
+        MOTION(FrameBudgetGovernor.Cost.DETECT),
+        PYRAMID(FrameBudgetGovernor.Cost.DETECT),
+        BLUR(FrameBudgetGovernor.Cost.DETECT),
+        THRESHOLD(FrameBudgetGovernor.Cost.DETECT),
+        CANNY(FrameBudgetGovernor.Cost.DETECT),
+        CONTOURS(FrameBudgetGovernor.Cost.DETECT),
+        COMPONENTS(FrameBudgetGovernor.Cost.DETECT),
+        CANDIDATES(FrameBudgetGovernor.Cost.DETECT),
+        PAIRING(FrameBudgetGovernor.Cost.PAIR),
+        WARP(FrameBudgetGovernor.Cost.WARP),
+        COMPOSITE(FrameBudgetGovernor.Cost.COMPOSITE),
+        DEBUG_DRAW(FrameBudgetGovernor.Cost.DEBUG_DRAW);
+
+        final FrameBudgetGovernor.Cost cost;
+
+        Stage(FrameBudgetGovernor.Cost cost) {
+            this.cost = cost;
+        }
+    }
+
+    /** 目の候補の取り出し方 */
+    public enum CandidateBackend {
+        /** Canny → findContours → minAreaRect (CandidateExtractor) */
+        CONTOURS,
+        /** connectedComponentsWithStats (ComponentCandidateExtractor)。Canny を使わない */
+        COMPONENTS
+    }
+
+    /** 検出レベルの画像の探索範囲の部分画像。元の画像と範囲が同じなら使い回す */
+    private static class RegionView {
+        long addr;
+        int rows;
+        int cols;
+        int type;
+        final Rect rect = new Rect();
+        long lastUse;
+        Mat mat;
+
+        boolean matches(Mat src, Rect region) {
+            return mat != null && src.dataAddr() == addr && src.rows() == rows && src.cols() == cols
+                    && src.type() == type && region.equals(rect);
+        }
+    }
+
+    private static final int STAGE_COUNT = Stage.values().length;
+
+    private static final boolean debug = true;
+    private static final double longAspect = 23/6;
+    private static final double shortAspect = 17/6;
+    private static final double minWidth = 10;
+    private static final double minHeight = shortAspect * minWidth;
+    private static final double maxWidth = 40;
+    private static final double maxHeight = longAspect * maxWidth;
+
+    private static final int WARP_SIZE_STEP = 16;
+    /** 探索範囲の位置と大きさをそろえる単位 [検出レベルの px]。少し動いただけなら部分画像を作り直さない */
+    private static final int REGION_ALIGN = 8;
+    /** 覚えておく探索範囲の部分画像の数。検出レベル 0 ではプレビューバッファごとに元の画像が違う */
+    private static final int REGION_CACHE_SIZE = 4;
+
+    /** 検出レベルの最大値。2 で 1/4 の解像度になり、minWidth の目が 2.5px になる */
+    public static final int MAX_DETECTION_LEVEL = 2;
+    /** 検出レベルごとの blur のカーネル。pyrDown でぼかした分だけ小さくする */
+    private static final Size[] blurSizes = { new Size(7, 7), new Size(3, 3), new Size(3, 3) };
+    /** setSprite(Mat) で登録するスプライトの名前 */
+    public static final String DEFAULT_SPRITE = "yukari";
+    /** スプライトのキャッシュが使ってよいメモリ [byte] */
+    private static final long SPRITE_CACHE_BUDGET = 16 * 1024 * 1024;
+
+    private static final Scalar eyeColor = new Scalar(255, 0, 0);
+    private static final Scalar rectColor = new Scalar(0, 255, 0);
+    private static final Scalar transparent = new Scalar(0, 0, 0, 0);
+    private static final Point labelOrigin = new Point(140, 140);
+    private static final Point rectOrigin = new Point(200, 200);
+    private static final Point minRectCorner = new Point(200 + minWidth, 200 + minHeight);
+    private static final Point maxRectCorner = new Point(200 + maxWidth, 200 + maxHeight);
+
+    private State mState = State.EYES;
+    private int mDetectionLevel = 0;
+    private final FrameBudgetGovernor mGovernor = new FrameBudgetGovernor();
+    private boolean mDetected = false;
+    private double mDetectionScale = 1;
+    private boolean mTrackingEnabled = false;
+    private boolean mStableThreshold = true;
+    private final ThresholdEstimator mThresholdEstimator = new ThresholdEstimator();
+    private boolean mMotionGating = false;
+    private final MotionGate mMotionGate = new MotionGate();
+    private boolean mGated = false;
+    private final EyePairTracker mTracker = new EyePairTracker();
+    private boolean mPairVerification = true;
+    private final PairVerifier mVerifier = new PairVerifier();
+    // UI スレッドから切り替えられるので、フレームの始めに１回だけ読む
+    private volatile int mTileThreads = 1;
+    private TileExecutor mTiles;
+    private final TileExecutor.GaussianBlur mTileBlur = new TileExecutor.GaussianBlur();
+    private final TileExecutor.Threshold mTileThreshold = new TileExecutor.Threshold();
+    private final TileExecutor.Canny mTileCanny = new TileExecutor.Canny();
+
+    // 検出用の作業領域
+    // 縮小した画像は検出レベルごとに確保する。mBlur などは全体を確保して、縮小時は左上の部分を使う
+    private final Mat[] mPyramid = new Mat[MAX_DETECTION_LEVEL + 1];
+    private final Mat[] mBlurLevels = new Mat[MAX_DETECTION_LEVEL + 1];
+    private final Mat[] mThresholdLevels = new Mat[MAX_DETECTION_LEVEL + 1];
+    private final Mat[] mCannyLevels = new Mat[MAX_DETECTION_LEVEL + 1];
+    private Mat mDisplay;
+    // 探索範囲だけ調べるときの部分画像。範囲が変わったときだけ作り直し、stop() で解放する
+    private final RegionView[] mRegionViews = new RegionView[REGION_CACHE_SIZE];
+    private long mRegionUseCount = 0;
+    // mBlur, mThreshold, mCanny の左上の部分。大きさが変わったときだけ作り直す
+    private final Mat[] mRegionHeaders = new Mat[3];
+    private int mRegionRows;
+    private int mRegionCols;
+    private final Rect mSearchRegion = new Rect();
+    private final Point mContourOffset = new Point();
+    private Mat mBlur;
+    private Mat mThreshold;
+    private Mat mCanny;
+    // UI スレッドから切り替えられるので、フレームの始めに１回だけ読む
+    private volatile CandidateBackend mCandidateBackend = CandidateBackend.CONTOURS;
+    private final CandidateExtractor mExtractor = new CandidateExtractor();
+    private final ComponentCandidateExtractor mComponents = new ComponentCandidateExtractor();
+
+    private RotatedRect[] mCandidates = new RotatedRect[0];
+    private final RotatedRectBuffer mCandidateRects = new RotatedRectBuffer();
+    private int mCandidateCount = 0;
+    private EyePair[] mEyes = new EyePair[0];
+    private int mEyeCount = 0;
+    private final EyePairMatcher mMatcher = new EyePairMatcher();
+    /** 最後に縁ちゃんを描いた目のペア。検出を飛ばしたフレームで描き直す */
+    private EyePair mOverlayPair;
+
+    // 合成用の作業領域
+    private final SpriteCache mSpriteCache = new SpriteCache(SPRITE_CACHE_BUDGET);
+    /** 合成するスプライトの名前。キャッシュから捨てられることがあるので、フレームごとに引き直す */
+    private String mSpriteKey;
+    private Mat mAffine;
+    private Mat mWarped;
+    private final AlphaCompositor mCompositor = new AlphaCompositor();
+    private final Rect mSpriteBounds = new Rect();
+    private final Size mWarpSize = new Size();
+    private final Size mFrameSize = new Size();
+    private final double[] mAffineBuf = new double[6];
+    private final double[] mCorners1 = new double[RotatedRectBuffer.CORNER_VALUES];
+    private final double[] mCorners2 = new double[RotatedRectBuffer.CORNER_VALUES];
+    private final Point mLineFrom = new Point();
+    private final Point mLineTo = new Point();
+    /** 作業用の Mat を借りるプール (null なら直接確保する) */
+    private MatPool mMatPool;
+
+    // 確保回数のカウンタ
+    private long mFrameCount = 0;
+    private long mMatAllocations = 0;
+    private long mObjectAllocations = 0;
+    private long mBindingAllocations = 0;
+
+    // 段階ごとの処理時間 (tick)
+    private final long[] mStageTicks = new long[STAGE_COUNT];
+    private final long[] mStageRuns = new long[STAGE_COUNT];
+    private long mLastTick;
+
+    /**
+     * 作業用の Mat をフレームサイズで確保する
+     * @param width
+     * @param height
+     */
+    public void start(int width, int height) {
+        stop();
+        mFrameSize.width = width;
+        mFrameSize.height = height;
+
+        mBlur = allocMat(height, width, CvType.CV_8UC1);
+        mThreshold = allocMat(height, width, CvType.CV_8UC1);
+        mCanny = allocMat(height, width, CvType.CV_8UC1);
+        mDisplay = allocMat(height, width, CvType.CV_8UC1);
+        mBlurLevels[0] = mBlur;
+        mThresholdLevels[0] = mThreshold;
+        mCannyLevels[0] = mCanny;
+        int levelWidth = width;
+        int levelHeight = height;
+        for (int level = 1; level <= MAX_DETECTION_LEVEL; level++) {
+            // pyrDown の出力と同じ大きさ
+            levelWidth = (levelWidth + 1) / 2;
+            levelHeight = (levelHeight + 1) / 2;
+            mPyramid[level] = allocMat(levelHeight, levelWidth, CvType.CV_8UC1);
+            mBlurLevels[level] = mBlur.submat(0, levelHeight, 0, levelWidth);
+            mThresholdLevels[level] = mThreshold.submat(0, levelHeight, 0, levelWidth);
+            mCannyLevels[level] = mCanny.submat(0, levelHeight, 0, levelWidth);
+            mMatAllocations += 3;
+        }
+
+        mAffine = allocMat(2, 3, CvType.CV_64FC1);
+        mWarped = allocMat(0, 0, CvType.CV_8UC4);
+    }
+
+    /**
+     * 作業用の Mat を解放する
+     */
+    public void stop() {
+        releaseRegionHeaders();
+        mTracker.release();
+        for (int level = 1; level <= MAX_DETECTION_LEVEL; level++) {
+            mPyramid[level] = releaseMat(mPyramid[level]);
+            mBlurLevels[level] = releaseMat(mBlurLevels[level]);
+            mThresholdLevels[level] = releaseMat(mThresholdLevels[level]);
+            mCannyLevels[level] = releaseMat(mCannyLevels[level]);
+        }
+        mBlurLevels[0] = null;
+        mThresholdLevels[0] = null;
+        mCannyLevels[0] = null;
+        mDisplay = releaseMat(mDisplay);
+        mBlur = releaseMat(mBlur);
+        mThreshold = releaseMat(mThreshold);
+        mCanny = releaseMat(mCanny);
+        mExtractor.release();
+        mComponents.release();
+        mThresholdEstimator.release();
+        mMotionGate.release();
+        mVerifier.release();
+        shutdownTiles();
+        mOverlayPair = null;
+        mAffine = releaseMat(mAffine);
+        mWarped = releaseMat(mWarped);
+        mSpriteCache.clear();
+        mSpriteKey = null;
+        mCandidateCount = 0;
+        mEyeCount = 0;
+    }
+
+    /**
+     * 縁ちゃん画像 (RGBA) を設定する。乗算済みアルファのピラミッドをキャッシュに作るので、
+     * 渡した Mat は呼び出し側で解放してよい。start() の後に呼ぶ
+     * @param sprite null なら合成しない
+     */
+    public void setSprite(Mat sprite) {
+        if (sprite == null) {
+            mSpriteCache.remove(DEFAULT_SPRITE);
+            mSpriteKey = null;
+            return;
+        }
+        mSpriteCache.put(DEFAULT_SPRITE, sprite);
+        mSpriteKey = DEFAULT_SPRITE;
+    }
+
+    /**
+     * キャッシュに登録済みのスプライトに切り替える
+     * @param key getSpriteCache().put() で登録した名前
+     * @return 見つからなければ false (合成しなくなる)
+     */
+    public boolean setSprite(String key) {
+        mSpriteKey = mSpriteCache.get(key) != null ? key : null;
+        return mSpriteKey != null;
+    }
+
+    /**
+     * スプライトのキャッシュ。start() の後に put() で複数登録して setSprite(String) で切り替える
+     * stop() で空になる
+     */
+    public SpriteCache getSpriteCache() {
+        return mSpriteCache;
+    }
+
+    public AlphaCompositor getCompositor() {
+        return mCompositor;
+    }
+
+    public void setState(State state) {
+        if (state == mState) {
+            return;
+        }
+        mState = state;
+        // 表示が変わるので、次のフレームは必ず検出する
+        mMotionGate.reset();
+    }
+
+    public State getState() {
+        return mState;
+    }
+
+    /**
+     * 輪郭を検出する解像度を設定する。level 回 pyrDown した画像で検出する
+     * 目標の処理時間を設定している間は、これより粗い方へ自動で変わる
+     * @param level 0 から MAX_DETECTION_LEVEL
+     */
+    public void setDetectionLevel(int level) {
+        if (level < 0 || level > MAX_DETECTION_LEVEL) {
+            throw new IllegalArgumentException("detection level must be from 0 to " + MAX_DETECTION_LEVEL + ": " + level);
+        }
+        mDetectionLevel = level;
+    }
+
+    /**
+     * 今使っている検出レベル (setDetectionLevel() の値と FrameBudgetGovernor が下げた分の大きい方)
+     */
+    public int getDetectionLevel() {
+        return Math.max(mDetectionLevel, mGovernor.getDetectionLevel());
+    }
+
+    /**
+     * 作業用の Mat をプールから借り、stop() で返すようにする。次の start() から使う
+     * カメラを止めて同じ解像度で再開したときに確保し直さない
+     * @param pool null なら直接確保して解放する
+     */
+    public void setMatPool(MatPool pool) {
+        mMatPool = pool;
+    }
+
+    public MatPool getMatPool() {
+        return mMatPool;
+    }
+
+    /**
+     * 目のペアの追跡を有効にする。EYES の状態のときだけ使う
+     * 全体を検出する間隔は getTracker().setDetectionInterval() で設定する
+     * @param enabled
+     */
+    public void setTrackingEnabled(boolean enabled) {
+        mTrackingEnabled = enabled;
+        mTracker.reset();
+    }
+
+    public boolean isTrackingEnabled() {
+        return mTrackingEnabled;
+    }
+
+    public EyePairTracker getTracker() {
+        return mTracker;
+    }
+
+    /**
+     * シーンが変わっていないフレームで検出を飛ばすかどうか。判定の方法は getMotionGate() で設定する
+     * 飛ばしたフレームの割合は getMotionGate().getGatingRatio()
+     * @param enabled
+     */
+    public void setMotionGatingEnabled(boolean enabled) {
+        mMotionGating = enabled;
+        mMotionGate.reset();
+    }
+
+    /**
+     * blur, threshold, Canny を帯に分けて並列に処理するスレッドの数 (呼び出したスレッドを含む)
+     * 次のフレームから使う。THRESH_OTSU は全体のヒストグラムが要るので、
+     * setStableThreshold(false) のときの threshold は並列にしない
+     * @param threads 1 なら帯に分けない
+     */
+    public void setTileThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1: " + threads);
+        }
+        mTileThreads = threads;
+    }
+
+    public int getTileThreads() {
+        return mTileThreads;
+    }
+
+    public boolean isMotionGatingEnabled() {
+        return mMotionGating;
+    }
+
+    public MotionGate getMotionGate() {
+        return mMotionGate;
+    }
+
+    /**
+     * 形で組にした目のペアを見た目でも確かめるかどうか
+     * 落とした割合は getPairVerifier().getRejectionRate()
+     * @param enabled
+     */
+    public void setPairVerificationEnabled(boolean enabled) {
+        mPairVerification = enabled;
+    }
+
+    public boolean isPairVerificationEnabled() {
+        return mPairVerification;
+    }
+
+    public PairVerifier getPairVerifier() {
+        return mVerifier;
+    }
+
+    /**
+     * 直前のフレームで検出を飛ばしたか
+     */
+    public boolean isLastFrameGated() {
+        return mGated;
+    }
+
+    /**
+     * 二値化の閾値をフレーム間で安定させるかどうか
+     * false なら毎フレーム全画素で THRESH_OTSU を計算する
+     * @param stable
+     */
+    public void setStableThreshold(boolean stable) {
+        mStableThreshold = stable;
+        mThresholdEstimator.reset();
+    }
+
+    public boolean isStableThreshold() {
+        return mStableThreshold;
+    }
+
+    public ThresholdEstimator getThresholdEstimator() {
+        return mThresholdEstimator;
+    }
+
+    /**
+     * 目の候補の取り出し方を切り替える。次のフレームから使う
+     * COMPONENTS のときは CANNY の状態でも二値画像を表示する
+     * @param backend
+     */
+    public void setCandidateBackend(CandidateBackend backend) {
+        if (backend == null) {
+            throw new IllegalArgumentException("backend must not be null");
+        }
+        mCandidateBackend = backend;
+    }
+
+    public CandidateBackend getCandidateBackend() {
+        return mCandidateBackend;
+    }
+
+    /**
+     * 1フレームの処理時間の目標を設定する。処理時間の移動平均が目標を超えたら品質を下げ、
+     * 余裕があれば戻す。RECT, EYE, EYES の状態のフレームだけで判断する
+     * 何をどこまで下げているかは getGovernor() で調べる
+     * @param millis 0 なら自動調整しない
+     */
+    public void setTargetFrameMillis(double millis) {
+        mGovernor.setTargetFrameMillis(millis);
+    }
+
+    public double getTargetFrameMillis() {
+        return mGovernor.getTargetFrameMillis();
+    }
+
+    /**
+     * 処理時間の移動平均 [ms] (RECT, EYE, EYES の状態のフレームのみ)
+     */
+    public double getFrameMillis() {
+        return mGovernor.getFrameMillis();
+    }
+
+    public FrameBudgetGovernor getGovernor() {
+        return mGovernor;
+    }
+
+    /**
+     * 1フレーム分の処理
+     * @param gray カメラ画像 (グレースケール)
+     * @param rgba カメラ画像 (RGBA)
+     * @return 表示する画像
+     */
+    public Mat process(Mat gray, Mat rgba) {
+        mFrameCount++;
+        long startTick = Core.getTickCount();
+        mLastTick = startTick;
+        boolean scheduled = mGovernor.beginFrame();
+        Mat frame = processFrame(gray, rgba, scheduled);
+        // 動きがなくて検出を飛ばしたフレームの処理時間では品質を決めない
+        if (!mGated && (mState == State.RECT || mState == State.EYE || mState == State.EYES)) {
+            mGovernor.endFrame((Core.getTickCount() - startTick) * 1000.0 / Core.getTickFrequency(), mDetected);
+        }
+        return frame;
+    }
+
+    /**
+     * @param scheduled false なら RECT, EYE, EYES の状態で検出せずに前回の結果を描き直す
+     */
+    private Mat processFrame(Mat gray, Mat rgba, boolean scheduled) {
+        if (debug && mState == State.ORIGNAL) {
+            Imgproc.putText(rgba, mState.toString(), labelOrigin, Core.FONT_HERSHEY_SIMPLEX, 5f, eyeColor);
+            return rgba;
+        }
+
+        mGated = false;
+        mDetected = false;
+        if (!scheduled && (mState == State.RECT || mState == State.EYE || mState == State.EYES)) {
+            return drawPreviousEyes(rgba);
+        }
+        if (mMotionGating && (mState == State.RECT || mState == State.EYE || mState == State.EYES)) {
+            boolean changed = mMotionGate.hasChanged(gray);
+            endStage(Stage.MOTION);
+            if (!changed) {
+                mGated = true;
+                return drawPreviousEyes(rgba);
+            }
+        }
+
+        // 検出レベルの分だけ縮小する
+        mDetected = true;
+        int level = getDetectionLevel();
+        mDetectionScale = 1 << level;
+        Mat detectionGray = gray;
+        for (int k = 1; k <= level; k++) {
+            Imgproc.pyrDown(detectionGray, mPyramid[k]);
+            detectionGray = mPyramid[k];
+        }
+        // 探索範囲だけ調べるときも、ペアの確認は検出レベルの画像全体で行う
+        mVerifier.setImage(detectionGray, mDetectionScale);
+        endStage(Stage.PYRAMID);
+
+        Mat blur = mBlurLevels[level];
+        Mat threshold = mThresholdLevels[level];
+        Mat canny = mCannyLevels[level];
+        mContourOffset.x = 0;
+        mContourOffset.y = 0;
+        boolean regionOnly = false;
+        boolean tracking = mTrackingEnabled && mState == State.EYES;
+        if (!tracking && mTracker.isTracking()) {
+            mTracker.reset();
+        }
+        if (tracking) {
+            boolean detection = mTracker.needsDetection();
+            mTracker.beginFrame(detection);
+            if (!detection && searchRegion(level, detectionGray)) {
+                // 予測した位置の周りだけを調べる。作業領域も同じ大きさの左上の部分を使う
+                Rect region = mSearchRegion;
+                detectionGray = regionView(detectionGray, region);
+                prepareRegionHeaders(region.height, region.width);
+                blur = mRegionHeaders[0];
+                threshold = mRegionHeaders[1];
+                canny = mRegionHeaders[2];
+                mContourOffset.x = region.x;
+                mContourOffset.y = region.y;
+                regionOnly = true;
+            }
+        }
+
+        // 探索範囲は小さいので帯に分けない
+        TileExecutor tiles = regionOnly ? null : tileExecutor();
+        if (tiles != null) {
+            mTileBlur.ksize.width = blurSizes[level].width;
+            mTileBlur.ksize.height = blurSizes[level].height;
+            tiles.run(detectionGray, blur, mTileBlur);
+        } else {
+            Imgproc.GaussianBlur(detectionGray, blur, blurSizes[level], 0, 0);
+        }
+        endStage(Stage.BLUR);
+        if (debug && mState == State.BLUR) {
+            return debugView(blur, level);
+        }
+
+        double highThreshold;
+        if (mStableThreshold) {
+            // 探索範囲だけのフレームはヒストグラムが違うので、全体で求めた閾値をそのまま使う
+            highThreshold = regionOnly && mThresholdEstimator.hasThreshold()
+                    ? mThresholdEstimator.getThreshold() : mThresholdEstimator.estimate(blur);
+            if (tiles != null) {
+                mTileThreshold.threshold = highThreshold;
+                tiles.run(blur, threshold, mTileThreshold);
+            } else {
+                Imgproc.threshold(blur, threshold, highThreshold, 255, Imgproc.THRESH_BINARY_INV);
+            }
+        } else {
+            highThreshold = Imgproc.threshold(blur, threshold, 0, 255, Imgproc.THRESH_BINARY_INV + Imgproc.THRESH_OTSU);
+        }
+        double lowThreshold = 0.5 * highThreshold;
+        endStage(Stage.THRESHOLD);
+        if (debug && mState == State.FILTER) {
+            return debugView(threshold, level);
+        }
+
+        CandidateBackend backend = mCandidateBackend;
+        if (backend == CandidateBackend.COMPONENTS) {
+            // 二値画像の塊をそのまま使うので Canny はいらない
+            if (debug && mState == State.CANNY) {
+                return debugView(threshold, level);
+            }
+            findCandidates(threshold, backend);
+        } else {
+            if (tiles != null) {
+                mTileCanny.lowThreshold = lowThreshold;
+                mTileCanny.highThreshold = highThreshold;
+                tiles.run(threshold, canny, mTileCanny);
+            } else {
+                Imgproc.Canny(threshold, canny, lowThreshold, highThreshold);
+            }
+            endStage(Stage.CANNY);
+            if (debug && mState == State.CANNY) {
+                return debugView(canny, level);
+            }
+            findCandidates(canny, backend);
+        }
+        endStage(Stage.CANDIDATES);
+
+        return drawEyes(rgba);
+    }
+
+    /**
+     * 追跡している目のペアの探索範囲を検出レベルの座標で mSearchRegion に求める
+     * @return 範囲が空なら false
+     */
+    private boolean searchRegion(int level, Mat detectionGray) {
+        Rect region = mSearchRegion;
+        mTracker.searchRegion(region, (int) mFrameSize.width, (int) mFrameSize.height);
+        // REGION_ALIGN の倍数に広げて、同じ部分画像を使えるフレームを増やす
+        int x0 = (region.x >> level) / REGION_ALIGN * REGION_ALIGN;
+        int y0 = (region.y >> level) / REGION_ALIGN * REGION_ALIGN;
+        int x1 = Math.min(detectionGray.cols(), alignUp((region.x + region.width + (1 << level) - 1) >> level));
+        int y1 = Math.min(detectionGray.rows(), alignUp((region.y + region.height + (1 << level) - 1) >> level));
+        region.x = x0;
+        region.y = y0;
+        region.width = Math.max(0, x1 - x0);
+        region.height = Math.max(0, y1 - y0);
+        return region.width > 0 && region.height > 0;
+    }
+
+    private static int alignUp(int value) {
+        return (value + REGION_ALIGN - 1) / REGION_ALIGN * REGION_ALIGN;
+    }
+
+    /**
+     * src の region の部分画像を返す。覚えていなければ一番古いものを作り直す
+     * 部分画像は元の画像のデータを参照していて、その間データは解放されないので、
+     * アドレスと大きさが同じなら同じ画像の同じ場所を指している (TileExecutor と同じ考え方)。
+     */
+    private Mat regionView(Mat src, Rect region) {
+        RegionView oldest = null;
+        for (int i = 0; i < mRegionViews.length; i++) {
+            RegionView view = mRegionViews[i];
+            if (view == null) {
+                view = mRegionViews[i] = new RegionView();
+                mObjectAllocations++;
+            }
+            if (view.matches(src, region)) {
+                view.lastUse = ++mRegionUseCount;
+                return view.mat;
+            }
+            if (oldest == null || view.lastUse < oldest.lastUse) {
+                oldest = view;
+            }
+        }
+        releaseMat(oldest.mat);
+        oldest.mat = src.submat(region);
+        mBindingAllocations++;
+        oldest.addr = src.dataAddr();
+        oldest.rows = src.rows();
+        oldest.cols = src.cols();
+        oldest.type = src.type();
+        oldest.rect.x = region.x;
+        oldest.rect.y = region.y;
+        oldest.rect.width = region.width;
+        oldest.rect.height = region.height;
+        oldest.lastUse = ++mRegionUseCount;
+        return oldest.mat;
+    }
+
+    /**
+     * 作業領域の左上 rows x cols の部分を mRegionHeaders に用意する
+     */
+    private void prepareRegionHeaders(int rows, int cols) {
+        if (mRegionHeaders[0] != null && rows == mRegionRows && cols == mRegionCols) {
+            return;
+        }
+        for (int i = 0; i < mRegionHeaders.length; i++) {
+            mRegionHeaders[i] = releaseMat(mRegionHeaders[i]);
+        }
+        mRegionHeaders[0] = mBlur.submat(0, rows, 0, cols);
+        mRegionHeaders[1] = mThreshold.submat(0, rows, 0, cols);
+        mRegionHeaders[2] = mCanny.submat(0, rows, 0, cols);
+        mBindingAllocations += mRegionHeaders.length;
+        mRegionRows = rows;
+        mRegionCols = cols;
+    }
+
+    private void releaseRegionHeaders() {
+        for (RegionView view : mRegionViews) {
+            if (view != null) {
+                view.mat = releaseMat(view.mat);
+                view.addr = 0;
+            }
+        }
+        for (int i = 0; i < mRegionHeaders.length; i++) {
+            mRegionHeaders[i] = releaseMat(mRegionHeaders[i]);
+        }
+    }
+
+    /**
+     * デバッグ表示用に、縮小した画像をフレームの大きさに戻して状態を書き込む
+     */
+    private Mat debugView(Mat mat, int level) {
+        Mat view = mat;
+        if (level > 0) {
+            Imgproc.resize(mat, mDisplay, mFrameSize, 0, 0, Imgproc.INTER_NEAREST);
+            view = mDisplay;
+        }
+        Imgproc.putText(view, mState.toString(), labelOrigin, Core.FONT_HERSHEY_SIMPLEX, 5f, eyeColor);
+        return view;
+    }
+
+    public int getEyeCount() {
+        return mEyeCount;
+    }
+
+    public EyePair getEyes(int i) {
+        return mEyes[i];
+    }
+
+    int getCandidateCount() {
+        return mCandidateCount;
+    }
+
+    RotatedRect getCandidate(int i) {
+        return mCandidates[i];
+    }
+
+    /**
+     * 目の候補を差し替える (ベンチマーク用)
+     */
+    void setCandidates(RotatedRect[] candidates, int count) {
+        // 候補を作った画像がわからないので、ペアの確認はしない
+        mVerifier.clearImage();
+        mCandidates = candidates;
+        mCandidateRects.set(candidates, count);
+        mCandidateCount = count;
+    }
+
+    /**
+     * 処理したフレーム数
+     */
+    public long getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * パイプラインが確保した Mat の数。start() 以降は増えない
+     */
+    public long getMatAllocationCount() {
+        return mMatAllocations;
+    }
+
+    /**
+     * パイプラインが確保した Java オブジェクトの数 (バッファの拡張など)。ウォームアップ後は増えない
+     */
+    public long getObjectAllocationCount() {
+        return mObjectAllocations + mMatcher.getAllocationCount() + mExtractor.getBufferAllocationCount()
+                + mComponents.getBufferAllocationCount() + mThresholdEstimator.getBufferAllocationCount()
+                + mMotionGate.getBufferAllocationCount() + mVerifier.getBufferAllocationCount()
+                + mCandidateRects.getGrowCount() * 5;
+    }
+
+    /**
+     * OpenCV の Java ラッパーが内部で確保したオブジェクトの数
+     * (Java 実装の findContours の輪郭ごとの Mat と minAreaRect の RotatedRect、部分画像、KalmanFilter の Mat)
+     */
+    public long getBindingAllocationCount() {
+        return mBindingAllocations + mTracker.getBindingAllocationCount() + mExtractor.getBindingAllocationCount()
+                + (mTiles != null ? mTiles.getBindingAllocationCount() : 0);
+    }
+
+    /**
+     * 設定したスレッド数の TileExecutor。スレッド数が変わったら作り直す
+     * @return 帯に分けないなら null
+     */
+    private TileExecutor tileExecutor() {
+        int threads = mTileThreads;
+        if (mTiles != null && mTiles.getThreadCount() != threads) {
+            shutdownTiles();
+        }
+        if (mTiles == null && threads > 1) {
+            mTiles = new TileExecutor(threads);
+            mObjectAllocations++;
+        }
+        return mTiles;
+    }
+
+    private void shutdownTiles() {
+        if (mTiles != null) {
+            mTiles.shutdown();
+            mBindingAllocations += mTiles.getBindingAllocationCount();
+            mTiles = null;
+        }
+    }
+
+    /**
+     * 段階ごとの平均処理時間 [ms]
+     * @param stage
+     * @return まだ一度も実行していなければ 0
+     */
+    public double getStageMillis(Stage stage) {
+        long runs = mStageRuns[stage.ordinal()];
+        if (runs == 0) {
+            return 0;
+        }
+        return mStageTicks[stage.ordinal()] * 1000.0 / Core.getTickFrequency() / runs;
+    }
+
+    public void resetStageTimes() {
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            mStageTicks[i] = 0;
+            mStageRuns[i] = 0;
+        }
+    }
+
+    private void endStage(Stage stage) {
+        long now = Core.getTickCount();
+        mStageTicks[stage.ordinal()] += now - mLastTick;
+        mStageRuns[stage.ordinal()]++;
+        mGovernor.addCost(stage.cost, (now - mLastTick) * 1000.0 / Core.getTickFrequency());
+        mLastTick = now;
+    }
+
+    private Mat allocMat(int rows, int cols, int type) {
+        mMatAllocations++;
+        return mMatPool != null ? mMatPool.lease(rows, cols, type) : new Mat(rows, cols, type);
+    }
+
+    /**
+     * プールがあれば返す (submat はプールが閉じる)。なければ閉じる
+     */
+    private Mat releaseMat(Mat mat) {
+        if (mat == null) {
+            return null;
+        }
+        if (mMatPool != null) {
+            mMatPool.recycle(mat);
+        } else {
+            mat.close();
+        }
+        return null;
+    }
+
+    /**
+     * １つの目の条件を満たす候補を集める
+     * 候補の RotatedRect は使い回し、足りなくなったときだけ作る
+     * @param image CONTOURS ならエッジ画像、COMPONENTS なら二値画像
+     * @param backend
+     */
+    private void findCandidates(Mat image, CandidateBackend backend) {
+        double areaMinThreshold = minWidth * minHeight;
+        double areaMaxThreshold = maxWidth * maxHeight;
+        double aspectMinThreshold = longAspect * 0.7;
+        double aspectMaxThreshold = longAspect / 0.7;
+
+        if (debug && mState == State.RECT) {
+            areaMinThreshold *= 0.8;
+            areaMaxThreshold /= 0.8;
+            aspectMinThreshold *= 0.8;
+            aspectMaxThreshold /= 0.8;
+        }
+
+        // 探索範囲だけ調べたときは範囲の左上の分だけずらし、縮小した画像の座標は元の解像度に戻す
+        int count;
+        float[] packed;
+        if (backend == CandidateBackend.COMPONENTS) {
+            count = mComponents.extract(image, mContourOffset, mDetectionScale,
+                    areaMinThreshold, areaMaxThreshold, aspectMinThreshold, aspectMaxThreshold);
+            packed = mComponents.getPacked();
+            endStage(Stage.COMPONENTS);
+        } else {
+            count = mExtractor.extract(image, mContourOffset, mDetectionScale,
+                    areaMinThreshold, areaMaxThreshold, aspectMinThreshold, aspectMaxThreshold);
+            packed = mExtractor.getPacked();
+            endStage(Stage.CONTOURS);
+        }
+
+        if (mCandidates.length < count) {
+            RotatedRect[] grown = new RotatedRect[Math.max(count, Math.max(16, mCandidates.length * 2))];
+            System.arraycopy(mCandidates, 0, grown, 0, mCandidates.length);
+            for (int i = mCandidates.length; i < grown.length; i++) {
+                grown[i] = new RotatedRect();
+            }
+            mObjectAllocations += 1 + grown.length - mCandidates.length;
+            mCandidates = grown;
+        }
+        for (int i = 0; i < count; i++) {
+            RotatedRect rr = mCandidates[i];
+            int p = i * CandidateExtractor.FIELDS;
+            rr.center.x = packed[p];
+            rr.center.y = packed[p + 1];
+            rr.size.width = packed[p + 2];
+            rr.size.height = packed[p + 3];
+            rr.angle = packed[p + 4];
+        }
+        // ペア探しは RotatedRect を経由せずに配列で行う
+        mCandidateRects.set(packed, count);
+        mCandidateCount = count;
+    }
+
+    CandidateExtractor getExtractor() {
+        return mExtractor;
+    }
+
+    ComponentCandidateExtractor getComponentExtractor() {
+        return mComponents;
+    }
+
+    private void addEyePair(RotatedRect rr1, RotatedRect rr2) {
+        if (mEyeCount == mEyes.length) {
+            EyePair[] grown = new EyePair[Math.max(8, mEyes.length * 2)];
+            System.arraycopy(mEyes, 0, grown, 0, mEyeCount);
+            for (int i = mEyeCount; i < grown.length; i++) {
+                grown[i] = new EyePair();
+            }
+            mObjectAllocations += 1 + grown.length - mEyeCount;
+            mEyes = grown;
+        }
+        mEyes[mEyeCount++].set(rr1, rr2);
+    }
+
+    private void drawEye(RotatedRect bbox, Mat frame) {
+        RotatedRectBuffer.corners(bbox, mCorners1, 0);
+        for (int i = 0; i < 4; i++) {
+            int j = (i + 1) % 4;
+            mLineFrom.x = mCorners1[i * 2];
+            mLineFrom.y = mCorners1[i * 2 + 1];
+            mLineTo.x = mCorners1[j * 2];
+            mLineTo.y = mCorners1[j * 2 + 1];
+            Imgproc.line(frame, mLineFrom, mLineTo, eyeColor, 2);
+        }
+    }
+
+    /**
+     * 目の候補から、目の条件を満たすペアを集める。条件に良く合う順に並ぶ
+     */
+    void pairEyes() {
+        mEyeCount = 0;
+        int pairs = mMatcher.match(mCandidateRects);
+        for (int k = 0; k < pairs; k++) {
+            int first = mMatcher.getFirst(k);
+            int second = mMatcher.getSecond(k);
+            if (mPairVerification && !mVerifier.verify(mCandidateRects, first, second)) {
+                continue;
+            }
+            addEyePair(mCandidates[first], mCandidates[second]);
+        }
+    }
+
+    EyePairMatcher getMatcher() {
+        return mMatcher;
+    }
+
+    private Mat drawEyes(Mat frame) {
+        pairEyes();
+        endStage(Stage.PAIRING);
+        if (debug && mState == State.EYES) {
+            mOverlayPair = selectOverlayPair();
+            frame = drawYukari(frame, mOverlayPair);
+        }
+        return drawDebug(frame);
+    }
+
+    /**
+     * 検出を飛ばしたフレームに、前回の候補と縁ちゃんを描き直す
+     */
+    private Mat drawPreviousEyes(Mat frame) {
+        if (debug && mState == State.EYES) {
+            frame = drawYukari(frame, mOverlayPair);
+        }
+        return drawDebug(frame);
+    }
+
+    /**
+     * デバッグ表示を描く。候補は EYE, RECT の状態の表示そのものなので、品質を下げても描く
+     */
+    private Mat drawDebug(Mat frame) {
+        if (mState == State.EYE || mState == State.RECT) {
+            // デバッグ表示では、ペアにならなかった候補も全部描く
+            for (int i = 0; i < mCandidateCount; i++) {
+                drawEye(mCandidates[i], frame);
+            }
+        }
+        if (mGovernor.isDebugOverlayEnabled()) {
+            Imgproc.putText(frame, mState.toString(), labelOrigin, Core.FONT_HERSHEY_SIMPLEX, 5f, eyeColor);
+            frame = drawRect(frame);
+        }
+        endStage(Stage.DEBUG_DRAW);
+        return frame;
+    }
+
+    /**
+     *  縁ちゃん画像の目の位置を合わせるためのアフィン変換行列を計算
+     *  変換元の3点は (0,0), (w,0), (w,h) なので、拡大縮小と平行移動だけの行列になる
+     *  行列は mAffineBuf に、変換後の縁ちゃんが描かれる範囲は mSpriteBounds に書き込む
+     *  ピラミッドの段は変換後の大きさで選ぶので、拡大率は選んだ段の大きさに対して求める
+     * @param sprite
+     * @param rr1
+     * @param rr2
+     * @return 変換元にするピラミッドの段
+     */
+    private Mat computeAffineTransform(SpriteCache.Sprite sprite, RotatedRect rr1, RotatedRect rr2) {
+        RotatedRectBuffer.corners(rr1, mCorners1, 0);
+        RotatedRectBuffer.corners(rr2, mCorners2, 0);
+
+        double tlx = mCorners1[0];
+        double tly = mCorners1[1];
+        double brx = tlx;
+        double bry = tly;
+        double tld = Math.sqrt(tlx * tlx + tly * tly);
+        double brd = tld;
+        for (int k = 0; k < 8; k++) {
+            double[] corners = k < 4 ? mCorners1 : mCorners2;
+            double x = corners[(k % 4) * 2];
+            double y = corners[(k % 4) * 2 + 1];
+            double d = Math.sqrt(x * x + y * y);
+            if (d <= tld) {
+                tlx = x;
+                tly = y;
+                tld = d;
+            }
+            if (d >= brd) {
+                brx = x;
+                bry = y;
+                brd = d;
+            }
+        }
+        double width = brx - tlx;
+        double height = bry - tly;
+
+        double left = tlx - 1.4 * width;
+        double top = tly - 2.3 * height;
+        double right = brx + 1.6 * width;
+        double bottom = bry + 3.4 * height;
+
+        double scale = Math.max(Math.abs(right - left) / sprite.width(), Math.abs(bottom - top) / sprite.height());
+        Mat foregroundImage = sprite.selectLevel(scale);
+
+        mAffineBuf[0] = (right - left) / foregroundImage.cols();
+        mAffineBuf[1] = 0;
+        mAffineBuf[2] = left;
+        mAffineBuf[3] = 0;
+        mAffineBuf[4] = (bottom - top) / foregroundImage.rows();
+        mAffineBuf[5] = top;
+
+        // 変換後の縁ちゃんが描かれる範囲 (フレームの中に切り詰める)
+        int x0 = Math.max(0, (int) Math.floor(Math.min(left, right)));
+        int y0 = Math.max(0, (int) Math.floor(Math.min(top, bottom)));
+        int x1 = Math.min((int) mFrameSize.width, (int) Math.ceil(Math.max(left, right)) + 1);
+        int y1 = Math.min((int) mFrameSize.height, (int) Math.ceil(Math.max(top, bottom)) + 1);
+        mSpriteBounds.x = x0;
+        mSpriteBounds.y = y0;
+        mSpriteBounds.width = Math.max(0, x1 - x0);
+        mSpriteBounds.height = Math.max(0, y1 - y0);
+        return foregroundImage;
+    }
+
+    /**
+     * 縁ちゃんを描く目のペアを選ぶ
+     * 追跡しているときは、予測に近いペアで追跡を補正して、なめらかにしたペアを返す
+     * @return 描かないときは null
+     */
+    private EyePair selectOverlayPair() {
+        if (!mTrackingEnabled) {
+            return mEyeCount > 0 ? mEyes[0] : null;
+        }
+        EyePair measured = mTracker.select(mEyes, mEyeCount);
+        if (measured != null) {
+            mTracker.correct(measured);
+        } else {
+            mTracker.miss();
+        }
+        return mTracker.getPair();
+    }
+
+    /**
+     * 指定した目のペアに縁ちゃんを描く
+     * @param frame
+     * @param eyePair null なら何もしない
+     * @return
+     */
+    Mat drawYukari(Mat frame, EyePair eyePair) {
+        if (mSpriteKey == null || eyePair == null) {
+            return frame;
+        }
+        // 引くたびに最近使ったものになるので、他のスプライトを登録しても先に捨てられにくい。
+        // それでも上限を超えて捨てられたり、同じ名前で置き換えられたりしたら、そのときのものを使う
+        SpriteCache.Sprite sprite = mSpriteCache.get(mSpriteKey);
+        if (sprite == null) {
+            return frame;
+        }
+
+        Mat level = computeAffineTransform(sprite, eyePair.first, eyePair.second);
+        if (mSpriteBounds.width == 0 || mSpriteBounds.height == 0) {
+            return frame;
+        }
+
+        // 縁ちゃんが描かれる範囲だけ変換する。範囲の左上が原点になるように平行移動をずらす
+        mAffineBuf[2] -= mSpriteBounds.x;
+        mAffineBuf[5] -= mSpriteBounds.y;
+        mAffine.put(0, 0, mAffineBuf);
+
+        // 大きさが少し変わるたびに確保し直さないように、作業領域は 16px 単位で切り上げる
+        mWarpSize.width = roundUp(mSpriteBounds.width, WARP_SIZE_STEP);
+        mWarpSize.height = roundUp(mSpriteBounds.height, WARP_SIZE_STEP);
+        Imgproc.warpAffine(level, mWarped, mAffine, mWarpSize, mGovernor.getWarpInterpolation(),
+                Core.BORDER_CONSTANT, transparent);
+        endStage(Stage.WARP);
+
+        // 範囲の中だけカメラ画像に直接合成する
+        mCompositor.composite(frame, mSpriteBounds.x, mSpriteBounds.y,
+                mWarped, 0, 0, mSpriteBounds.width, mSpriteBounds.height);
+        endStage(Stage.COMPOSITE);
+        return frame;
+    }
+
+    private static int roundUp(int value, int step) {
+        return (value + step - 1) / step * step;
+    }
+
+    /**
+     *  目の基準となる四角を描く
+     * @param frame
+     * @return
+     */
+    private Mat drawRect(Mat frame) {
+        if (!debug) {
+            return frame;
+        }
+        Imgproc.rectangle(frame, rectOrigin, minRectCorner, rectColor, 2);
+        Imgproc.rectangle(frame, rectOrigin, maxRectCorner, rectColor, 2);
+        return frame;
+    }
+}
@@ -0,0 +1,182 @@
+package org.opencv.samples.facedetect;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * 合成用の画像 (スプライト) のキャッシュ
+ * 読み込み時に乗算済みアルファに変換し、pyrDown で縮小したピラミッドを作っておく。
+ * 描画時は表示する大きさに一番近い (それより小さくない) 段を選ぶので、
+ * warpAffine で大きく縮小することがなくなり、速くてエイリアスも少ない。
+ *
+ * 複数のスプライトを持てる。合計サイズが上限を超えたら、最近使っていないものから捨てる。
+ */
+public class SpriteCache {
+
+    /** 一番小さい段の長辺の最小値 */
+    private static final int MIN_LEVEL_SIZE = 16;
+
+    /**
+     * １つのスプライトのピラミッド
+     */
+    public static class Sprite {
+        private final List<Mat> mLevels = new ArrayList<>();
+        private long mBytes = 0;
+
+        public int getLevelCount() {
+            return mLevels.size();
+        }
+
+        public Mat getLevel(int level) {
+            return mLevels.get(level);
+        }
+
+        /**
+         * 元の画像の幅
+         */
+        public int width() {
+            return mLevels.get(0).cols();
+        }
+
+        /**
+         * 元の画像の高さ
+         */
+        public int height() {
+            return mLevels.get(0).rows();
+        }
+
+        /**
+         * 元の画像を scale 倍して表示するときに使う段を選ぶ
+         * @param scale 元の画像に対する倍率
+         * @return 表示する大きさ以上で一番小さい段
+         */
+        public Mat selectLevel(double scale) {
+            int level = 0;
+            double levelScale = 1.0;
+            while (level + 1 < mLevels.size() && levelScale * 0.5 >= scale) {
+                level++;
+                levelScale *= 0.5;
+            }
+            return mLevels.get(level);
+        }
+
+        public long getBytes() {
+            return mBytes;
+        }
+
+        private void release() {
+            for (Mat level : mLevels) {
+                level.close();
+            }
+            mLevels.clear();
+            mBytes = 0;
+        }
+    }
+
+    private final LinkedHashMap<String, Sprite> mSprites = new LinkedHashMap<>(4, 0.75f, true);
+    private final long mBudgetBytes;
+    private long mBytes = 0;
+    private long mEvictions = 0;
+
+    /**
+     * @param budgetBytes キャッシュ全体で使ってよいメモリ [byte]
+     */
+    public SpriteCache(long budgetBytes) {
+        mBudgetBytes = budgetBytes;
+    }
+
+    /**
+     * RGBA 画像からピラミッドを作って登録する。同じ名前があれば置き換える
+     * 渡した Mat は呼び出し側で解放してよい
+     * @param key
+     * @param rgba
+     * @return 登録したスプライト
+     */
+    public Sprite put(String key, Mat rgba) {
+        remove(key);
+
+        Sprite sprite = new Sprite();
+        Mat base = new Mat();
+        AlphaCompositor.premultiply(rgba, base);
+        sprite.mLevels.add(base);
+        sprite.mBytes += base.total() * base.elemSize();
+
+        Mat level = base;
+        while (Math.max(level.cols(), level.rows()) / 2 >= MIN_LEVEL_SIZE) {
+            Mat next = new Mat();
+            Imgproc.pyrDown(level, next);
+            sprite.mLevels.add(next);
+            sprite.mBytes += next.total() * next.elemSize();
+            level = next;
+        }
+
+        mSprites.put(key, sprite);
+        mBytes += sprite.mBytes;
+        trim(sprite);
+        return sprite;
+    }
+
+    /**
+     * 登録したスプライトを返す (最近使ったものとして扱う)
+     * @param key
+     * @return なければ null
+     */
+    public Sprite get(String key) {
+        return mSprites.get(key);
+    }
+
+    public void remove(String key) {
+        Sprite sprite = mSprites.remove(key);
+        if (sprite != null) {
+            mBytes -= sprite.mBytes;
+            sprite.release();
+        }
+    }
+
+    public void clear() {
+        for (Sprite sprite : mSprites.values()) {
+            sprite.release();
+        }
+        mSprites.clear();
+        mBytes = 0;
+    }
+
+    public int size() {
+        return mSprites.size();
+    }
+
+    public long getBytes() {
+        return mBytes;
+    }
+
+    public long getBudgetBytes() {
+        return mBudgetBytes;
+    }
+
+    public long getEvictionCount() {
+        return mEvictions;
+    }
+
+    /**
+     * 上限を超えていたら最近使っていないものから捨てる。keep は捨てない
+     */
+    private void trim(Sprite keep) {
+        Iterator<Map.Entry<String, Sprite>> it = mSprites.entrySet().iterator();
+        while (mBytes > mBudgetBytes && it.hasNext()) {
+            Sprite sprite = it.next().getValue();
+            if (sprite == keep) {
+                continue;
+            }
+            it.remove();
+            mBytes -= sprite.mBytes;
+            sprite.release();
+            mEvictions++;
+        }
+    }
+}
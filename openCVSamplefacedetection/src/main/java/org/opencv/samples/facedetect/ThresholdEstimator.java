@@ -0,0 +1,203 @@
+package org.opencv.samples.facedetect;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * フレーム間で安定した Otsu の閾値を求める
+ * THRESH_OTSU は毎フレーム全画素のヒストグラムを作り、閾値がフレームごとにぶれる。
+ * Canny の閾値もこれで決まるので、検出結果までちらつく。
+ *
+ * ここでは画像を SAMPLE_STEP 画素おきに間引いた (INTER_NEAREST の resize) 小さい画像でヒストグラムを作り、
+ * ヒストグラムが前回 Otsu を計算したときから十分変わったときだけ Otsu の閾値を計算し直す。
+ * 使う閾値は計算した値に少しずつ近づけ、HYSTERESIS 以上離れたときだけ切り替える。
+ */
+public class ThresholdEstimator {
+
+    /** 間引く間隔 [px]。4 なら 1/16 の画素でヒストグラムを作る */
+    private static final int SAMPLE_STEP = 4;
+    /** 前回のヒストグラムとの差 (全変動距離 0..1) がこれを超えたら計算し直す */
+    private static final double HISTOGRAM_SHIFT = 0.08;
+    /** 計算した閾値に近づける移動平均の重み */
+    private static final double SMOOTHING = 0.2;
+    /** 使っている閾値とこれ以上離れたら切り替える [輝度] */
+    private static final double HYSTERESIS = 4;
+    private static final double EPSILON = 1.1920929e-07; // FLT_EPSILON (OpenCV の Otsu と同じ)
+
+    private Mat mSample;
+    private final Size mSampleSize = new Size();
+    private byte[] mPixels = new byte[0];
+    private final int[] mHistogram = new int[256];
+    private final int[] mReference = new int[256];
+    private int mReferenceTotal = 0;
+
+    private boolean mHasThreshold = false;
+    private double mOtsu;
+    private double mEstimate;
+    private double mThreshold;
+
+    // 統計
+    private long mEstimateCount = 0;
+    private long mRecomputeCount = 0;
+    private long mSwitchCount = 0;
+    private long mBufferAllocations = 0;
+
+    /**
+     * ヒストグラムを作って閾値を更新する
+     * @param gray 8bit のグレー画像 (blur の出力)
+     * @return 使う閾値。THRESH_BINARY_INV でこれより明るい画素が 0 になる
+     */
+    public double estimate(Mat gray) {
+        if (mSample == null) {
+            mSample = new Mat();
+            mBufferAllocations++;
+        }
+        mSampleSize.width = Math.max(1, gray.cols() / SAMPLE_STEP);
+        mSampleSize.height = Math.max(1, gray.rows() / SAMPLE_STEP);
+        Imgproc.resize(gray, mSample, mSampleSize, 0, 0, Imgproc.INTER_NEAREST);
+        int total = (int) mSample.total();
+        if (mPixels.length < total) {
+            mPixels = new byte[total];
+            mBufferAllocations++;
+        }
+        mSample.get(0, 0, mPixels);
+
+        int[] hist = mHistogram;
+        for (int i = 0; i < 256; i++) {
+            hist[i] = 0;
+        }
+        for (int i = 0; i < total; i++) {
+            hist[mPixels[i] & 0xff]++;
+        }
+        mEstimateCount++;
+
+        if (!mHasThreshold || shift(total) > HISTOGRAM_SHIFT) {
+            mOtsu = otsu(hist, total);
+            System.arraycopy(hist, 0, mReference, 0, 256);
+            mReferenceTotal = total;
+            mRecomputeCount++;
+        }
+
+        if (!mHasThreshold) {
+            mEstimate = mOtsu;
+            mThreshold = mOtsu;
+            mHasThreshold = true;
+            return mThreshold;
+        }
+        mEstimate += SMOOTHING * (mOtsu - mEstimate);
+        // 大きく離れたとき、または移動平均が落ち着いたときだけ切り替える
+        double rounded = Math.rint(mEstimate);
+        boolean settled = Math.abs(mEstimate - mOtsu) < 0.5;
+        if (Math.abs(mEstimate - mThreshold) >= HYSTERESIS || (settled && rounded != mThreshold)) {
+            mThreshold = rounded;
+            mSwitchCount++;
+        }
+        return mThreshold;
+    }
+
+    /**
+     * estimate() で最後に決めた閾値
+     */
+    public double getThreshold() {
+        return mThreshold;
+    }
+
+    public boolean hasThreshold() {
+        return mHasThreshold;
+    }
+
+    /**
+     * 閾値を忘れる。次の estimate() はその場の Otsu の値をそのまま使う
+     */
+    public void reset() {
+        mHasThreshold = false;
+        mReferenceTotal = 0;
+    }
+
+    /**
+     * estimate() を呼んだ回数
+     */
+    public long getEstimateCount() {
+        return mEstimateCount;
+    }
+
+    /**
+     * Otsu の閾値を計算し直した回数
+     */
+    public long getRecomputeCount() {
+        return mRecomputeCount;
+    }
+
+    /**
+     * 使う閾値を切り替えた回数
+     */
+    public long getSwitchCount() {
+        return mSwitchCount;
+    }
+
+    /**
+     * 作業領域を確保した回数
+     */
+    public long getBufferAllocationCount() {
+        return mBufferAllocations;
+    }
+
+    public void release() {
+        if (mSample != null) {
+            mSample.close();
+            mSample = null;
+        }
+        reset();
+    }
+
+    /**
+     * 前回 Otsu を計算したときのヒストグラムとの全変動距離 (0 なら同じ、1 なら重ならない)
+     */
+    private double shift(int total) {
+        if (mReferenceTotal == 0) {
+            return 1;
+        }
+        double a = 1.0 / total;
+        double b = 1.0 / mReferenceTotal;
+        double sum = 0;
+        for (int i = 0; i < 256; i++) {
+            sum += Math.abs(mHistogram[i] * a - mReference[i] * b);
+        }
+        return sum / 2;
+    }
+
+    /**
+     * クラス間分散が最大になる閾値。Imgproc.threshold の THRESH_OTSU と同じ計算
+     */
+    static double otsu(int[] hist, int total) {
+        double scale = 1.0 / total;
+        double mu = 0;
+        for (int i = 0; i < 256; i++) {
+            mu += i * (double) hist[i];
+        }
+        mu *= scale;
+
+        double mu1 = 0;
+        double q1 = 0;
+        double maxSigma = 0;
+        double maxVal = 0;
+        for (int i = 0; i < 256; i++) {
+            double p = hist[i] * scale;
+            mu1 *= q1;
+            q1 += p;
+            double q2 = 1.0 - q1;
+            if (Math.min(q1, q2) < EPSILON || Math.max(q1, q2) > 1.0 - EPSILON) {
+                continue;
+            }
+            mu1 = (mu1 + i * p) / q1;
+            double mu2 = (mu - q1 * mu1) / q2;
+            double sigma = q1 * q2 * (mu1 - mu2) * (mu1 - mu2);
+            if (sigma > maxSigma) {
+                maxSigma = sigma;
+                maxVal = i;
+            }
+        }
+        return maxVal;
+    }
+}
@@ -0,0 +1,421 @@
+package org.opencv.samples.facedetect;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * 画素ごとのフィルタを横長の帯に分けて、固定数のスレッドで並列に実行する
+ * OpenCV の関数には内部で並列化しないもの (ビルドによっては GaussianBlur, threshold, Canny も) があるので、
+ * 帯の submat ごとに呼び出して複数のコアを使う。
+ *
+ * 出力は dst の帯の submat に直接書くので、つなぎ合わせるためのコピーはいらない。
+ * GaussianBlur などのフィルタは BORDER_ISOLATED でなければ submat の外の画素も読むので、
+ * 帯の境目でも全体を一度に処理したときと同じ結果になる (halo 0)。
+ * Canny のように帯の中だけで完結してしまう処理は、上下に halo 行広げた帯を作業用の Mat に処理し、
+ * 帯の部分だけを dst にコピーする。
+ *
+ * 呼び出したスレッドも帯を１つずつ取って処理するので、スレッドを threads - 1 個作る。
+ * 帯の submat は Mat の場所と大きさごとに CACHE_SIZE 組まで覚えておき、同じ Mat なら使い回す
+ * (カメラのフレームのように数枚の Mat を順に使う場合も、毎回 submat を作らなくてよい)。
+ */
+public class TileExecutor {
+
+    /** 帯ごとに行う処理 */
+    public interface Operation {
+        /**
+         * 帯の上下に余分に読む必要がある行数
+         * 0 なら src の帯を dst の帯に直接処理する
+         */
+        int halo();
+
+        /**
+         * src の帯を処理して dst に書く。複数のスレッドから同時に呼ばれる
+         * @param src 入力の帯 (halo の分だけ上下に広い)
+         * @param dst 出力 (halo が 0 なら出力の帯、そうでなければ帯ごとの作業用の Mat)
+         */
+        void apply(Mat src, Mat dst);
+    }
+
+    /** GaussianBlur。submat の外の画素も読むので halo はいらない */
+    public static class GaussianBlur implements Operation {
+        public final Size ksize = new Size();
+
+        @Override
+        public int halo() {
+            return 0;
+        }
+
+        @Override
+        public void apply(Mat src, Mat dst) {
+            Imgproc.GaussianBlur(src, dst, ksize, 0, 0);
+        }
+    }
+
+    /** 固定の閾値の threshold (THRESH_OTSU は全体のヒストグラムが要るので使えない) */
+    public static class Threshold implements Operation {
+        public double threshold;
+        public double maxValue = 255;
+        public int type = Imgproc.THRESH_BINARY_INV;
+
+        @Override
+        public int halo() {
+            return 0;
+        }
+
+        @Override
+        public void apply(Mat src, Mat dst) {
+            Imgproc.threshold(src, dst, threshold, maxValue, type);
+        }
+    }
+
+    /**
+     * Canny。非極大値抑制と閾値の追跡は帯の中だけで行われるので、上下に HALO 行広げて処理する
+     * 二値画像の縁はどれも強いエッジなので、追跡が帯の外に伸びることはほとんどない
+     */
+    public static class Canny implements Operation {
+        private static final int HALO = 4;
+        public double lowThreshold;
+        public double highThreshold;
+
+        @Override
+        public int halo() {
+            return HALO;
+        }
+
+        @Override
+        public void apply(Mat src, Mat dst) {
+            Imgproc.Canny(src, dst, lowThreshold, highThreshold);
+        }
+    }
+
+    /** スレッドあたりの帯の数。コアの速さが違う端末でも、空いたスレッドが残りの帯を取れるようにする */
+    private static final int BANDS_PER_THREAD = 2;
+    /** これより薄い帯には分けない [行] */
+    private static final int MIN_BAND_ROWS = 16;
+
+    private final int mThreadCount;
+    private final Thread[] mWorkers;
+
+    // 実行中の処理 (mLock で守る)
+    private final Object mLock = new Object();
+    private boolean mShutdown = false;
+    private int mGeneration = 0;
+    private Operation mOperation;
+    private int mBandCount = 0;
+    private int mNextBand = 0;
+    private int mPendingBands = 0;
+    private RuntimeException mError;
+
+    /** 帯の submat の組 */
+    private static class Bands {
+        long addr;
+        int rows;
+        int cols;
+        int type;
+        int count;
+        int halo;
+        long lastUse;
+        Mat[] mats = new Mat[0];
+
+        boolean matches(Mat mat, int count, int halo) {
+            return mat.dataAddr() == addr && mat.rows() == rows && mat.cols() == cols && mat.type() == type
+                    && count == this.count && halo == this.halo;
+        }
+
+        void release() {
+            releaseAll(mats);
+            mats = new Mat[0];
+            addr = 0;
+            count = 0;
+        }
+    }
+
+    /** 覚えておく帯の submat の組の数 (入力と出力の Mat を合わせて) */
+    private static final int CACHE_SIZE = 8;
+    private final Bands[] mCache = new Bands[CACHE_SIZE];
+    private long mUseCount = 0;
+
+    // 実行中の帯 (run() の中で決めてからワーカーに渡す)
+    private Mat[] mSrcBands;
+    private Mat[] mDstBands;
+    private int mHalo;
+    // halo があるときの帯ごとの作業用の Mat と、その中の帯の部分
+    private Mat[] mScratch = new Mat[0];
+    private Mat[] mScratchBands = new Mat[0];
+    private int mScratchRows;
+    private int mScratchCols;
+    private int mScratchType;
+    private int mScratchHalo;
+
+    // 統計
+    private long mRuns = 0;
+    private long mBindingAllocations = 0;
+
+    /**
+     * @param threads 並列に処理するスレッドの数 (呼び出したスレッドを含む)
+     */
+    public TileExecutor(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1: " + threads);
+        }
+        mThreadCount = threads;
+        mWorkers = new Thread[threads - 1];
+        for (int i = 0; i < CACHE_SIZE; i++) {
+            mCache[i] = new Bands();
+        }
+        for (int i = 0; i < mWorkers.length; i++) {
+            mWorkers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    workerLoop();
+                }
+            }, "TileExecutor-" + (i + 1));
+            mWorkers[i].setDaemon(true);
+            mWorkers[i].start();
+        }
+    }
+
+    public int getThreadCount() {
+        return mThreadCount;
+    }
+
+    /**
+     * src を帯に分けて operation を並列に実行し、結果を dst に書く
+     * 全部の帯が終わるまで戻らない。同時に呼べるのは１つのスレッドだけ
+     * @param src 入力
+     * @param dst 出力。src と同じ大きさと型で確保しておく
+     * @param operation 帯ごとの処理
+     */
+    public synchronized void run(Mat src, Mat dst, Operation operation) {
+        int rows = src.rows();
+        if (dst.rows() != rows || dst.cols() != src.cols() || dst.type() != src.type()) {
+            throw new IllegalArgumentException("dst must have the same size and type as src");
+        }
+        mRuns++;
+        int bands = Math.max(1, Math.min(mThreadCount * BANDS_PER_THREAD, rows / MIN_BAND_ROWS));
+        if (mThreadCount == 1 || bands == 1) {
+            // 帯に分けないので halo もいらない
+            operation.apply(src, dst);
+            return;
+        }
+        int halo = operation.halo();
+        mSrcBands = findBands(src, bands, halo).mats;
+        mDstBands = findBands(dst, bands, 0).mats;
+        mHalo = halo;
+        if (halo > 0) {
+            prepareScratch(dst, bands, halo);
+        }
+
+        synchronized (mLock) {
+            mOperation = operation;
+            mBandCount = bands;
+            mNextBand = 0;
+            mPendingBands = bands;
+            mError = null;
+            mGeneration++;
+            mLock.notifyAll();
+        }
+        runBands();
+
+        RuntimeException error;
+        boolean interrupted = false;
+        synchronized (mLock) {
+            // ワーカーが src と dst を使っている間は戻れないので、割り込まれても待つ
+            while (mPendingBands > 0) {
+                try {
+                    mLock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            mOperation = null;
+            error = mError;
+            mError = null;
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * ワーカーのスレッドを止めて、帯の submat を解放する
+     */
+    public synchronized void shutdown() {
+        synchronized (mLock) {
+            mShutdown = true;
+            mLock.notifyAll();
+        }
+        for (Thread worker : mWorkers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        releaseBands();
+    }
+
+    /**
+     * run() を呼んだ回数
+     */
+    public long getRunCount() {
+        return mRuns;
+    }
+
+    /**
+     * 帯の submat や作業用の Mat を作った数
+     */
+    public long getBindingAllocationCount() {
+        return mBindingAllocations;
+    }
+
+    private void workerLoop() {
+        int seen = 0;
+        while (true) {
+            synchronized (mLock) {
+                while (mGeneration == seen && !mShutdown) {
+                    try {
+                        mLock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (mShutdown) {
+                    return;
+                }
+                seen = mGeneration;
+            }
+            runBands();
+        }
+    }
+
+    /**
+     * 残っている帯を１つずつ取って処理する
+     */
+    private void runBands() {
+        while (true) {
+            int band;
+            Operation operation;
+            synchronized (mLock) {
+                if (mNextBand >= mBandCount) {
+                    return;
+                }
+                band = mNextBand++;
+                operation = mOperation;
+            }
+            try {
+                if (mHalo == 0) {
+                    operation.apply(mSrcBands[band], mDstBands[band]);
+                } else {
+                    operation.apply(mSrcBands[band], mScratch[band]);
+                    mScratchBands[band].copyTo(mDstBands[band]);
+                }
+            } catch (RuntimeException e) {
+                synchronized (mLock) {
+                    if (mError == null) {
+                        mError = e;
+                    }
+                }
+            } finally {
+                synchronized (mLock) {
+                    if (--mPendingBands == 0) {
+                        mLock.notifyAll();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * mat を count 個の帯に分けた submat の組を返す。覚えていなければ一番古い組を作り直す
+     * submat は元の Mat のデータを参照していて、その間データは解放されないので、
+     * アドレスと大きさが同じなら同じ Mat の同じ場所を指している。
+     */
+    private Bands findBands(Mat mat, int count, int halo) {
+        Bands oldest = mCache[0];
+        for (Bands bands : mCache) {
+            if (bands.matches(mat, count, halo)) {
+                bands.lastUse = ++mUseCount;
+                return bands;
+            }
+            if (bands.lastUse < oldest.lastUse) {
+                oldest = bands;
+            }
+        }
+        oldest.release();
+        int rows = mat.rows();
+        int cols = mat.cols();
+        oldest.mats = new Mat[count];
+        for (int band = 0; band < count; band++) {
+            int y0 = Math.max(0, rows * band / count - halo);
+            int y1 = Math.min(rows, rows * (band + 1) / count + halo);
+            oldest.mats[band] = mat.submat(y0, y1, 0, cols);
+        }
+        mBindingAllocations += count;
+        oldest.addr = mat.dataAddr();
+        oldest.rows = rows;
+        oldest.cols = cols;
+        oldest.type = mat.type();
+        oldest.count = count;
+        oldest.halo = halo;
+        oldest.lastUse = ++mUseCount;
+        return oldest;
+    }
+
+    /**
+     * halo の分だけ上下に広い帯を処理するための作業用の Mat を用意する
+     */
+    private void prepareScratch(Mat dst, int count, int halo) {
+        int rows = dst.rows();
+        int cols = dst.cols();
+        if (mScratch.length == count && rows == mScratchRows && cols == mScratchCols
+                && dst.type() == mScratchType && halo == mScratchHalo) {
+            return;
+        }
+        releaseScratch();
+        mScratch = new Mat[count];
+        mScratchBands = new Mat[count];
+        for (int band = 0; band < count; band++) {
+            int y0 = rows * band / count;
+            int y1 = rows * (band + 1) / count;
+            int h0 = Math.max(0, y0 - halo);
+            int h1 = Math.min(rows, y1 + halo);
+            mScratch[band] = new Mat(h1 - h0, cols, dst.type());
+            mScratchBands[band] = mScratch[band].submat(y0 - h0, y1 - h0, 0, cols);
+        }
+        mBindingAllocations += 2 * count;
+        mScratchRows = rows;
+        mScratchCols = cols;
+        mScratchType = dst.type();
+        mScratchHalo = halo;
+    }
+
+    private void releaseBands() {
+        for (Bands bands : mCache) {
+            bands.release();
+        }
+        mSrcBands = null;
+        mDstBands = null;
+        releaseScratch();
+    }
+
+    private void releaseScratch() {
+        releaseAll(mScratchBands);
+        releaseAll(mScratch);
+        mScratch = new Mat[0];
+        mScratchBands = new Mat[0];
+    }
+
+    private static void releaseAll(Mat[] mats) {
+        for (Mat mat : mats) {
+            if (mat != null) {
+                mat.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+#include <AlphaCompositor_jni.h>
+#include <opencv2/core/core.hpp>
+
+#include <android/log.h>
+
+#define LOG_TAG "FaceDetection/AlphaCompositor"
+#define LOGD(...) ((void)__android_log_print(ANDROID_LOG_DEBUG, LOG_TAG, __VA_ARGS__))
+
+using namespace cv;
+
+// x / 255, rounded (0 <= x <= 255 * 255)
+static inline int div255(int x)
+{
+    x += 128;
+    return (x + (x >> 8)) >> 8;
+}
+
+JNIEXPORT void JNICALL Java_org_opencv_samples_facedetect_AlphaCompositor_nativeProbe
+(JNIEnv *, jclass)
+{
+}
+
+JNIEXPORT void JNICALL Java_org_opencv_samples_facedetect_AlphaCompositor_nativeComposite
+(JNIEnv * jenv, jclass, jlong dstAddr, jint dstX, jint dstY, jlong srcAddr, jint srcX, jint srcY, jint width, jint height)
+{
+    try
+    {
+        Mat& dst = *((Mat*)dstAddr);
+        const Mat& src = *((Mat*)srcAddr);
+        CV_Assert(dst.type() == CV_8UC4 && src.type() == CV_8UC4);
+
+        for (int row = 0; row < height; row++)
+        {
+            uchar* d = dst.ptr<uchar>(dstY + row) + dstX * 4;
+            const uchar* s = src.ptr<uchar>(srcY + row) + srcX * 4;
+            for (int col = 0; col < width; col++, d += 4, s += 4)
+            {
+                int a = s[3];
+                if (a == 0)
+                    continue;
+                if (a == 255)
+                {
+                    *(unsigned int*)d = *(const unsigned int*)s;
+                    continue;
+                }
+                int ia = 255 - a;
+                d[0] = saturate_cast<uchar>(s[0] + div255(d[0] * ia));
+                d[1] = saturate_cast<uchar>(s[1] + div255(d[1] * ia));
+                d[2] = saturate_cast<uchar>(s[2] + div255(d[2] * ia));
+                d[3] = saturate_cast<uchar>(a + div255(d[3] * ia));
+            }
+        }
+    }
+    catch(cv::Exception& e)
+    {
+        LOGD("nativeComposite caught cv::Exception: %s", e.what());
+        jclass je = jenv->FindClass("org/opencv/core/CvException");
+        if(!je)
+            je = jenv->FindClass("java/lang/Exception");
+        jenv->ThrowNew(je, e.what());
+    }
+    catch (...)
+    {
+        LOGD("nativeComposite caught unknown exception");
+        jclass je = jenv->FindClass("java/lang/Exception");
+        jenv->ThrowNew(je, "Unknown exception in JNI code of AlphaCompositor.nativeComposite()");
+    }
+}
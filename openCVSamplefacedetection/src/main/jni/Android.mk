@@ -15,7 +15,7 @@ else
   include /Users/kenji/Downloads/OpenCV-android-sdk/sdk/native/jni/OpenCV.mk
 endif
 
-LOCAL_SRC_FILES  := DetectionBasedTracker_jni.cpp
+LOCAL_SRC_FILES  := DetectionBasedTracker_jni.cpp AlphaCompositor_jni.cpp CandidateExtractor_jni.cpp MatBuffers_jni.cpp ContourBuffer_jni.cpp
 LOCAL_C_INCLUDES += $(LOCAL_PATH)
 LOCAL_LDLIBS     += -llog -ldl
 
@@ -0,0 +1,93 @@
+#include <CandidateExtractor_jni.h>
+#include <opencv2/core/core.hpp>
+#include <opencv2/imgproc/imgproc.hpp>
+
+#include <vector>
+#include <algorithm>
+
+#include <android/log.h>
+
+#define LOG_TAG "FaceDetection/CandidateExtractor"
+#define LOGD(...) ((void)__android_log_print(ANDROID_LOG_DEBUG, LOG_TAG, __VA_ARGS__))
+
+using namespace std;
+using namespace cv;
+
+static const int FIELDS = org_opencv_samples_facedetect_CandidateExtractor_FIELDS;
+
+// Same single-eye test as CandidateExtractor.isEye()
+static inline bool isEye(double width, double height,
+                         double minArea, double maxArea, double minAspect, double maxAspect)
+{
+    double area = width * height;
+    if (area < minArea || area > maxArea)
+        return false;
+    double aspect = std::max(width, height) / std::min(width, height);
+    return aspect >= minAspect && aspect <= maxAspect;
+}
+
+JNIEXPORT void JNICALL Java_org_opencv_samples_facedetect_CandidateExtractor_nativeProbe
+(JNIEnv *, jclass)
+{
+}
+
+JNIEXPORT jfloatArray JNICALL Java_org_opencv_samples_facedetect_CandidateExtractor_nativeExtract
+(JNIEnv * jenv, jclass, jlong edgesAddr, jint offsetX, jint offsetY, jdouble scale,
+ jdouble minArea, jdouble maxArea, jdouble minAspect, jdouble maxAspect, jfloatArray buffer, jintArray counts)
+{
+    try
+    {
+        Mat& edges = *((Mat*)edgesAddr);
+        vector<vector<Point> > contours;
+        vector<Vec4i> hierarchy;
+        findContours(edges, contours, hierarchy, RETR_CCOMP, CHAIN_APPROX_SIMPLE, Point(offsetX, offsetY));
+
+        // Walk the outer contours only, following the "next" links of the top level
+        vector<float> packed;
+        jint outer = 0;
+        for (int idx = hierarchy.empty() ? -1 : 0; idx >= 0; idx = hierarchy[idx][0])
+        {
+            outer++;
+            RotatedRect box = minAreaRect(contours[idx]);
+            double width = box.size.width * scale;
+            double height = box.size.height * scale;
+            if (!isEye(width, height, minArea, maxArea, minAspect, maxAspect))
+                continue;
+            packed.push_back((float)(box.center.x * scale));
+            packed.push_back((float)(box.center.y * scale));
+            packed.push_back((float)width);
+            packed.push_back((float)height);
+            packed.push_back(box.angle);
+        }
+
+        jsize needed = (jsize)packed.size();
+        jsize capacity = buffer ? jenv->GetArrayLength(buffer) : 0;
+        if (capacity < needed)
+        {
+            buffer = jenv->NewFloatArray(std::max(needed, std::max(16 * FIELDS, capacity * 2)));
+            if (!buffer)
+                return NULL; // OutOfMemoryError is pending
+        }
+        if (needed > 0)
+            jenv->SetFloatArrayRegion(buffer, 0, needed, &packed[0]);
+
+        jint result[2] = { needed / FIELDS, outer };
+        jenv->SetIntArrayRegion(counts, 0, 2, result);
+        return buffer;
+    }
+    catch(cv::Exception& e)
+    {
+        LOGD("nativeExtract caught cv::Exception: %s", e.what());
+        jclass je = jenv->FindClass("org/opencv/core/CvException");
+        if(!je)
+            je = jenv->FindClass("java/lang/Exception");
+        jenv->ThrowNew(je, e.what());
+    }
+    catch (...)
+    {
+        LOGD("nativeExtract caught unknown exception");
+        jclass je = jenv->FindClass("java/lang/Exception");
+        jenv->ThrowNew(je, "Unknown exception in JNI code of CandidateExtractor.nativeExtract()");
+    }
+    return buffer;
+}
@@ -0,0 +1,107 @@
+#include <ContourBuffer_jni.h>
+#include <opencv2/core/core.hpp>
+#include <opencv2/imgproc/imgproc.hpp>
+
+#include <vector>
+#include <algorithm>
+#include <cstring>
+
+#include <android/log.h>
+
+#define LOG_TAG "FaceDetection/ContourBuffer"
+#define LOGD(...) ((void)__android_log_print(ANDROID_LOG_DEBUG, LOG_TAG, __VA_ARGS__))
+
+using namespace std;
+using namespace cv;
+
+// Returns the int[] field of the buffer, replaced by a new array of at least needed ints if it is shorter.
+// Growing follows ContourBuffer.unpack(): the new length is max(needed, 2 * old length). Returns NULL on OutOfMemoryError.
+static jintArray ensureCapacity(JNIEnv * jenv, jobject buffer, jfieldID field, jsize needed, int& grown)
+{
+    jintArray array = (jintArray)jenv->GetObjectField(buffer, field);
+    jsize length = array ? jenv->GetArrayLength(array) : 0;
+    if (length >= needed)
+        return array;
+    jenv->DeleteLocalRef(array);
+    array = jenv->NewIntArray(std::max(needed, length * 2));
+    if (!array)
+        return NULL;
+    jenv->SetObjectField(buffer, field, array);
+    grown++;
+    return array;
+}
+
+JNIEXPORT void JNICALL Java_org_opencv_imgproc_ContourBuffer_nativeProbe
+(JNIEnv *, jclass)
+{
+}
+
+JNIEXPORT jint JNICALL Java_org_opencv_imgproc_ContourBuffer_nativeFindContours
+(JNIEnv * jenv, jclass clazz, jlong imageAddr, jint mode, jint method, jint offsetX, jint offsetY, jobject buffer)
+{
+    try
+    {
+        static jfieldID pointsField = jenv->GetFieldID(clazz, "points", "[I");
+        static jfieldID offsetsField = jenv->GetFieldID(clazz, "offsets", "[I");
+        static jfieldID hierarchyField = jenv->GetFieldID(clazz, "hierarchy", "[I");
+        static jfieldID countField = jenv->GetFieldID(clazz, "count", "I");
+
+        Mat& image = *((Mat*)imageAddr);
+        vector<vector<Point> > contours;
+        vector<Vec4i> hierarchy;
+        findContours(image, contours, hierarchy, mode, method, Point(offsetX, offsetY));
+
+        jsize n = (jsize)contours.size();
+        jsize total = 0;
+        for (jsize i = 0; i < n; i++)
+            total += (jsize)contours[i].size();
+
+        int grown = 0;
+        jintArray offsets = ensureCapacity(jenv, buffer, offsetsField, n + 1, grown);
+        if (!offsets)
+            return grown; // OutOfMemoryError is pending
+        jintArray points = ensureCapacity(jenv, buffer, pointsField, total * 2, grown);
+        if (!points)
+            return grown;
+        jintArray hierarchyArray = ensureCapacity(jenv, buffer, hierarchyField, n * 4, grown);
+        if (!hierarchyArray)
+            return grown;
+
+        // Vec4i and Point are plain ints, so both are copied as they are
+        if (n > 0)
+            jenv->SetIntArrayRegion(hierarchyArray, 0, n * 4, (const jint*)&hierarchy[0]);
+
+        jint* offsetData = (jint*)jenv->GetPrimitiveArrayCritical(offsets, NULL);
+        jint* pointData = (jint*)jenv->GetPrimitiveArrayCritical(points, NULL);
+        jsize used = 0;
+        offsetData[0] = 0;
+        for (jsize i = 0; i < n; i++)
+        {
+            jsize size = (jsize)contours[i].size();
+            if (size > 0)
+                memcpy(pointData + used * 2, &contours[i][0], size * 2 * sizeof(jint));
+            used += size;
+            offsetData[i + 1] = used;
+        }
+        jenv->ReleasePrimitiveArrayCritical(points, pointData, 0);
+        jenv->ReleasePrimitiveArrayCritical(offsets, offsetData, 0);
+
+        jenv->SetIntField(buffer, countField, n);
+        return grown;
+    }
+    catch(cv::Exception& e)
+    {
+        LOGD("nativeFindContours caught cv::Exception: %s", e.what());
+        jclass je = jenv->FindClass("org/opencv/core/CvException");
+        if(!je)
+            je = jenv->FindClass("java/lang/Exception");
+        jenv->ThrowNew(je, e.what());
+    }
+    catch (...)
+    {
+        LOGD("nativeFindContours caught unknown exception");
+        jclass je = jenv->FindClass("java/lang/Exception");
+        jenv->ThrowNew(je, "Unknown exception in JNI code of ContourBuffer.nativeFindContours()");
+    }
+    return 0;
+}
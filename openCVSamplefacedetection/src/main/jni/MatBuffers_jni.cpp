@@ -0,0 +1,70 @@
+#include <MatBuffers_jni.h>
+#include <opencv2/core/core.hpp>
+
+#include <android/log.h>
+
+#define LOG_TAG "FaceDetection/MatBuffers"
+#define LOGD(...) ((void)__android_log_print(ANDROID_LOG_DEBUG, LOG_TAG, __VA_ARGS__))
+
+using namespace cv;
+
+JNIEXPORT void JNICALL Java_org_opencv_core_MatBuffers_nativeProbe
+(JNIEnv *, jclass)
+{
+}
+
+JNIEXPORT jobject JNICALL Java_org_opencv_core_MatBuffers_nativeView
+(JNIEnv * jenv, jclass, jlong matAddr)
+{
+    try
+    {
+        Mat& mat = *((Mat*)matAddr);
+        CV_Assert(mat.isContinuous() && !mat.empty());
+        // The buffer only borrows the memory; the Java side documents that it must not outlive the Mat
+        return jenv->NewDirectByteBuffer(mat.data, (jlong)(mat.total() * mat.elemSize()));
+    }
+    catch(cv::Exception& e)
+    {
+        LOGD("nativeView caught cv::Exception: %s", e.what());
+        jclass je = jenv->FindClass("org/opencv/core/CvException");
+        if(!je)
+            je = jenv->FindClass("java/lang/Exception");
+        jenv->ThrowNew(je, e.what());
+    }
+    catch (...)
+    {
+        LOGD("nativeView caught unknown exception");
+        jclass je = jenv->FindClass("java/lang/Exception");
+        jenv->ThrowNew(je, "Unknown exception in JNI code of MatBuffers.nativeView()");
+    }
+    return 0;
+}
+
+JNIEXPORT jlong JNICALL Java_org_opencv_core_MatBuffers_nativeWrap
+(JNIEnv * jenv, jclass, jobject buffer, jint rows, jint cols, jint type)
+{
+    try
+    {
+        void* data = jenv->GetDirectBufferAddress(buffer);
+        jlong capacity = jenv->GetDirectBufferCapacity(buffer);
+        CV_Assert(data != 0 && rows > 0 && cols > 0);
+        CV_Assert((jlong)rows * cols * CV_ELEM_SIZE(type) <= capacity);
+        // A Mat header over user data does not own it and never frees it
+        return (jlong) new Mat(rows, cols, type, data);
+    }
+    catch(cv::Exception& e)
+    {
+        LOGD("nativeWrap caught cv::Exception: %s", e.what());
+        jclass je = jenv->FindClass("org/opencv/core/CvException");
+        if(!je)
+            je = jenv->FindClass("java/lang/Exception");
+        jenv->ThrowNew(je, e.what());
+    }
+    catch (...)
+    {
+        LOGD("nativeWrap caught unknown exception");
+        jclass je = jenv->FindClass("java/lang/Exception");
+        jenv->ThrowNew(je, "Unknown exception in JNI code of MatBuffers.nativeWrap()");
+    }
+    return 0;
+}